@@ -22,18 +22,30 @@ package de.kuschku.quasseldroid.service
 import de.kuschku.libquassel.protocol.BufferId
 import de.kuschku.libquassel.protocol.Message
 import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
 import de.kuschku.libquassel.session.ISession
 import de.kuschku.libquassel.util.Optional
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.DEBUG
 import de.kuschku.libquassel.util.helper.value
+import de.kuschku.quasseldroid.persistence.dao.countVisible
+import de.kuschku.quasseldroid.persistence.dao.find
 import de.kuschku.quasseldroid.persistence.dao.findFirstByBufferId
 import de.kuschku.quasseldroid.persistence.dao.get
 import de.kuschku.quasseldroid.persistence.db.AccountDatabase
 import de.kuschku.quasseldroid.persistence.db.QuasselDatabase
-import de.kuschku.quasseldroid.persistence.util.QuasselBacklogStorage
 import io.reactivex.Observable
 
+/**
+ * Loads older messages of a buffer. Ranges of message ids already stored completely are skipped,
+ * so only the gaps between them are requested, and nothing is requested once the start of the
+ * buffer's history is stored.
+ *
+ * The message cache and its ranges are cleared on every connection. Messages the core received
+ * while disconnected would otherwise leave a gap between the cached and the new messages, which
+ * the message list can't show and never requests, so ranges only save requests within one
+ * connection.
+ */
 class BacklogRequester(
   private val session: Observable<Optional<ISession>>,
   private val database: QuasselDatabase,
@@ -53,39 +65,66 @@ class BacklogRequester(
                                                buffer,
                                                accountDatabase.accounts().findById(accountId)?.defaultFiltered
                                                ?: 0)
-        it.requestBacklog(
+        val start = lastMessageId
+                    ?: database.message().findFirstByBufferId(buffer)?.messageId
+                    ?: MsgId(-1)
+        val ranges = database.backlogRanges().find(buffer)
+        val stored = if (start.isValidId()) ranges.rangeContaining(start.id - 1) else null
+        if (stored?.first == 0L) {
+          log(DEBUG, "BacklogRequester", "complete(bufferId: $buffer)")
+          finishCallback()
+          return
+        }
+        val last = stored?.let { MsgId(it.first) } ?: start
+        val below = ranges.rangeBelow(last.id)
+        val first = below?.let { MsgId(it.last + 1) } ?: MsgId(-1)
+
+        val requested = it.requestBacklog(
           bufferId = buffer,
-          last = lastMessageId
-                 ?: database.message().findFirstByBufferId(buffer)?.messageId
-                 ?: MsgId(-1),
+          first = first,
+          last = last,
           limit = amount
         ) {
-          if (it.isNotEmpty()) {
-            missing -= it.count {
-              (it.type.value and filtered.toUInt().inv()) != 0u &&
-              !QuasselBacklogStorage.isIgnored(session, it)
-            }
-            val hasLoadedAll = missing == 0
-            val hasLoadedAny = missing < amount
-            if (untilAllVisible && !hasLoadedAll || !untilAllVisible && !hasLoadedAny) {
-              val messageId = it.map(Message::messageId).min()
-              loadMore(accountId,
-                       buffer,
-                       missing,
-                       pageSize,
-                       messageId,
-                       untilAllVisible,
-                       finishCallback)
-              true
-            } else {
-              finishCallback()
-              true
-            }
+          val ignored = session.ignoreListManager.match(it)
+          missing -= it.indices.count { index ->
+            (it[index].type.value and filtered.toUInt().inv()) != 0u &&
+            ignored[index] == IgnoreListManager.StrictnessType.UnmatchedStrictness
+          }
+          if (it.size < amount && below != null) {
+            // The gap is filled, the stored range following it is skipped, so its messages count
+            missing -= database.message().countVisible(buffer,
+                                                       MsgId(below.first),
+                                                       MsgId(below.last),
+                                                       filtered)
+          }
+          val hasLoadedAll = missing <= 0
+          val hasLoadedAny = missing < amount
+          val next = when {
+            // The gap may continue below the received messages
+            it.size >= amount -> it.map(Message::messageId).min()
+            // The gap is filled, continue below the stored range following it
+            first.isValidId() -> first
+            // The start of the history was reached
+            else              -> null
+          }
+          if (next != null &&
+              (untilAllVisible && !hasLoadedAll || !untilAllVisible && !hasLoadedAny)) {
+            loadMore(accountId,
+                     buffer,
+                     missing,
+                     pageSize,
+                     next,
+                     untilAllVisible,
+                     finishCallback)
           } else {
             finishCallback()
-            true
           }
         }
+        if (!requested) {
+          // The pending request continues once its messages and range were stored
+          log(DEBUG, "BacklogRequester", "pending(bufferId: $buffer)")
+          finishCallback()
+        }
       }
     }
   }
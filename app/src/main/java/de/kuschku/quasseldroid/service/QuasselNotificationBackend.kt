@@ -25,7 +25,6 @@ import android.graphics.drawable.Drawable
 import android.text.SpannableStringBuilder
 import androidx.annotation.ColorInt
 import de.kuschku.libquassel.protocol.*
-import de.kuschku.libquassel.quassel.BufferInfo
 import de.kuschku.libquassel.quassel.ExtendedFeature
 import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
 import de.kuschku.libquassel.session.ISession
@@ -58,6 +57,7 @@ import de.kuschku.quasseldroid.util.irc.format.ContentFormatter
 import de.kuschku.quasseldroid.util.ui.drawable.TextDrawable
 import de.kuschku.quasseldroid.viewmodel.helper.EditorViewModelHelper.Companion.IGNORED_CHARS
 import org.threeten.bp.Instant
+import java.util.ArrayDeque
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
@@ -108,10 +108,22 @@ class QuasselNotificationBackend @Inject constructor(
     initTime = Instant.now()
     if (session.features.negotiated.hasFeature(ExtendedFeature.BacklogFilterType)) {
       val buffers = session.bufferSyncer.bufferInfos()
-      for (buffer in buffers) {
-        val lastSeenId = session.bufferSyncer.lastSeenMsg(buffer.bufferId)
-        database.notifications().markRead(buffer.bufferId, lastSeenId)
+      val lastSeen = buffers.associate {
+        Pair(it.bufferId, session.bufferSyncer.lastSeenMsg(it.bufferId))
+      }
 
+      // Messages read elsewhere, and all messages of removed buffers
+      val removedBuffers = database.notifications().buffers().minus(lastSeen.keys)
+      database.runInTransaction(Runnable {
+        for ((buffer, lastSeenId) in lastSeen) {
+          database.notifications().markRead(buffer, lastSeenId)
+        }
+        for (removedBuffer in removedBuffers) {
+          database.notifications().markRead(removedBuffer, MsgId.MAX_VALUE)
+        }
+      })
+
+      val requests = buffers.mapNotNull { buffer ->
         val level = buffer.type.let {
           when {
             it hasFlag Buffer_Type.QueryBuffer   -> notificationSettings.query
@@ -126,46 +138,134 @@ class QuasselNotificationBackend @Inject constructor(
             if (activity.hasFlag(Message_Type.Plain) ||
                 activity.hasFlag(Message_Type.Action) ||
                 activity.hasFlag(Message_Type.Notice))
-              session.backlogManager.requestBacklogFiltered(
-                buffer.bufferId, lastSeenId, MsgId(-1), 20, 0,
-                Message_Type.of(Message_Type.Plain,
-                                Message_Type.Action,
-                                Message_Type.Notice).toInt(),
-                0
-              ) {
-                processMessages(session, true, *it.toTypedArray())
-                false
-              }
+              BootstrapRequest(buffer.bufferId, lastSeen.getValue(buffer.bufferId), 0)
+            else null
           }
           NotificationSettings.Level.HIGHLIGHT -> {
             val highlightCount = session.bufferSyncer.highlightCount(buffer.bufferId)
-            if (highlightCount != 0) {
-              session.backlogManager.requestBacklogFiltered(
-                buffer.bufferId, lastSeenId, MsgId(-1), 20, 0,
-                Message_Type.of(Message_Type.Plain,
-                                Message_Type.Action,
-                                Message_Type.Notice).toInt(),
-                Message_Flag.of(Message_Flag.Highlight).toInt()
-              ) {
-                processMessages(session, true, *it.toTypedArray())
-                false
-              }
-            }
+            if (highlightCount != 0)
+              BootstrapRequest(buffer.bufferId, lastSeen.getValue(buffer.bufferId),
+                               Message_Flag.of(Message_Flag.Highlight).toInt())
+            else null
           }
           NotificationSettings.Level.NONE      -> {
             // We don’t want notifications for this type of channel, so we won’t get any.
+            null
           }
         }
       }
 
-      // Cleanup
-      val removedBuffers = database.notifications().buffers().minus(buffers.map(BufferInfo::bufferId))
-      for (removedBuffer in removedBuffers) {
-        database.notifications().markRead(removedBuffer, MsgId.MAX_VALUE)
-      }
-
       // Update notifications to have actions
       showConnectedNotifications()
+
+      if (requests.isNotEmpty()) {
+        Bootstrap(session, requests).start()
+      }
+    }
+  }
+
+  private data class BootstrapRequest(
+    val bufferId: BufferId,
+    val first: MsgId,
+    val flags: Int
+  )
+
+  /**
+   * Fetches the unread messages of all buffers with one request for all buffers. If that request
+   * hit its limit, the buffers it may have missed messages of are requested separately, with at
+   * most [MAX_CONCURRENT_REQUESTS] in flight. Notifications are only processed and shown once all
+   * responses have arrived, once per buffer. Buffers with another request pending are skipped
+   * rather than waited for.
+   */
+  private inner class Bootstrap(
+    private val session: ISession,
+    private val requests: List<BootstrapRequest>
+  ) {
+    private val received = mutableListOf<Message>()
+    private val pending = ArrayDeque<BootstrapRequest>()
+    private var inFlight = 0
+    private var finished = false
+
+    fun start() {
+      val flags =
+        if (requests.all { it.flags != 0 }) Message_Flag.of(Message_Flag.Highlight).toInt()
+        else 0
+      val limit = minOf(requests.size * BACKLOG_PER_BUFFER, MAX_BACKLOG_ALL)
+      val requested = session.backlogManager.requestBacklogAllFiltered(
+        requests.map { it.first }.min() ?: MsgId(-1), MsgId(-1), limit, 0,
+        NOTIFICATION_TYPES, flags, store = false
+      ) { messages ->
+        synchronized(this) {
+          received.addAll(messages)
+          // Only the newest messages were returned, older ones may be missing
+          if (messages.size >= limit) {
+            val oldest = messages.map(Message::messageId).min()
+            if (oldest != null) pending.addAll(requests.filter { it.first < oldest })
+          }
+        }
+        next()
+      }
+      if (!requested) {
+        // Another request for all buffers is pending, request each buffer separately instead
+        synchronized(this) {
+          pending.addAll(requests)
+        }
+        next()
+      }
+    }
+
+    private fun next() {
+      while (true) {
+        val request = synchronized(this) {
+          if (inFlight < MAX_CONCURRENT_REQUESTS) pending.pollFirst()?.also { inFlight++ }
+          else null
+        } ?: break
+
+        val requested = session.backlogManager.requestBacklogFiltered(
+          request.bufferId, request.first, MsgId(-1), BACKLOG_PER_BUFFER, 0,
+          NOTIFICATION_TYPES, request.flags, store = false
+        ) { messages ->
+          synchronized(this) {
+            received.addAll(messages)
+            inFlight--
+          }
+          next()
+        }
+        if (!requested) {
+          // Another request for this buffer is pending, its messages can't be waited for
+          synchronized(this) {
+            inFlight--
+          }
+        }
+      }
+
+      val messages = synchronized(this) {
+        if (finished || inFlight > 0 || pending.isNotEmpty()) return
+        finished = true
+        received.toList()
+      }
+      finish(messages)
+    }
+
+    private fun finish(messages: List<Message>) {
+      val wanted = requests.associateBy(BootstrapRequest::bufferId)
+      val unread = messages.asSequence().filter {
+        val request = wanted[it.bufferInfo.bufferId]
+        request != null && (request.flags == 0 || it.flag.hasFlag(Message_Flag.Highlight))
+      }.distinctBy {
+        it.messageId
+      }.groupBy {
+        it.bufferInfo.bufferId
+      }.values.flatMap {
+        it.sortedBy(Message::messageId).takeLast(BACKLOG_PER_BUFFER)
+      }
+
+      val results = saveNotifications(session, unread)
+      executor.execute {
+        results.map(NotificationData::bufferId).distinct().forEach { buffer ->
+          showNotification(buffer)
+        }
+      }
     }
   }
 
@@ -193,8 +293,27 @@ class QuasselNotificationBackend @Inject constructor(
     }
   }
 
-  @Synchronized
   override fun processMessages(session: ISession, show: Boolean, vararg messages: Message) {
+    val results = saveNotifications(session, messages.asList())
+    if (show) {
+      executor.schedule(
+        {
+          results.map(NotificationData::bufferId).distinct().forEach { buffer ->
+            this.showNotification(buffer)
+          }
+        },
+        clampOf(session.lag.or(0) * 3 + 100, 16, 3_000),
+        TimeUnit.MILLISECONDS
+      )
+    }
+  }
+
+  /**
+   * Stores notifications for all of [messages] which should be notified about
+   */
+  @Synchronized
+  private fun saveNotifications(session: ISession,
+                                messages: List<Message>): List<NotificationData> {
     val now = Instant.now()
     val results = messages.filter {
       val level = it.bufferInfo.type.let {
@@ -210,14 +329,11 @@ class QuasselNotificationBackend @Inject constructor(
         NotificationSettings.Level.HIGHLIGHT -> it.flag.hasFlag(Message_Flag.Highlight)
         NotificationSettings.Level.NONE      -> false
       }
-    }.filter {
-      val bufferName = it.bufferInfo.bufferName ?: ""
-      val networkId = it.bufferInfo.networkId
-      val networkName = session.network(networkId)?.networkName() ?: ""
-
-      session.ignoreListManager.match(
-        it.content, it.sender, it.type, networkName, bufferName
-      ) == IgnoreListManager.StrictnessType.UnmatchedStrictness
+    }.let {
+      val ignored = session.ignoreListManager.match(it)
+      it.filterIndexed { index, _ ->
+        ignored[index] == IgnoreListManager.StrictnessType.UnmatchedStrictness
+      }
     }.filter {
       it.type.hasFlag(Message_Type.Plain) ||
       it.type.hasFlag(Message_Type.Notice) ||
@@ -253,17 +369,7 @@ class QuasselNotificationBackend @Inject constructor(
       )
     }
     database.notifications().save(*results.toTypedArray())
-    if (show) {
-      executor.schedule(
-        {
-          results.map(NotificationData::bufferId).distinct().forEach { buffer ->
-            this.showNotification(buffer)
-          }
-        },
-        clampOf(session.lag.or(0) * 3 + 100, 16, 3_000),
-        TimeUnit.MILLISECONDS
-      )
-    }
+    return results
   }
 
   fun showConnectedNotifications() {
@@ -382,4 +488,13 @@ class QuasselNotificationBackend @Inject constructor(
     database.notifications().markRead(buffer, lastRead)
     showNotification(buffer)
   }
+
+  companion object {
+    private val NOTIFICATION_TYPES = Message_Type.of(Message_Type.Plain,
+                                                     Message_Type.Action,
+                                                     Message_Type.Notice).toInt()
+    private const val BACKLOG_PER_BUFFER = 20
+    private const val MAX_BACKLOG_ALL = 1000
+    private const val MAX_CONCURRENT_REQUESTS = 8
+  }
 }
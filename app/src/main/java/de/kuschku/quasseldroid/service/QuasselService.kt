@@ -22,7 +22,9 @@ package de.kuschku.quasseldroid.service
 import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
+import android.content.IntentFilter
 import android.content.SharedPreferences
+import android.os.BatteryManager
 import android.text.SpannableString
 import androidx.core.app.RemoteInput
 import androidx.lifecycle.Observer
@@ -54,6 +56,7 @@ import de.kuschku.quasseldroid.persistence.dao.markHidden
 import de.kuschku.quasseldroid.persistence.dao.markReadNormal
 import de.kuschku.quasseldroid.persistence.db.AccountDatabase
 import de.kuschku.quasseldroid.persistence.db.QuasselDatabase
+import de.kuschku.quasseldroid.persistence.util.MessageRetention
 import de.kuschku.quasseldroid.persistence.util.QuasselBacklogStorage
 import de.kuschku.quasseldroid.settings.ConnectionSettings
 import de.kuschku.quasseldroid.settings.NotificationSettings
@@ -357,6 +360,8 @@ class QuasselService : DaggerLifecycleService(),
 
   lateinit var currentBuffer: BehaviorSubject<BufferId>
 
+  private lateinit var retention: MessageRetention
+
   private fun disconnectFromCore() {
     getSharedPreferences(Keys.Status.NAME, Context.MODE_PRIVATE).editCommit {
       putBoolean(Keys.Status.reconnect, false)
@@ -377,6 +382,20 @@ class QuasselService : DaggerLifecycleService(),
 
     val backlogStorage = QuasselBacklogStorage(database)
     currentBuffer = backlogStorage.currentBuffer
+    retention = MessageRetention(
+      database,
+      isIdle = {
+        System.currentTimeMillis() - backlogStorage.lastStored > RETENTION_IDLE_MILLIS
+      },
+      isCharging = {
+        (registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+          ?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) ?: 0) != 0
+      }
+    )
+    currentBuffer.toLiveData().observe(this, Observer {
+      if (it != null) retention.bufferAccessed(it)
+    })
+    retention.start()
     sessionManager = SessionManager(
       ISession.NULL,
       backlogStorage,
@@ -403,7 +422,9 @@ class QuasselService : DaggerLifecycleService(),
     sessionManager.connectionProgress.toLiveData().observe(this, Observer {
       if (this.progress.first != it?.first && it?.first == ConnectionState.CONNECTED) {
         handlerService.backend {
-          database.message().clearMessages()
+          // Messages received while disconnected are missing, so neither the cached messages nor
+          // the complete ranges covering them can be kept across connections
+          database.clearMessages()
         }
       }
       val rawProgress = it ?: Triple(ConnectionState.DISCONNECTED, 0, 0)
@@ -486,6 +507,7 @@ class QuasselService : DaggerLifecycleService(),
     }
 
     sessionManager.dispose()
+    retention.close()
     asyncBackend.setDisconnectCallback(null)
     backendImplementation.service = null
 
@@ -539,6 +561,8 @@ class QuasselService : DaggerLifecycleService(),
     const val BACKOFF_MIN = 5_000L
     // max is 30 minutes
     const val BACKOFF_MAX = 1_800_000L
+    // trim the message cache only after 10 seconds without new messages
+    const val RETENTION_IDLE_MILLIS = 10_000L
 
     fun launch(
       context: Context,
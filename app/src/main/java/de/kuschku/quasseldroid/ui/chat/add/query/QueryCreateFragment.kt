@@ -280,10 +280,12 @@ class QueryCreateFragment : ServiceBoundFragment() {
           ),
           avatarUrls = AvatarHelper.avatar(messageSettings, it, avatarSize)
         )
-      }.sortedBy {
-        IrcCaseMappers[it.networkCasemapping].toLowerCase(it.nick.trimStart(*EditorViewModelHelper.IGNORED_CHARS))
-          .trimStart(*EditorViewModelHelper.IGNORED_CHARS)
-      }.sortedBy {
+      }.sortedWith(Comparator { a, b ->
+        IrcCaseMappers[a.networkCasemapping].compare(
+          a.nick.trimStart(*EditorViewModelHelper.IGNORED_CHARS),
+          b.nick.trimStart(*EditorViewModelHelper.IGNORED_CHARS)
+        )
+      }).sortedBy {
         it.lowestMode
       }.toList()
     }.toLiveData().observe(this, Observer {
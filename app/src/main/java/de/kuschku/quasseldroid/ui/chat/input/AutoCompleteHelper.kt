@@ -228,17 +228,13 @@ class AutoCompleteHelper(
       fun getNicks() = getUsers().filter {
         filterStart(it.nick())
       }.map { user ->
-        val userModes = ircChannel.userModes(user)
-        val prefixModes = network.prefixModes()
-
-        val lowestMode = userModes.mapNotNull(prefixModes::indexOf).min()
-                         ?: prefixModes.size
+        val modeBits = ircChannel.userModeBits(user)
 
         AutoCompleteItem.UserItem(
           user.nick(),
           user.hostMask(),
-          network.modesToPrefixes(userModes),
-          lowestMode,
+          network.prefixesOf(modeBits),
+          network.prefixModeRank(modeBits),
           user.realName(),
           user.isAway(),
           user.network().isMyNick(user.nick()),
@@ -37,7 +37,6 @@ import de.kuschku.libquassel.protocol.Buffer_Type
 import de.kuschku.libquassel.protocol.NetworkId
 import de.kuschku.libquassel.quassel.BufferInfo
 import de.kuschku.libquassel.util.helper.value
-import de.kuschku.libquassel.util.irc.IrcCaseMappers
 import de.kuschku.libquassel.util.irc.SenderColorUtil
 import de.kuschku.quasseldroid.GlideApp
 import de.kuschku.quasseldroid.R
@@ -136,11 +135,6 @@ class NickListFragment : ServiceBoundFragment() {
             ),
             avatarUrls = AvatarHelper.avatar(messageSettings, it, avatarSize)
           )
-        }?.sortedBy {
-          IrcCaseMappers[it.networkCasemapping].toLowerCase(it.nick.trimStart(*IGNORED_CHARS))
-            .trimStart(*IGNORED_CHARS)
-        }?.sortedBy {
-          it.lowestMode
         }?.toList()?.let {
           activity?.runOnUiThread {
             nickListAdapter.submitList(it)
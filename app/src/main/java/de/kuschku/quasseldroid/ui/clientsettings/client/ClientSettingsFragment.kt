@@ -75,7 +75,8 @@ class ClientSettingsFragment : DaggerPreferenceFragmentCompat(),
     findPreference(getString(R.string.preference_clear_cache_key)).setOnPreferenceClickListener {
       activity?.let {
         handler.post {
-          QuasselDatabase.Creator.init(it).message().clearMessages()
+          val database = QuasselDatabase.Creator.init(it)
+          database.clearMessages()
         }
       }
       true
@@ -45,6 +45,10 @@ class AndroidHandlerService : HandlerService {
     writeHandler.post(f)
   }
 
+  override fun writeDelayed(delayMillis: Long, f: () -> Unit) {
+    writeHandler.postDelayed(f, delayMillis)
+  }
+
   override fun backend(f: () -> Unit) {
     backendHandler.post(f)
   }
@@ -0,0 +1,57 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+plugins {
+  kotlin("jvm")
+  kotlin("kapt")
+}
+
+dependencies {
+  implementation(kotlin("stdlib", "1.3.50"))
+
+  implementation("org.threeten", "threetenbp", "1.4.0")
+  implementation("io.reactivex.rxjava2", "rxjava", "2.2.12")
+
+  implementation(project(":lib"))
+
+  implementation("org.openjdk.jmh", "jmh-core", "1.21")
+  implementation("org.openjdk.jol", "jol-core", "0.9")
+  kapt("org.openjdk.jmh", "jmh-generator-annprocess", "1.21")
+}
+
+/**
+ * Runs all benchmarks with the GC profiler enabled, additional JMH arguments can be passed with
+ * -PjmhArgs="...", recorded corpora with -PcorpusDir=...
+ */
+tasks.register<JavaExec>("jmh") {
+  dependsOn("classes")
+  main = "org.openjdk.jmh.Main"
+  classpath = sourceSets["main"].runtimeClasspath
+
+  val resultFile = "$buildDir/reports/jmh/results.json"
+  doFirst {
+    file(resultFile).parentFile.mkdirs()
+  }
+
+  args = listOf("-prof", "gc", "-rf", "json", "-rff", resultFile) +
+         project.findProperty("jmhArgs")?.toString()?.split(" ").orEmpty()
+  project.findProperty("corpusDir")?.let {
+    systemProperty("libquassel.corpus.dir", it)
+  }
+}
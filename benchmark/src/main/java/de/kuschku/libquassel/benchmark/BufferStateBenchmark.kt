@@ -0,0 +1,110 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.Message_Type
+import de.kuschku.libquassel.protocol.Message_Types
+import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.util.IntIntMap
+import de.kuschku.libquassel.util.IntList
+import de.kuschku.libquassel.util.IntLongMap
+import de.kuschku.libquassel.util.rxjava.LiveMap
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jol.info.GraphLayout
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the collections BufferSyncer and BufferViewConfig previously kept buffer state in,
+ * [LiveMap]s keyed by [BufferId] and a list of [BufferId]s, with their primitive replacements.
+ * After each trial the retained heap of both for [count] buffers is measured with JOL and
+ * printed. With the GC profiler, gc.alloc.rate.norm of the update benchmarks is the cost of a
+ * sync call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class BufferStateBenchmark {
+  @Param("1000", "100000")
+  var count: Int = 0
+
+  private lateinit var previousLastSeen: LiveMap<BufferId, MsgId>
+  private lateinit var previousActivities: LiveMap<BufferId, Message_Types>
+  private lateinit var previousBuffers: MutableList<BufferId>
+  private lateinit var primitiveLastSeen: IntLongMap
+  private lateinit var primitiveActivities: IntIntMap
+  private lateinit var primitiveBuffers: IntList
+
+  private var next = 0
+
+  @Setup
+  fun setup() {
+    previousLastSeen = LiveMap()
+    previousActivities = LiveMap()
+    previousBuffers = mutableListOf()
+    primitiveLastSeen = IntLongMap()
+    primitiveActivities = IntIntMap()
+    primitiveBuffers = IntList()
+    for (i in 0 until count) {
+      val buffer = BufferId(OFFSET + i)
+      previousLastSeen[buffer] = MsgId(OFFSET + i * 1000L)
+      previousActivities[buffer] = Message_Type.of(i and 0xFFFF)
+      previousBuffers.add(buffer)
+      primitiveLastSeen.put(buffer.id, OFFSET + i * 1000L)
+      primitiveActivities.put(buffer.id, i and 0xFFFF)
+      primitiveBuffers.add(buffer.id)
+    }
+  }
+
+  @TearDown
+  fun footprint() {
+    val previous = GraphLayout.parseInstance(previousLastSeen,
+                                             previousActivities,
+                                             previousBuffers).totalSize()
+    val primitive = GraphLayout.parseInstance(primitiveLastSeen,
+                                              primitiveActivities,
+                                              primitiveBuffers).totalSize()
+    println("Retained heap for $count buffers: previous $previous, primitive $primitive bytes")
+  }
+
+  @Benchmark
+  fun updatePrevious(): MsgId? {
+    val buffer = BufferId(OFFSET + next++ % count)
+    previousLastSeen[buffer] = MsgId(previousLastSeen[buffer]!!.id + 1)
+    previousActivities[buffer] = Message_Type.of(previousActivities[buffer]!!.toInt() xor 1)
+    return previousLastSeen[buffer]
+  }
+
+  @Benchmark
+  fun updatePrimitive(): Long {
+    val buffer = OFFSET + next++ % count
+    primitiveLastSeen.put(buffer, primitiveLastSeen.get(buffer, 0) + 1)
+    primitiveActivities.put(buffer, primitiveActivities.get(buffer, 0) xor 1)
+    return primitiveLastSeen.get(buffer, 0)
+  }
+
+  companion object {
+    // Buffer ids above the Integer cache, as on real accounts
+    private const val OFFSET = 1_000
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.connection.Features
+import de.kuschku.libquassel.protocol.IdentityId
+import de.kuschku.libquassel.protocol.NetworkId
+import de.kuschku.libquassel.protocol.message.HandshakeMessage
+import de.kuschku.libquassel.protocol.message.SignalProxyMessage
+import de.kuschku.libquassel.quassel.syncables.Identity
+import de.kuschku.libquassel.quassel.syncables.Network
+import de.kuschku.libquassel.quassel.syncables.RpcHandler
+import de.kuschku.libquassel.session.ISession
+import de.kuschku.libquassel.session.ObjectStorage
+import de.kuschku.libquassel.session.ProtocolHandler
+
+/**
+ * Reads every parameter of the messages it is handed, as applying them to the session would,
+ * without keeping any syncable objects around
+ */
+class ConsumingProtocolHandler : ProtocolHandler() {
+  override val objectStorage = ObjectStorage(this)
+  override val rpcHandler = RpcHandler(ISession.NULL)
+  override val features = Features.all()
+
+  /**
+   * Number of parameters read so far
+   */
+  var consumed = 0L
+    private set
+
+  override fun handle(f: SignalProxyMessage): Boolean {
+    when (f) {
+      is SignalProxyMessage.SyncMessage -> f.params.forEach(::consume)
+      is SignalProxyMessage.RpcCall     -> f.params.forEach(::consume)
+      is SignalProxyMessage.InitData    -> f.initData.values.forEach(::consume)
+      else                              -> consume(f)
+    }
+    return true
+  }
+
+  private fun consume(value: Any?) {
+    if (value != null) consumed++
+  }
+
+  override fun onInitDone() = Unit
+  override fun dispatch(message: SignalProxyMessage) = Unit
+  override fun dispatch(message: HandshakeMessage) = Unit
+  override fun network(id: NetworkId): Network? = null
+  override fun identity(id: IdentityId): Identity? = null
+}
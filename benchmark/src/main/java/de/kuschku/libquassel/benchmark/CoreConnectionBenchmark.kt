@@ -0,0 +1,71 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.connection.ConnectionState
+import de.kuschku.libquassel.connection.CoreConnection
+import de.kuschku.libquassel.connection.Features
+import de.kuschku.libquassel.connection.SocketAddress
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayInputStream
+import java.nio.channels.Channels
+import java.util.concurrent.TimeUnit
+
+/**
+ * Feeds a corpus through [CoreConnection.readFrames] from an in-memory channel, covering framing,
+ * buffer pooling and decoding, into a handler reading every parameter as the session would
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class CoreConnectionBenchmark {
+  @Param(Corpus.SESSION_INIT, Corpus.BACKLOG_BURST, Corpus.SYNC_TRAFFIC)
+  lateinit var corpus: String
+
+  @Param("true", "false")
+  var lazyDecoding: Boolean = true
+
+  private lateinit var wire: ByteArray
+  private lateinit var connection: CoreConnection
+  private lateinit var handler: ConsumingProtocolHandler
+
+  @Setup
+  fun setup() {
+    wire = Corpus.load(corpus).wire
+    connection = CoreConnection(
+      SocketAddress("localhost", 4242),
+      features = Features.all(),
+      handlerService = ImmediateHandlerService(),
+      lazyDecoding = lazyDecoding
+    )
+    handler = ConsumingProtocolHandler()
+    connection.setHandlers(handler, null, null)
+    connection.setState(ConnectionState.CONNECTED)
+  }
+
+  @Benchmark
+  fun readFrames(): Long {
+    connection.readFrames(Channels.newChannel(ByteArrayInputStream(wire)))
+    return handler.consumed
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.protocol.message.RequestType
+import de.kuschku.libquassel.protocol.message.SignalProxyMessage
+import de.kuschku.libquassel.protocol.primitive.serializer.StringSerializer
+import de.kuschku.libquassel.protocol.primitive.serializer.VariantListSerializer
+import de.kuschku.libquassel.quassel.BufferInfo
+import de.kuschku.libquassel.quassel.QuasselFeatures
+import de.kuschku.libquassel.util.helper.serializeString
+import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import org.threeten.bp.Instant
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * A sequence of SignalProxy frames as sent by the core after the handshake.
+ *
+ * Recorded corpora are read from `<name>.bin` in the directory given by the
+ * `libquassel.corpus.dir` system property, in wire format (each frame prefixed with its 32-bit
+ * big endian length). If no recording is available, a deterministic synthetic corpus of similar
+ * shape is generated instead.
+ */
+class Corpus(val frames: List<ByteBuffer>) {
+  /**
+   * The corpus in wire format, as it would be read from the socket
+   */
+  val wire: ByteArray by lazy {
+    val stream = ByteArrayOutputStream()
+    for (frame in frames) {
+      val data = frame.duplicate()
+      stream.write(ByteBuffer.allocate(4).putInt(data.remaining()).array())
+      while (data.hasRemaining())
+        stream.write(data.get().toInt())
+    }
+    stream.toByteArray()
+  }
+
+  val totalBytes = frames.sumBy(ByteBuffer::remaining)
+
+  companion object {
+    const val SESSION_INIT = "sessionInit"
+    const val BACKLOG_BURST = "backlogBurst"
+    const val SYNC_TRAFFIC = "syncTraffic"
+
+    val features: QuasselFeatures = QuasselFeatures.all()
+
+    fun load(name: String): Corpus {
+      val directory = System.getProperty("libquassel.corpus.dir")
+      val file = directory?.let { File(it, "$name.bin") }
+      if (file != null && file.exists())
+        return read(file.readBytes())
+
+      val random = Random(name.hashCode().toLong())
+      return Corpus(
+        when (name) {
+          SESSION_INIT  -> sessionInit(random)
+          BACKLOG_BURST -> backlogBurst(random)
+          SYNC_TRAFFIC  -> syncTraffic(random)
+          else          -> throw IllegalArgumentException("Unknown corpus: $name")
+        }.map(::frame)
+      )
+    }
+
+    private fun read(bytes: ByteArray): Corpus {
+      val buffer = ByteBuffer.wrap(bytes)
+      val frames = mutableListOf<ByteBuffer>()
+      while (buffer.remaining() >= 4) {
+        val length = buffer.int
+        val frame = buffer.slice()
+        frame.limit(length)
+        frames.add(frame)
+        buffer.position(buffer.position() + length)
+      }
+      return Corpus(frames)
+    }
+
+    fun frame(data: QVariantList): ByteBuffer {
+      val chainedBuffer = ChainedByteBuffer(direct = false)
+      VariantListSerializer.serialize(chainedBuffer, data, features)
+      return chainedBuffer.toBuffer()
+    }
+
+    private fun bytes(value: String) =
+      ARG(value.serializeString(StringSerializer.UTF8), Type.QByteArray)
+
+    private fun string(value: String) = ARG(value, Type.QString)
+
+    private fun strings(values: List<String>) = ARG(values.map(::string), Type.QVariantList)
+
+    private fun initData(className: String, objectName: String,
+                         data: QVariantMap): QVariantList = listOf<QVariant_>(
+      ARG(RequestType.InitData.value, Type.Int),
+      bytes(className),
+      bytes(objectName),
+      *data.flatMap { (key, value) -> listOf<QVariant_>(bytes(key), value) }.toTypedArray()
+    )
+
+    private fun nick(random: Random) = "user" + random.nextInt(100_000)
+
+    fun message(random: Random, id: Long, bufferId: Int) = Message(
+      MsgId(id),
+      Instant.ofEpochSecond(1_500_000_000L + id),
+      Message_Type.of(Message_Type.Plain),
+      Message_Flag.of(),
+      BufferInfo(
+        BufferId(bufferId),
+        NetworkId(bufferId % 20),
+        Buffer_Type.of(BufferInfo.Type.ChannelBuffer),
+        0,
+        "#channel$bufferId"
+      ),
+      "${nick(random)}!~user@host${random.nextInt(1000)}.example.com",
+      "",
+      "Real Name",
+      "",
+      (0 until 4 + random.nextInt(20)).joinToString(" ") { "word${random.nextInt(500)}" }
+    )
+
+    /**
+     * InitData for 20 networks with their users and channels, followed by the buffer syncer
+     */
+    private fun sessionInit(random: Random): List<QVariantList> {
+      val frames = mutableListOf<QVariantList>()
+      for (networkId in 1..20) {
+        val nicks = (0 until 500).map { nick(random) }.distinct()
+        val channels = (0 until 50).map { "#channel$networkId-$it" }
+        val users = mapOf(
+          "nick" to strings(nicks),
+          "user" to strings(nicks.map { "~$it" }),
+          "host" to strings(nicks.map { "host${random.nextInt(1000)}.example.com" }),
+          "realName" to strings(nicks.map { "Real Name" }),
+          "account" to strings(nicks.map { "*" }),
+          "away" to ARG(nicks.map { ARG(random.nextBoolean(), Type.Bool) }, Type.QVariantList),
+          "awayMessage" to strings(nicks.map { "" }),
+          "server" to strings(nicks.map { "irc.example.com" }),
+          "userModes" to strings(nicks.map { "" })
+        )
+        val channelData = mapOf(
+          "name" to strings(channels),
+          "topic" to strings(channels.map { "Welcome to $it" }),
+          "password" to strings(channels.map { "" }),
+          "encrypted" to ARG(channels.map { ARG(false, Type.Bool) }, Type.QVariantList),
+          "UserModes" to ARG(channels.map {
+            ARG(nicks.shuffled(random).take(50).map { nick ->
+              nick to string(if (random.nextInt(10) == 0) "o" else "")
+            }.toMap(), Type.QVariantMap)
+          }, Type.QVariantList)
+        )
+        frames.add(initData("Network", "$networkId", mapOf(
+          "networkName" to string("Network $networkId"),
+          "currentServer" to string("irc.example.com"),
+          "myNick" to string("me"),
+          "latency" to ARG(random.nextInt(500), Type.Int),
+          "isConnected" to ARG(true, Type.Bool),
+          "Supports" to ARG(mapOf(
+            "CHANMODES" to string("beI,k,l,imnpst"),
+            "PREFIX" to string("(ov)@+"),
+            "NETWORK" to string("Example")
+          ), Type.QVariantMap),
+          "Caps" to ARG(mapOf("sasl" to string("PLAIN")), Type.QVariantMap),
+          "CapsEnabled" to strings(listOf("away-notify", "multi-prefix")),
+          "IrcUsersAndChannels" to ARG(mapOf(
+            "Users" to ARG(users, Type.QVariantMap),
+            "Channels" to ARG(channelData, Type.QVariantMap)
+          ), Type.QVariantMap)
+        )))
+      }
+
+      val bufferIds = (1..1000).map { ARG(BufferId(it), QType.BufferId) }
+      val msgIds = (1..1000).map { ARG(MsgId(random.nextInt(1_000_000).toLong()), QType.MsgId) }
+      frames.add(initData("BufferSyncer", "", mapOf(
+        "LastSeenMsg" to ARG(bufferIds.zip(msgIds).flatMap { listOf(it.first, it.second) },
+                             Type.QVariantList),
+        "MarkerLines" to ARG(bufferIds.zip(msgIds).flatMap { listOf(it.first, it.second) },
+                             Type.QVariantList)
+      )))
+      return frames
+    }
+
+    /**
+     * Backlog replies of 500 messages each for 50 buffers
+     */
+    private fun backlogBurst(random: Random): List<QVariantList> = (1..50).map { bufferId ->
+      val messages = (0 until 500).map {
+        ARG(message(random, bufferId * 1000L + it, bufferId), QType.Message)
+      }
+      SignalProxyMessage.serialize(SignalProxyMessage.SyncMessage(
+        "BacklogManager", "", "receiveBacklog", listOf(
+          ARG(BufferId(bufferId), QType.BufferId),
+          ARG(MsgId(-1), QType.MsgId),
+          ARG(MsgId(-1), QType.MsgId),
+          ARG(500, Type.Int),
+          ARG(0, Type.Int),
+          ARG(messages, Type.QVariantList)
+        )
+      ))
+    }
+
+    /**
+     * A mix of messages, user and channel updates and read markers as received while idle
+     */
+    private fun syncTraffic(random: Random): List<QVariantList> = (0 until 5000).map {
+      val networkId = 1 + random.nextInt(20)
+      val bufferId = 1 + random.nextInt(1000)
+      SignalProxyMessage.serialize(
+        when (random.nextInt(4)) {
+          0    -> SignalProxyMessage.RpcCall("2displayMsg(Message)", listOf(
+            ARG(message(random, it.toLong(), bufferId), QType.Message)
+          ))
+          1    -> SignalProxyMessage.SyncMessage(
+            "IrcUser", "$networkId/${nick(random)}", "setAway",
+            listOf(ARG(random.nextBoolean(), Type.Bool))
+          )
+          2    -> SignalProxyMessage.SyncMessage(
+            "IrcChannel", "$networkId/#channel$networkId-${random.nextInt(50)}", "joinIrcUsers",
+            listOf(
+              ARG(listOf(nick(random)), Type.QStringList),
+              ARG(listOf(""), Type.QStringList)
+            )
+          )
+          else -> SignalProxyMessage.SyncMessage(
+            "BufferSyncer", "", "setLastSeenMsg", listOf(
+              ARG(BufferId(bufferId), QType.BufferId),
+              ARG(MsgId(it.toLong()), QType.MsgId)
+            )
+          )
+        }
+      )
+    }
+  }
+}
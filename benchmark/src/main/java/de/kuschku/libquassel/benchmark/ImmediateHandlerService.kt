@@ -0,0 +1,41 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.util.compatibility.HandlerService
+import io.reactivex.schedulers.Schedulers
+
+/**
+ * Runs everything on the calling thread, so a benchmark measures the work itself instead of
+ * thread handoffs
+ */
+class ImmediateHandlerService : HandlerService {
+  override val scheduler = Schedulers.trampoline()
+  override var exceptionHandler: Thread.UncaughtExceptionHandler? = null
+
+  override fun serialize(f: () -> Unit) = f()
+  override fun deserialize(f: () -> Unit) = f()
+  override fun write(f: () -> Unit) = f()
+  override fun writeDelayed(delayMillis: Long, f: () -> Unit) = f()
+  override fun backend(f: () -> Unit) = f()
+  override fun backendDelayed(delayMillis: Long, f: () -> Unit) = f()
+
+  override fun quit() = Unit
+}
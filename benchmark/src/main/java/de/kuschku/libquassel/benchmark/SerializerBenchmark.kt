@@ -0,0 +1,145 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.protocol.Message
+import de.kuschku.libquassel.protocol.QVariantList
+import de.kuschku.libquassel.protocol.QVariantMap
+import de.kuschku.libquassel.protocol.primitive.serializer.*
+import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import org.openjdk.jmh.annotations.*
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class SerializerBenchmark {
+  @Param(Corpus.SESSION_INIT, Corpus.BACKLOG_BURST, Corpus.SYNC_TRAFFIC)
+  lateinit var corpus: String
+
+  private val features = Corpus.features
+  private val output = ChainedByteBuffer(direct = false)
+
+  private lateinit var frames: List<ByteBuffer>
+  private lateinit var lists: List<QVariantList>
+
+  private lateinit var variantMap: QVariantMap
+  private lateinit var variantMapBytes: ByteBuffer
+
+  private lateinit var message: Message
+  private lateinit var messageBytes: ByteBuffer
+
+  private val asciiText = "The quick brown fox jumps over the lazy dog, #quassel"
+  private val unicodeText = "Grüße aus Köln ☕ – ünïcödé ❤"
+  private lateinit var utf8Ascii: ByteBuffer
+  private lateinit var utf8Unicode: ByteBuffer
+  private lateinit var utf16Ascii: ByteBuffer
+  private lateinit var cAscii: ByteBuffer
+
+  @Setup
+  fun setup() {
+    frames = Corpus.load(corpus).frames
+    lists = frames.map { VariantListSerializer.deserialize(it.duplicate(), features) }
+
+    variantMap = lists.asSequence().flatten().mapNotNull { it.data as? Map<*, *> }
+      .firstOrNull()?.let {
+        @Suppress("UNCHECKED_CAST")
+        it as QVariantMap
+      } ?: emptyMap()
+    variantMapBytes = serialize(VariantMapSerializer, variantMap)
+
+    message = Corpus.message(Random(0), 1, 1)
+    messageBytes = serialize(MessageSerializer, message)
+
+    utf8Ascii = serialize(StringSerializer.UTF8, asciiText)
+    utf8Unicode = serialize(StringSerializer.UTF8, unicodeText)
+    utf16Ascii = serialize(StringSerializer.UTF16, asciiText)
+    cAscii = serialize(StringSerializer.C, asciiText)
+  }
+
+  private fun <T> serialize(serializer: Serializer<T>, value: T): ByteBuffer {
+    val buffer = ChainedByteBuffer(direct = false)
+    serializer.serialize(buffer, value, features)
+    return buffer.toBuffer()
+  }
+
+  private fun <T> serializeTo(serializer: Serializer<T>, value: T): Int {
+    serializer.serialize(output, value, features)
+    val size = output.size
+    output.clear()
+    return size
+  }
+
+  @Benchmark
+  fun variantListDeserialize(): Int {
+    var count = 0
+    for (frame in frames) {
+      count += VariantListSerializer.deserialize(frame.duplicate(), features).size
+    }
+    return count
+  }
+
+  @Benchmark
+  fun variantListSerialize(): Int {
+    var size = 0
+    for (list in lists) {
+      size += serializeTo(VariantListSerializer, list)
+    }
+    return size
+  }
+
+  @Benchmark
+  fun variantMapDeserialize() = VariantMapSerializer.deserialize(variantMapBytes.duplicate(), features)
+
+  @Benchmark
+  fun variantMapSerialize() = serializeTo(VariantMapSerializer, variantMap)
+
+  @Benchmark
+  fun messageDeserialize() = MessageSerializer.deserialize(messageBytes.duplicate(), features)
+
+  @Benchmark
+  fun messageSerialize() = serializeTo(MessageSerializer, message)
+
+  @Benchmark
+  fun stringUtf8AsciiDeserialize() = StringSerializer.UTF8.deserialize(utf8Ascii.duplicate(), features)
+
+  @Benchmark
+  fun stringUtf8UnicodeDeserialize() = StringSerializer.UTF8.deserialize(utf8Unicode.duplicate(), features)
+
+  @Benchmark
+  fun stringUtf16Deserialize() = StringSerializer.UTF16.deserialize(utf16Ascii.duplicate(), features)
+
+  @Benchmark
+  fun stringCDeserialize() = StringSerializer.C.deserialize(cAscii.duplicate(), features)
+
+  @Benchmark
+  fun stringUtf8Serialize() = serializeTo(StringSerializer.UTF8, unicodeText)
+
+  @Benchmark
+  fun stringUtf16Serialize() = serializeTo(StringSerializer.UTF16, asciiText)
+
+  @Benchmark
+  fun stringCSerialize() = serializeTo(StringSerializer.C, asciiText)
+}
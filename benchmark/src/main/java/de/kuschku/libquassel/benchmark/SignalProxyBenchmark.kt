@@ -0,0 +1,82 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.benchmark
+
+import de.kuschku.libquassel.protocol.message.SignalProxyFrameDecoder
+import de.kuschku.libquassel.protocol.message.SignalProxyMessage
+import de.kuschku.libquassel.protocol.primitive.serializer.VariantListSerializer
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class SignalProxyBenchmark {
+  @Param(Corpus.SESSION_INIT, Corpus.BACKLOG_BURST, Corpus.SYNC_TRAFFIC)
+  lateinit var corpus: String
+
+  private val features = Corpus.features
+  private lateinit var frames: List<ByteBuffer>
+
+  @Setup
+  fun setup() {
+    frames = Corpus.load(corpus).frames
+  }
+
+  @Benchmark
+  fun eagerDeserialize(blackhole: Blackhole) {
+    for (frame in frames) {
+      blackhole.consume(SignalProxyMessage.deserialize(
+        VariantListSerializer.deserialize(frame.duplicate(), features)
+      ))
+    }
+  }
+
+  /**
+   * Only decodes the message headers, as a handler ignoring the message would
+   */
+  @Benchmark
+  fun lazyDecodeHeaders(blackhole: Blackhole) {
+    for (frame in frames) {
+      blackhole.consume(SignalProxyFrameDecoder.decode(frame.duplicate(), features))
+    }
+  }
+
+  /**
+   * Decodes the message headers and then all parameters, as a handler would
+   */
+  @Benchmark
+  fun lazyDecodeAll(blackhole: Blackhole) {
+    for (frame in frames) {
+      val message = SignalProxyFrameDecoder.decode(frame.duplicate(), features)
+      when (message) {
+        is SignalProxyMessage.SyncMessage -> message.params.forEach(blackhole::consume)
+        is SignalProxyMessage.RpcCall     -> message.params.forEach(blackhole::consume)
+        is SignalProxyMessage.InitData    -> message.initData.values.forEach(blackhole::consume)
+        else                              -> blackhole.consume(message)
+      }
+    }
+  }
+}
@@ -20,6 +20,7 @@
 package de.kuschku.libquassel.annotations
 
 import com.google.auto.service.AutoService
+import de.kuschku.libquassel.annotations.data.ParsedClass
 import de.kuschku.libquassel.annotations.generator.Generator
 import de.kuschku.libquassel.annotations.parser.ParserEnvironment
 import javax.annotation.processing.*
@@ -41,14 +42,19 @@ class InvokerProcessor : AbstractProcessor() {
   }
 
   override fun process(annotations: Set<TypeElement>, roundEnv: RoundEnvironment): Boolean {
+    val parsedClasses = mutableListOf<ParsedClass>()
     parserEnvironment.use { parser ->
       for (annotatedElement in roundEnv.getElementsAnnotatedWith(Syncable::class.java)) {
         val parsedClass = parser.parse(annotatedElement)
         if (parsedClass != null) {
           generator.generate(parsedClass)
+          parsedClasses.add(parsedClass)
         }
       }
     }
+    if (parsedClasses.isNotEmpty()) {
+      generator.generateRegistry(parsedClasses)
+    }
     return true
   }
 }
@@ -23,12 +23,16 @@ import com.squareup.kotlinpoet.*
 import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
 import de.kuschku.libquassel.annotations.Context
 import de.kuschku.libquassel.annotations.data.ParsedClass
+import de.kuschku.libquassel.annotations.data.ParsedMethod
 import java.io.File
 
 class Generator(
   private val context: Context
 ) {
   fun generate(parsedClass: ParsedClass) {
+    // Slot ids are indices into this list, the first method wins for duplicate names
+    val slots = parsedClass.methods.distinctBy(ParsedMethod::quasselName)
+
     val file = FileSpec.builder(
       parsedClass.name.packageName + ".invokers",
       parsedClass.quasselName + "Invoker"
@@ -42,6 +46,22 @@ class Generator(
             KModifier.OVERRIDE
           ).initializer("\"${parsedClass.quasselName}\"").build()
         )
+        .addProperty(
+          PropertySpec.builder(
+            "slots",
+            LIST.parameterizedBy(String::class.asTypeName()),
+            KModifier.OVERRIDE
+          ).initializer(
+            buildCodeBlock {
+              add("listOf(")
+              for ((i, method) in slots.withIndex()) {
+                if (i != 0) add(", ")
+                add("%S", method.quasselName)
+              }
+              add(")")
+            }
+          ).build()
+        )
         .addFunction(
           FunSpec.builder("invoke")
             .addModifiers(KModifier.OVERRIDE, KModifier.OPERATOR)
@@ -67,22 +87,49 @@ class Generator(
                 beginControlFlow("when (method)")
                 for (method in parsedClass.methods) {
                   beginControlFlow("%S ->", method.quasselName)
-                  if (method.parameters.isEmpty()) {
-                    addStatement("on.${method.name}()")
-                  } else {
-                    addStatement("on.${method.name}(")
-                    indent()
-                    val lastIndex = method.parameters.size - 1
-                    for ((i, parameter) in method.parameters.withIndex()) {
-                      val suffix = if (i != lastIndex) "," else ""
-                      addStatement("${parameter.name} = params[$i].data as %T$suffix",
-                                   parameter.type)
-                    }
-                    unindent()
-                    addStatement(")")
-                  }
+                  addCall(method)
+                  endControlFlow()
+                }
+                endControlFlow()
+                nextControlFlow("else")
+                addStatement("throw %T(on, className)", TYPENAME_WRONG_OBJECT_TYPE_EXCEPTION)
+                endControlFlow()
+              }
+            )
+            .build()
+        )
+        .addFunction(
+          FunSpec.builder("invoke")
+            .addModifiers(KModifier.OVERRIDE, KModifier.OPERATOR)
+            .addParameter(
+              ParameterSpec.builder(
+                "on",
+                ANY.copy(nullable = true)
+              ).build()
+            ).addParameter(
+              ParameterSpec.builder(
+                "slotId",
+                INT
+              ).build()
+            ).addParameter(
+              ParameterSpec.builder(
+                "params",
+                TYPENAME_QVARIANTLIST
+              ).build()
+            )
+            .addCode(
+              buildCodeBlock {
+                beginControlFlow("if (on is %T)", parsedClass.name)
+                beginControlFlow("when (slotId)")
+                for ((slotId, method) in slots.withIndex()) {
+                  beginControlFlow("$slotId ->")
+                  addCall(method)
                   endControlFlow()
                 }
+                addStatement(
+                  "else -> throw %T(className, slotId.toString())",
+                  TYPENAME_UNKNOWN_METHOD_EXCEPTION
+                )
                 endControlFlow()
                 nextControlFlow("else")
                 addStatement("throw %T(on, className)", TYPENAME_WRONG_OBJECT_TYPE_EXCEPTION)
@@ -97,6 +144,64 @@ class Generator(
     file.writeTo(File(context.targetPath))
   }
 
+  /**
+   * Generates a registry of all invokers keyed by their interface, so they can be looked up
+   * without reflection
+   */
+  fun generateRegistry(parsedClasses: List<ParsedClass>) {
+    val packageName = parsedClasses.first().name.packageName + ".invokers"
+    val file = FileSpec.builder(packageName, "InvokerRegistry").addType(
+      TypeSpec.objectBuilder("InvokerRegistry")
+        .addProperty(
+          PropertySpec.builder(
+            "invokers",
+            MAP.parameterizedBy(
+              TYPENAME_CLASS.parameterizedBy(STAR),
+              TYPENAME_INVOKER.parameterizedBy(STAR)
+            )
+          ).initializer(
+            buildCodeBlock {
+              add("mapOf(\n")
+              indent()
+              for ((i, parsedClass) in parsedClasses.sortedBy(ParsedClass::quasselName).withIndex()) {
+                if (i != 0) add(",\n")
+                add(
+                  "%T::class.java to %T",
+                  parsedClass.name,
+                  ClassName(
+                    parsedClass.name.packageName + ".invokers",
+                    parsedClass.quasselName + "Invoker"
+                  )
+                )
+              }
+              unindent()
+              add("\n)")
+            }
+          ).build()
+        )
+        .build()
+    ).build()
+
+    file.writeTo(File(context.targetPath))
+  }
+
+  private fun CodeBlock.Builder.addCall(method: ParsedMethod) {
+    if (method.parameters.isEmpty()) {
+      addStatement("on.${method.name}()")
+    } else {
+      addStatement("on.${method.name}(")
+      indent()
+      val lastIndex = method.parameters.size - 1
+      for ((i, parameter) in method.parameters.withIndex()) {
+        val suffix = if (i != lastIndex) "," else ""
+        addStatement("${parameter.name} = params[$i].data as %T$suffix",
+                     parameter.type)
+      }
+      unindent()
+      addStatement(")")
+    }
+  }
+
   companion object {
     private val TYPENAME_INVOKER = ClassName(
       "de.kuschku.libquassel.quassel.syncables.interfaces.invokers",
@@ -110,5 +215,13 @@ class Generator(
       "de.kuschku.libquassel.quassel.exceptions",
       "WrongObjectTypeException"
     )
+    private val TYPENAME_UNKNOWN_METHOD_EXCEPTION = ClassName(
+      "de.kuschku.libquassel.quassel.exceptions",
+      "UnknownMethodException"
+    )
+    private val TYPENAME_CLASS = ClassName(
+      "java.lang",
+      "Class"
+    )
   }
 }
@@ -21,12 +21,14 @@ package de.kuschku.libquassel.connection
 
 import de.kuschku.libquassel.protocol.ClientData
 import de.kuschku.libquassel.protocol.message.HandshakeMessage
+import de.kuschku.libquassel.protocol.message.SignalProxyFrameDecoder
 import de.kuschku.libquassel.protocol.message.SignalProxyMessage
 import de.kuschku.libquassel.protocol.primitive.serializer.HandshakeVariantMapSerializer
 import de.kuschku.libquassel.protocol.primitive.serializer.IntSerializer
 import de.kuschku.libquassel.protocol.primitive.serializer.ProtocolInfoSerializer
 import de.kuschku.libquassel.protocol.primitive.serializer.VariantListSerializer
 import de.kuschku.libquassel.quassel.ProtocolFeature
+import de.kuschku.libquassel.quassel.ProtocolInfo
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.session.ProtocolHandler
 import de.kuschku.libquassel.ssl.BrowserCompatibleHostnameVerifier
@@ -43,6 +45,10 @@ import de.kuschku.libquassel.util.helper.hexDump
 import de.kuschku.libquassel.util.helper.safeValue
 import de.kuschku.libquassel.util.helper.write
 import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.DirectBufferPool
+import de.kuschku.libquassel.util.nio.MessageChannel
+import de.kuschku.libquassel.util.nio.NioChannel
+import de.kuschku.libquassel.util.nio.SelectorLoop
 import de.kuschku.libquassel.util.nio.WrappedChannel
 import io.reactivex.subjects.BehaviorSubject
 import java.io.Closeable
@@ -50,6 +56,12 @@ import java.lang.Thread.UncaughtExceptionHandler
 import java.net.Socket
 import java.net.SocketException
 import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
 import javax.net.ssl.SSLSession
 import javax.net.ssl.X509TrustManager
 
@@ -60,10 +72,25 @@ class CoreConnection(
   private val features: Features = Features(clientData.clientFeatures, QuasselFeatures.empty()),
   private val handlerService: HandlerService = JavaHandlerService(),
   private val trustManager: X509TrustManager = TrustManagers.default(),
-  private val hostnameVerifier: HostnameVerifier = BrowserCompatibleHostnameVerifier()
+  private val hostnameVerifier: HostnameVerifier = BrowserCompatibleHostnameVerifier(),
+  val bufferPool: DirectBufferPool = DirectBufferPool(),
+  private val lazyDecoding: Boolean = true,
+  maxWriteLatencyMillis: Long = 0,
+  private val selectorLoop: SelectorLoop? = null,
+  private val decodeExecutor: Executor? = initDataDecoder
 ) : Thread(), Closeable {
   companion object {
     private const val TAG = "CoreConnection"
+
+    /**
+     * Decodes InitData in parallel, shared by all connections
+     */
+    val initDataDecoder: Executor by lazy {
+      val threads = maxOf(1, Runtime.getRuntime().availableProcessors() - 1)
+      Executors.newFixedThreadPool(threads) {
+        Thread(it, "InitDataDecoder").apply { isDaemon = true }
+      }
+    }
   }
 
   private var handler: ProtocolHandler? = null
@@ -83,26 +110,55 @@ class CoreConnection(
   }
 
   private val sizeBuffer = ByteBuffer.allocateDirect(4)
-  private val chainedBuffer = ChainedByteBuffer(direct = true)
 
   val state: BehaviorSubject<ConnectionState> = BehaviorSubject.createDefault(
     ConnectionState.DISCONNECTED
   )
 
-  private var channel: WrappedChannel? = null
+  @Volatile
+  private var channel: MessageChannel? = null
     set(value) {
       field = value
       sslSession.onNext(Optional.ofNullable(value?.sslSession))
     }
 
+  val frameWriter = FrameWriter(handlerService, { channel }, maxWriteLatencyMillis)
+
+  // State of the non-blocking read path, only ever used on the selector loop thread
+  private var awaitingProtocol = true
+  private var pendingFrame: ByteBuffer? = null
+
+  private val selectorHandler = object : SelectorLoop.Handler {
+    override fun onReady(key: SelectionKey) {
+      val channel = channel as? NioChannel ?: return
+      if (key.isWritable)
+        channel.onWritable()
+      if (key.isReadable)
+        readAvailable(channel)
+    }
+
+    override fun onError(key: SelectionKey, throwable: Throwable) = handleError(throwable)
+  }
+
   private fun connect() {
     setState(ConnectionState.CONNECTING)
-    val socket = Socket()
-    if (CompatibilityUtils.supportsKeepAlive)
-      socket.keepAlive = true
-    socket.connect(address.data(), 10_000)
-    handlerService.exceptionHandler = exceptionHandler
-    channel = WrappedChannel.ofSocket(socket)
+    if (selectorLoop != null) {
+      val socketChannel = SocketChannel.open()
+      if (CompatibilityUtils.supportsKeepAlive)
+        socketChannel.socket().keepAlive = true
+      socketChannel.socket().connect(address.data(), 10_000)
+      handlerService.exceptionHandler = exceptionHandler
+      channel = NioChannel(socketChannel).apply {
+        handshakeListener = { sslSession.onNext(Optional.of(it)) }
+      }
+    } else {
+      val socket = Socket()
+      if (CompatibilityUtils.supportsKeepAlive)
+        socket.keepAlive = true
+      socket.connect(address.data(), 10_000)
+      handlerService.exceptionHandler = exceptionHandler
+      channel = WrappedChannel.ofSocket(socket)
+    }
   }
 
   fun setState(value: ConnectionState) {
@@ -117,16 +173,17 @@ class CoreConnection(
 
   private fun sendHandshake() {
     setState(ConnectionState.HANDSHAKE)
+    val handshakeBuffer = ChainedByteBuffer(direct = true)
     IntSerializer.serialize(
-      chainedBuffer,
+      handshakeBuffer,
       0x42b33f00 or clientData.protocolFeatures.toInt(),
       features.negotiated
     )
     for (supportedProtocol in clientData.supportedProtocols) {
-      IntSerializer.serialize(chainedBuffer, supportedProtocol.toInt(), features.negotiated)
+      IntSerializer.serialize(handshakeBuffer, supportedProtocol.toInt(), features.negotiated)
     }
-    IntSerializer.serialize(chainedBuffer, 1 shl 31, features.negotiated)
-    channel?.write(chainedBuffer)
+    IntSerializer.serialize(handshakeBuffer, 1 shl 31, features.negotiated)
+    channel?.write(handshakeBuffer)
     channel?.flush()
   }
 
@@ -134,8 +191,10 @@ class CoreConnection(
     sizeBuffer.clear()
     channel?.read(sizeBuffer)
     sizeBuffer.flip()
-    val protocol = ProtocolInfoSerializer.deserialize(sizeBuffer, features.negotiated)
+    negotiate(ProtocolInfoSerializer.deserialize(sizeBuffer, features.negotiated))
+  }
 
+  private fun negotiate(protocol: ProtocolInfo) {
     log(DEBUG, TAG, "Protocol negotiated $protocol")
 
     // Wrap socket in SSL context if ssl is enabled
@@ -185,12 +244,10 @@ class CoreConnection(
     handlerService.serialize {
       try {
         val data = HandshakeMessage.serialize(message)
-        handlerService.write(
-          MessageRunnable(
-            data, HandshakeVariantMapSerializer, chainedBuffer, channel,
-            features.negotiated
-          )
-        )
+        MessageRunnable(
+          data, HandshakeVariantMapSerializer, frameWriter,
+          features.negotiated
+        ).invoke()
       } catch (e: Throwable) {
         log(WARN, TAG, "Error encountered while serializing handshake message", e)
       }
@@ -201,12 +258,10 @@ class CoreConnection(
     handlerService.serialize {
       try {
         val data = SignalProxyMessage.serialize(message)
-        handlerService.write(
-          MessageRunnable(
-            data, VariantListSerializer, chainedBuffer, channel,
-            features.negotiated
-          )
-        )
+        MessageRunnable(
+          data, VariantListSerializer, frameWriter,
+          features.negotiated
+        ).invoke()
       } catch (e: Throwable) {
         log(WARN, TAG, "Error encountered while serializing sigproxy message", e)
       }
@@ -217,80 +272,162 @@ class CoreConnection(
     try {
       connect()
       sendHandshake()
+
+      val selectorLoop = selectorLoop
+      val channel = channel
+      if (selectorLoop != null && channel is NioChannel) {
+        // From here on the connection is driven by the selector loop
+        channel.register(selectorLoop, selectorHandler)
+        return
+      }
+
       readHandshake()
-      while (!isInterrupted && state.safeValue != ConnectionState.CLOSED) {
-        sizeBuffer.clear()
-        if (channel?.read(sizeBuffer) == -1)
-          break
+      channel?.let(::readFrames)
+      channel?.close()
+    } catch (e: Throwable) {
+      handleError(e)
+    }
+  }
+
+  /**
+   * Reads frames from a blocking [channel] and dispatches them until the channel is exhausted or
+   * the connection is closed. Only public so benchmarks can replay recorded traffic without a
+   * socket, connections call it on their own thread.
+   */
+  fun readFrames(channel: ReadableByteChannel) {
+    while (!isInterrupted && state.safeValue != ConnectionState.CLOSED) {
+      sizeBuffer.clear()
+      if (channel.read(sizeBuffer) == -1)
+        break
+      sizeBuffer.flip()
+
+      val size = IntSerializer.deserialize(sizeBuffer, features.negotiated)
+      if (size > 64 * 1024 * 1024)
+        throw SocketException("Too large frame received: $size")
+      val dataBuffer = bufferPool.acquire(size)
+      while (dataBuffer.position() < dataBuffer.limit() && channel.read(dataBuffer) > 0) {
+      }
+      dataBuffer.flip()
+
+      processFrame(dataBuffer)
+    }
+  }
+
+  /**
+   * Reads as many frames as are available without blocking, keeping partial frames for the next
+   * time the channel becomes readable
+   */
+  private fun readAvailable(channel: NioChannel) {
+    while (state.safeValue != ConnectionState.CLOSED) {
+      val frame = pendingFrame
+      if (frame == null) {
+        if (channel.read(sizeBuffer) == -1)
+          return channel.close()
+        if (sizeBuffer.hasRemaining())
+          return
         sizeBuffer.flip()
 
+        if (awaitingProtocol) {
+          awaitingProtocol = false
+          val protocol = ProtocolInfoSerializer.deserialize(sizeBuffer, features.negotiated)
+          sizeBuffer.clear()
+          negotiate(protocol)
+          continue
+        }
+
         val size = IntSerializer.deserialize(sizeBuffer, features.negotiated)
+        sizeBuffer.clear()
         if (size > 64 * 1024 * 1024)
           throw SocketException("Too large frame received: $size")
-        val dataBuffer = ByteBuffer.allocateDirect(size)
-        while (dataBuffer.position() < dataBuffer.limit() && channel?.read(dataBuffer) ?: -1 > 0) {
-        }
-        dataBuffer.flip()
-
-        handlerService.deserialize {
-          when (state.safeValue) {
-            ConnectionState.CLOSED    ->
-              // Connection closed, do nothing
-              Unit
-            ConnectionState.CONNECTING,
-            ConnectionState.HANDSHAKE ->
-              processHandshake(dataBuffer)
-            else                      ->
-              processSigProxy(dataBuffer)
-          }
-        }
-      }
-      channel?.close()
-    } catch (e: Throwable) {
-      val closed = state.safeValue == ConnectionState.CLOSED
-
-      var cause: Throwable? = e
-      var exception: QuasselSecurityException?
-      do {
-        exception = cause as? QuasselSecurityException
-        cause = cause?.cause
-      } while (cause != null && exception == null)
-      if (exception != null) {
-        val securityExceptionCallback = this.securityExceptionCallback
-        close()
-        log(WARN,
-            TAG,
-            "Security error encountered in connection: ${exception::class.java.canonicalName}")
-        securityExceptionCallback?.invoke(exception)
+        pendingFrame = bufferPool.acquire(size)
       } else {
-        if (!closed) {
-          log(WARN, TAG, "Error encountered in connection", e)
-          log(WARN, TAG, "Last sent message: ${MessageRunnable.lastSent.get()}")
-          exceptionCallback?.invoke(e)
-        }
-        close()
+        if (channel.read(frame) == -1)
+          return channel.close()
+        if (frame.hasRemaining())
+          return
+        frame.flip()
+
+        pendingFrame = null
+        processFrame(frame)
+      }
+    }
+  }
+
+  private fun processFrame(dataBuffer: ByteBuffer) = handlerService.deserialize {
+    when (state.safeValue) {
+      ConnectionState.CLOSED    ->
+        // Connection closed, do nothing
+        bufferPool.release(dataBuffer)
+      ConnectionState.CONNECTING,
+      ConnectionState.HANDSHAKE ->
+        processHandshake(dataBuffer)
+      else                      ->
+        processSigProxy(dataBuffer)
+    }
+  }
+
+  private fun handleError(e: Throwable) {
+    val closed = state.safeValue == ConnectionState.CLOSED
+
+    var cause: Throwable? = e
+    var exception: QuasselSecurityException?
+    do {
+      exception = cause as? QuasselSecurityException
+      cause = cause?.cause
+    } while (cause != null && exception == null)
+    if (exception != null) {
+      val securityExceptionCallback = this.securityExceptionCallback
+      close()
+      log(WARN,
+          TAG,
+          "Security error encountered in connection: ${exception::class.java.canonicalName}")
+      securityExceptionCallback?.invoke(exception)
+    } else {
+      if (!closed) {
+        log(WARN, TAG, "Error encountered in connection", e)
+        log(WARN, TAG, "Last sent message: ${MessageRunnable.lastSent.get()}")
+        exceptionCallback?.invoke(e)
       }
+      close()
     }
   }
 
   private fun processSigProxy(dataBuffer: ByteBuffer) = handlerService.deserialize {
+    var handedOff = false
     try {
-      val msg = SignalProxyMessage.deserialize(
-        VariantListSerializer.deserialize(dataBuffer, features.negotiated)
-      )
+      val msg = if (lazyDecoding) {
+        SignalProxyFrameDecoder.decode(dataBuffer, features.negotiated)
+      } else {
+        SignalProxyMessage.deserialize(
+          VariantListSerializer.deserialize(dataBuffer, features.negotiated)
+        )
+      }
+      // InitData is decoded in parallel, but still handled in the order it was received
+      val decoding = decodeExecutor?.takeIf {
+        lazyDecoding && msg is SignalProxyMessage.InitData
+      }?.let { executor ->
+        FutureTask { msg.detach() }.also(executor::execute)
+      }
       handlerService.backend {
         try {
+          decoding?.get()
           handler?.handle(msg)
         } catch (e: Throwable) {
           log(WARN, TAG, "Error encountered while handling sigproxy message", e)
           log(WARN, TAG, msg.toString())
+        } finally {
+          msg.release()
+          bufferPool.release(dataBuffer)
         }
       }
-
+      handedOff = true
     } catch (e: Throwable) {
       log(WARN,
           TAG, "Error encountered while parsing sigproxy message", e)
       dataBuffer.hexDump()
+    } finally {
+      if (!handedOff)
+        bufferPool.release(dataBuffer)
     }
   }
 
@@ -310,6 +447,8 @@ class CoreConnection(
       WARN,
       TAG, "Error encountered while parsing handshake message", e
     )
+  } finally {
+    bufferPool.release(dataBuffer)
   }
 
 
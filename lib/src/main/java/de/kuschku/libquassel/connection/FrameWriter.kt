@@ -0,0 +1,161 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.connection
+
+import de.kuschku.libquassel.util.compatibility.HandlerService
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
+import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.MessageChannel
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Outbound stage of the connection: serialized frames are queued and written in batches on the
+ * write thread, each batch with a single gathering write and a single flush.
+ *
+ * Frames are held back for at most [maxLatencyMillis] before a batch is written, allowing bursts
+ * of messages to be coalesced.
+ *
+ * Messages are serialized into buffers obtained from [obtainBuffer], which are handed over with
+ * [enqueue] and written directly, prefixed by their size, without copying them into a frame.
+ */
+class FrameWriter(
+  private val handlerService: HandlerService,
+  private val channel: () -> MessageChannel?,
+  private val maxLatencyMillis: Long = 0,
+  private val maxBatchSize: Int = 256,
+  private val maxPooledBuffers: Int = 16
+) {
+  private val queue = ConcurrentLinkedQueue<ChainedByteBuffer>()
+  private val pool = ConcurrentLinkedQueue<ChainedByteBuffer>()
+  private val scheduled = AtomicBoolean(false)
+
+  // Only ever used on the write thread
+  private val batch = arrayOfNulls<ChainedByteBuffer>(maxBatchSize)
+  private val headers = Array(maxBatchSize) { ByteBuffer.allocateDirect(4) }
+  private var gather = Array(maxBatchSize * 2) { EMPTY }
+
+  private val framesWritten = AtomicLong()
+  private val batchesWritten = AtomicLong()
+
+  /**
+   * Returns an empty buffer to serialize a message into
+   */
+  fun obtainBuffer(): ChainedByteBuffer = pool.poll() ?: ChainedByteBuffer(direct = true)
+
+  /**
+   * Returns a buffer obtained from [obtainBuffer] without writing it
+   */
+  fun recycle(buffer: ChainedByteBuffer) {
+    buffer.clear()
+    if (pool.size < maxPooledBuffers) {
+      pool.add(buffer)
+    }
+  }
+
+  /**
+   * Queues a serialized message to be written as a frame. The buffer is owned by the writer until
+   * it has been written, after which it is recycled.
+   */
+  fun enqueue(message: ChainedByteBuffer) {
+    queue.add(message)
+    if (scheduled.compareAndSet(false, true)) {
+      if (maxLatencyMillis > 0) {
+        handlerService.writeDelayed(maxLatencyMillis, ::drain)
+      } else {
+        handlerService.write(::drain)
+      }
+    }
+  }
+
+  private fun drain() {
+    scheduled.set(false)
+    val channel = channel()
+    try {
+      var written = false
+      while (true) {
+        var count = 0
+        var buffers = 0
+        while (count < maxBatchSize) {
+          val message = queue.poll() ?: break
+          val segments = message.segments()
+          val header = headers[count]
+          header.clear()
+          header.putInt(message.size)
+          header.flip()
+
+          ensureGatherCapacity(buffers + 1 + segments.size)
+          gather[buffers++] = header
+          for (segment in segments) {
+            gather[buffers++] = segment
+          }
+          batch[count++] = message
+        }
+        if (count == 0)
+          break
+
+        try {
+          channel?.write(gather, 0, buffers)
+        } finally {
+          gather.fill(EMPTY, 0, buffers)
+          for (i in 0 until count) {
+            batch[i]?.let(::recycle)
+            batch[i] = null
+          }
+        }
+        framesWritten.addAndGet(count.toLong())
+        batchesWritten.incrementAndGet()
+        written = true
+      }
+      if (written) {
+        channel?.flush()
+      }
+    } catch (e: Throwable) {
+      log(WARN, "MessageDispatching", e)
+    }
+  }
+
+  private fun ensureGatherCapacity(capacity: Int) {
+    if (gather.size < capacity) {
+      val grown = Array(maxOf(capacity, gather.size * 2)) { EMPTY }
+      System.arraycopy(gather, 0, grown, 0, gather.size)
+      gather = grown
+    }
+  }
+
+  fun stats() = Stats(
+    framesWritten = framesWritten.get(),
+    batchesWritten = batchesWritten.get(),
+    framesQueued = queue.size
+  )
+
+  data class Stats(
+    val framesWritten: Long,
+    val batchesWritten: Long,
+    val framesQueued: Int
+  )
+
+  companion object {
+    private val EMPTY = ByteBuffer.allocate(0)
+  }
+}
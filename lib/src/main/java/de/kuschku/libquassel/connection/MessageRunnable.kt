@@ -23,30 +23,22 @@ import de.kuschku.libquassel.protocol.primitive.serializer.Serializer
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
-import de.kuschku.libquassel.util.helper.write
-import de.kuschku.libquassel.util.nio.ChainedByteBuffer
-import de.kuschku.libquassel.util.nio.WrappedChannel
-import java.nio.ByteBuffer
 import java.util.concurrent.atomic.AtomicReference
 
 class MessageRunnable<T>(
   private val data: T,
   private val serializer: Serializer<T>,
-  private val chainedBuffer: ChainedByteBuffer,
-  private val channel: WrappedChannel?,
+  private val writer: FrameWriter,
   private val features: QuasselFeatures
 ) : () -> Unit {
   override fun invoke() {
+    val buffer = writer.obtainBuffer()
     try {
-      serializer.serialize(chainedBuffer, data, features)
-      val sizeBuffer = ByteBuffer.allocateDirect(4)
-      sizeBuffer.putInt(chainedBuffer.size)
-      sizeBuffer.flip()
-      channel?.write(sizeBuffer)
-      channel?.write(chainedBuffer)
-      channel?.flush()
+      serializer.serialize(buffer, data, features)
+      writer.enqueue(buffer)
       lastSent.set(data)
     } catch (e: Throwable) {
+      writer.recycle(buffer)
       log(WARN, "MessageDispatching", e)
     }
   }
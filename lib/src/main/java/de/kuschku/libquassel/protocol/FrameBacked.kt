@@ -0,0 +1,37 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.protocol
+
+/**
+ * A value that may still reference parts of the frame it was read from
+ */
+interface FrameBacked {
+  /**
+   * Decodes everything that still depends on the frame, so the value stays valid after the frame
+   * has been released
+   */
+  fun detach()
+
+  /**
+   * Drops the reference to the frame. Data that has not been decoded by now can not be accessed
+   * anymore.
+   */
+  fun release()
+}
@@ -0,0 +1,66 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.protocol
+
+import de.kuschku.libquassel.protocol.primitive.serializer.VariantSerializer
+import de.kuschku.libquassel.quassel.QuasselFeatures
+import java.nio.ByteBuffer
+
+/**
+ * A list of [size] variants that are only deserialized from [buffer] once an element is first
+ * accessed
+ */
+class LazyVariantList(
+  private var buffer: ByteBuffer?,
+  override val size: Int,
+  private val features: QuasselFeatures
+) : AbstractList<QVariant_>(), FrameBacked {
+  private var decoded: List<QVariant_>? = null
+
+  val isDecoded
+    get() = decoded != null
+
+  private fun decoded(): List<QVariant_> {
+    val decoded = this.decoded
+    if (decoded != null)
+      return decoded
+
+    val buffer = this.buffer
+                 ?: throw IllegalStateException("Parameters accessed after their frame was released")
+    val result = ArrayList<QVariant_>(size)
+    for (i in 0 until size) {
+      result.add(VariantSerializer.deserialize(buffer, features))
+    }
+    this.decoded = result
+    this.buffer = null
+    return result
+  }
+
+  override fun get(index: Int) = decoded()[index]
+
+  override fun detach() {
+    if (buffer != null)
+      decoded()
+  }
+
+  override fun release() {
+    buffer = null
+  }
+}
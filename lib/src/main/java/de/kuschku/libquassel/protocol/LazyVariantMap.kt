@@ -0,0 +1,48 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.protocol
+
+/**
+ * A variant map built from a flat key/value [source] list only when it is first accessed
+ */
+class LazyVariantMap(
+  private val source: QVariantList
+) : AbstractMap<String, QVariant_>(), FrameBacked {
+  private val map by lazy(LazyThreadSafetyMode.NONE) {
+    source.toVariantMap()
+  }
+
+  override val entries: Set<Map.Entry<String, QVariant_>>
+    get() = map.entries
+
+  override val size: Int
+    get() = map.size
+
+  override fun containsKey(key: String) = map.containsKey(key)
+  override fun get(key: String) = map[key]
+
+  override fun detach() {
+    map
+  }
+
+  override fun release() {
+    (source as? FrameBacked)?.release()
+  }
+}
@@ -36,6 +36,6 @@ object InitDataSerializer : SignalProxyMessageSerializer<SignalProxyMessage.Init
   override fun deserialize(data: QVariantList) = SignalProxyMessage.InitData(
     data[0].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
     data[1].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
-    data.drop(2).toVariantMap()
+    data.subList(2, data.size).toVariantMap()
   )
 }
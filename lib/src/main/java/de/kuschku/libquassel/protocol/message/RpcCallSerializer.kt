@@ -37,6 +37,6 @@ object RpcCallSerializer : SignalProxyMessageSerializer<SignalProxyMessage.RpcCa
 
   override fun deserialize(data: QVariantList) = SignalProxyMessage.RpcCall(
     data[0].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
-    data.drop(1)
+    data.subList(1, data.size)
   )
 }
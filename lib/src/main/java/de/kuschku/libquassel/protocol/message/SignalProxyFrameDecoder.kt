@@ -0,0 +1,176 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.protocol.message
+
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.protocol.primitive.serializer.BoolSerializer
+import de.kuschku.libquassel.protocol.primitive.serializer.IntSerializer
+import de.kuschku.libquassel.protocol.primitive.serializer.StringSerializer
+import de.kuschku.libquassel.protocol.primitive.serializer.VariantSerializer
+import de.kuschku.libquassel.quassel.QuasselFeatures
+import de.kuschku.libquassel.quassel.syncables.interfaces.invokers.Invokers
+import de.kuschku.libquassel.quassel.syncables.interfaces.invokers.SlotTable
+import de.kuschku.libquassel.util.helper.deserializeString
+import de.kuschku.libquassel.util.nio.ByteStringTable
+import java.nio.ByteBuffer
+
+/**
+ * Decodes SignalProxy frames lazily: only the request type and the class, object and slot names
+ * are read eagerly, the parameters stay in the frame until they are accessed.
+ *
+ * Class and slot names are read directly from the frame and resolved to the names known to the
+ * registered [Invokers] without decoding them, slots are additionally resolved to their ids.
+ */
+object SignalProxyFrameDecoder {
+  fun decode(buffer: ByteBuffer, features: QuasselFeatures): SignalProxyMessage {
+    val length = IntSerializer.deserialize(buffer, features)
+    if (length < 1)
+      throw IllegalArgumentException("Empty SignalProxy message")
+
+    val type = readRequestType(buffer, features)
+    return when (RequestType.of(type)) {
+      RequestType.Sync           -> {
+        requireLength(type, length, 4)
+        val className = readName(buffer, features, Invokers.classNames)
+        val objectName = readName(buffer, features, null)
+        val slots = Invokers.slotTable(className)
+        val slotId = readSlot(buffer, features, slots)
+        SignalProxyMessage.SyncMessage(
+          className,
+          objectName,
+          if (slots != null && slotId != -1) slots.slots[slotId]
+          else readName(buffer, features, null),
+          lazyParams(buffer, length - 4, features),
+          slotId
+        )
+      }
+      RequestType.RpcCall        -> {
+        requireLength(type, length, 2)
+        val slotId = readSlot(buffer, features, Invokers.rpcSlots)
+        SignalProxyMessage.RpcCall(
+          if (slotId != -1) Invokers.rpcSlots.slots[slotId]
+          else readName(buffer, features, null),
+          lazyParams(buffer, length - 2, features),
+          slotId
+        )
+      }
+      RequestType.InitData       -> {
+        requireLength(type, length, 3)
+        SignalProxyMessage.InitData(
+          readName(buffer, features, Invokers.classNames),
+          readName(buffer, features, null),
+          LazyVariantMap(lazyParams(buffer, length - 3, features))
+        )
+      }
+      RequestType.InitRequest    ->
+        InitRequestSerializer.deserialize(eagerParams(buffer, length - 1, features))
+      RequestType.HeartBeat      ->
+        HeartBeatSerializer.deserialize(eagerParams(buffer, length - 1, features))
+      RequestType.HeartBeatReply ->
+        HeartBeatReplySerializer.deserialize(eagerParams(buffer, length - 1, features))
+      else                       ->
+        throw IllegalArgumentException("Invalid MsgType: $type")
+    }
+  }
+
+  private fun requireLength(type: Int, length: Int, minimum: Int) {
+    if (length < minimum)
+      throw IllegalArgumentException("Truncated SignalProxy message of type $type: $length < $minimum")
+  }
+
+  private fun readRequestType(buffer: ByteBuffer, features: QuasselFeatures): Int {
+    val start = buffer.position()
+    val type = IntSerializer.deserialize(buffer, features)
+    BoolSerializer.deserialize(buffer, features)
+    if (type == Type.Int.id)
+      return IntSerializer.deserialize(buffer, features)
+
+    buffer.position(start)
+    return VariantSerializer.deserialize(buffer, features).value(-1)
+  }
+
+  private fun readName(buffer: ByteBuffer, features: QuasselFeatures,
+                       names: ByteStringTable?): String {
+    val start = buffer.position()
+    val type = IntSerializer.deserialize(buffer, features)
+    BoolSerializer.deserialize(buffer, features)
+    if (type != Type.QByteArray.id) {
+      buffer.position(start)
+      return VariantSerializer.deserialize(buffer, features).value<ByteBuffer?>()
+        .deserializeString(StringSerializer.UTF8) ?: ""
+    }
+
+    val length = IntSerializer.deserialize(buffer, features)
+    if (length == -1)
+      return ""
+
+    val offset = buffer.position()
+    val known = names?.get(buffer, offset, length)
+    if (known != null) {
+      buffer.position(offset + length)
+      return known
+    }
+
+    val limit = buffer.limit()
+    buffer.limit(offset + length)
+    val name = StringSerializer.UTF8.deserializeAll(buffer) ?: ""
+    buffer.limit(limit)
+    buffer.position(offset + length)
+    return name
+  }
+
+  /**
+   * Resolves a slot name to its id without decoding it. Returns -1 and leaves the buffer
+   * untouched if the slot is not known.
+   */
+  private fun readSlot(buffer: ByteBuffer, features: QuasselFeatures, slots: SlotTable?): Int {
+    if (slots == null)
+      return -1
+
+    val start = buffer.position()
+    val type = IntSerializer.deserialize(buffer, features)
+    BoolSerializer.deserialize(buffer, features)
+    if (type == Type.QByteArray.id) {
+      val length = IntSerializer.deserialize(buffer, features)
+      if (length != -1) {
+        val offset = buffer.position()
+        val slotId = slots[buffer, offset, length]
+        if (slotId != -1) {
+          buffer.position(offset + length)
+          return slotId
+        }
+      }
+    }
+    buffer.position(start)
+    return -1
+  }
+
+  private fun lazyParams(buffer: ByteBuffer, count: Int, features: QuasselFeatures): QVariantList =
+    if (count == 0) emptyList()
+    else LazyVariantList(buffer.slice(), count, features)
+
+  private fun eagerParams(buffer: ByteBuffer, count: Int, features: QuasselFeatures): QVariantList {
+    val result = ArrayList<QVariant_>(count)
+    for (i in 0 until count) {
+      result.add(VariantSerializer.deserialize(buffer, features))
+    }
+    return result
+  }
+}
@@ -19,20 +19,42 @@
 
 package de.kuschku.libquassel.protocol.message
 
+import de.kuschku.libquassel.protocol.FrameBacked
 import de.kuschku.libquassel.protocol.QVariantList
 import de.kuschku.libquassel.protocol.QVariantMap
 import de.kuschku.libquassel.protocol.value
 import org.threeten.bp.Instant
 
 sealed class SignalProxyMessage {
+  /**
+   * [slotId] is the index of the slot in the invoker’s slots if it was resolved while decoding,
+   * -1 otherwise
+   */
   class SyncMessage(val className: String, val objectName: String, val slotName: String,
-                    val params: QVariantList) : SignalProxyMessage() {
+                    val params: QVariantList, val slotId: Int = -1) : SignalProxyMessage() {
+    override fun detach() {
+      (params as? FrameBacked)?.detach()
+    }
+
+    override fun release() {
+      (params as? FrameBacked)?.release()
+    }
+
     override fun toString(): String {
       return "SyncMessage::$className:$objectName:$slotName"
     }
   }
 
-  class RpcCall(val slotName: String, val params: QVariantList) : SignalProxyMessage() {
+  class RpcCall(val slotName: String, val params: QVariantList,
+                val slotId: Int = -1) : SignalProxyMessage() {
+    override fun detach() {
+      (params as? FrameBacked)?.detach()
+    }
+
+    override fun release() {
+      (params as? FrameBacked)?.release()
+    }
+
     override fun toString(): String {
       return "RpcCall::$slotName"
     }
@@ -46,6 +68,14 @@ sealed class SignalProxyMessage {
 
   class InitData(val className: String, val objectName: String, val initData: QVariantMap) :
     SignalProxyMessage() {
+    override fun detach() {
+      (initData as? FrameBacked)?.detach()
+    }
+
+    override fun release() {
+      (initData as? FrameBacked)?.release()
+    }
+
     override fun toString(): String {
       return "InitData::$className:$objectName"
     }
@@ -63,6 +93,18 @@ sealed class SignalProxyMessage {
     }
   }
 
+  /**
+   * Decodes all parameters that are still backed by the frame this message was read from. Has to
+   * be called before a message is kept around after it has been handled.
+   */
+  open fun detach() = Unit
+
+  /**
+   * Releases the frame this message was read from, parameters that have not been accessed yet
+   * become inaccessible.
+   */
+  open fun release() = Unit
+
   companion object :
     SignalProxyMessageSerializer<SignalProxyMessage> {
     override fun serialize(data: SignalProxyMessage) = when (data) {
@@ -77,12 +119,12 @@ sealed class SignalProxyMessage {
     override fun deserialize(data: QVariantList): SignalProxyMessage {
       val type = data.first().value(-1)
       return when (RequestType.of(type)) {
-        RequestType.Sync           -> SyncMessageSerializer.deserialize(data.drop(1))
-        RequestType.RpcCall        -> RpcCallSerializer.deserialize(data.drop(1))
-        RequestType.InitRequest    -> InitRequestSerializer.deserialize(data.drop(1))
-        RequestType.InitData       -> InitDataSerializer.deserialize(data.drop(1))
-        RequestType.HeartBeat      -> HeartBeatSerializer.deserialize(data.drop(1))
-        RequestType.HeartBeatReply -> HeartBeatReplySerializer.deserialize(data.drop(1))
+        RequestType.Sync           -> SyncMessageSerializer.deserialize(data.subList(1, data.size))
+        RequestType.RpcCall        -> RpcCallSerializer.deserialize(data.subList(1, data.size))
+        RequestType.InitRequest    -> InitRequestSerializer.deserialize(data.subList(1, data.size))
+        RequestType.InitData       -> InitDataSerializer.deserialize(data.subList(1, data.size))
+        RequestType.HeartBeat      -> HeartBeatSerializer.deserialize(data.subList(1, data.size))
+        RequestType.HeartBeatReply -> HeartBeatReplySerializer.deserialize(data.subList(1, data.size))
         else                       -> throw IllegalArgumentException("Invalid MsgType: $type")
       }
     }
@@ -41,6 +41,6 @@ object SyncMessageSerializer : SignalProxyMessageSerializer<SignalProxyMessage.S
     data[0].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
     data[1].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
     data[2].value<ByteBuffer?>().deserializeString(StringSerializer.UTF8) ?: "",
-    data.drop(3)
+    data.subList(3, data.size)
   )
 }
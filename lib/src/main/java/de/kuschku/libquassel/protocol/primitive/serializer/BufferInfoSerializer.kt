@@ -23,9 +23,15 @@ import de.kuschku.libquassel.protocol.Buffer_Type
 import de.kuschku.libquassel.quassel.BufferInfo
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.StringInternTable
 import java.nio.ByteBuffer
 
 object BufferInfoSerializer : Serializer<BufferInfo> {
+  /**
+   * Every message carries its buffer info, so the same few buffer names are read over and over
+   */
+  private val bufferNames = StringInternTable()
+
   override fun serialize(buffer: ChainedByteBuffer, data: BufferInfo, features: QuasselFeatures) {
     BufferIdSerializer.serialize(buffer, data.bufferId, features)
     NetworkIdSerializer.serialize(buffer, data.networkId, features)
@@ -39,7 +45,7 @@ object BufferInfoSerializer : Serializer<BufferInfo> {
     val networkId = NetworkIdSerializer.deserialize(buffer, features)
     val type = Buffer_Type.of(ShortSerializer.deserialize(buffer, features))
     val groupId = IntSerializer.deserialize(buffer, features)
-    val bufferName = StringSerializer.UTF8.deserialize(buffer, features)
+    val bufferName = StringSerializer.UTF8.deserialize(buffer, features, bufferNames)
     return BufferInfo(
       bufferId = bufferId,
       networkId = networkId,
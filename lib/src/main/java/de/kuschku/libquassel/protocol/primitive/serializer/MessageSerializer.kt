@@ -23,10 +23,16 @@ import de.kuschku.libquassel.protocol.Message
 import de.kuschku.libquassel.quassel.ExtendedFeature
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.StringInternTable
 import org.threeten.bp.Instant
 import java.nio.ByteBuffer
 
 object MessageSerializer : Serializer<Message> {
+  /**
+   * Senders, their prefixes and real names repeat across messages, message contents don't
+   */
+  private val senders = StringInternTable(maxLength = 128)
+
   override fun serialize(buffer: ChainedByteBuffer, data: Message, features: QuasselFeatures) {
     MsgIdSerializer.serialize(buffer, data.messageId, features)
     if (features.hasFeature(ExtendedFeature.LongTime))
@@ -58,13 +64,13 @@ object MessageSerializer : Serializer<Message> {
         ByteSerializer.deserialize(buffer, features).toInt() and 0xff
       ),
       bufferInfo = BufferInfoSerializer.deserialize(buffer, features),
-      sender = StringSerializer.UTF8.deserialize(buffer, features) ?: "",
+      sender = StringSerializer.UTF8.deserialize(buffer, features, senders) ?: "",
       senderPrefixes = if (features.hasFeature(ExtendedFeature.SenderPrefixes))
-        StringSerializer.UTF8.deserialize(buffer, features) ?: "" else "",
+        StringSerializer.UTF8.deserialize(buffer, features, senders) ?: "" else "",
       realName = if (features.hasFeature(ExtendedFeature.RichMessages))
-        StringSerializer.UTF8.deserialize(buffer, features) ?: "" else "",
+        StringSerializer.UTF8.deserialize(buffer, features, senders) ?: "" else "",
       avatarUrl = if (features.hasFeature(ExtendedFeature.RichMessages))
-        StringSerializer.UTF8.deserialize(buffer, features) ?: "" else "",
+        StringSerializer.UTF8.deserialize(buffer, features, senders) ?: "" else "",
       content = StringSerializer.UTF8.deserialize(buffer, features) ?: ""
     )
   }
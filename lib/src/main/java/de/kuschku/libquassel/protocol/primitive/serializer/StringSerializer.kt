@@ -23,6 +23,7 @@ package de.kuschku.libquassel.protocol.primitive.serializer
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.util.helper.hexDump
 import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.StringInternTable
 import java.nio.ByteBuffer
 import java.nio.CharBuffer
 import java.nio.charset.Charset
@@ -32,16 +33,25 @@ import kotlin.concurrent.getOrSet
 
 abstract class StringSerializer(
   private val charset: Charset,
-  private val trailingNullBytes: Int
+  private val trailingNullBytes: Int,
+  internTable: StringInternTable? = null
 ) : Serializer<String?> {
-  constructor(charset: Charset, trailingNullByte: Boolean = false) :
-    this(charset, if (trailingNullByte) 1 else 0)
+  constructor(charset: Charset, trailingNullByte: Boolean = false,
+              internTable: StringInternTable? = null) :
+    this(charset, if (trailingNullByte) 1 else 0, internTable)
 
   private val charBuffer = ThreadLocal<CharBuffer>()
   private val encoder = ThreadLocal<CharsetEncoder>()
   private val decoder = ThreadLocal<CharsetDecoder>()
 
-  object UTF16 : StringSerializer(Charsets.UTF_16BE)
+  /**
+   * Optional table used to share instances of repeatedly received strings. Enabled for QStrings,
+   * which carry nicks, hostmasks and channel names.
+   */
+  @Volatile
+  var internTable: StringInternTable? = internTable
+
+  object UTF16 : StringSerializer(Charsets.UTF_16BE, internTable = StringInternTable())
   object UTF8 : StringSerializer(Charsets.UTF_8)
   object C : StringSerializer(Charsets.ISO_8859_1, trailingNullByte = true)
 
@@ -62,6 +72,29 @@ abstract class StringSerializer(
   private inline fun encoder() = encoder.getOrSet(charset::newEncoder)
   private inline fun decoder() = decoder.getOrSet(charset::newDecoder)
 
+  /**
+   * Decodes the common cases without a [CharsetDecoder]: Latin-1 strings, ASCII-only UTF-8
+   * strings and UTF-16BE strings without unpaired surrogates. Returns null if the slow path has to
+   * be taken.
+   */
+  private fun decodeFast(buffer: ByteBuffer, offset: Int, length: Int,
+                         internTable: StringInternTable?): String? = when (charset) {
+    Charsets.ISO_8859_1 ->
+      internTable?.latin1(buffer, offset, length)
+      ?: StringInternTable.decodeLatin1(buffer, offset, length)
+    Charsets.UTF_8      ->
+      if (StringInternTable.isAscii(buffer, offset, length))
+        internTable?.latin1(buffer, offset, length)
+        ?: StringInternTable.decodeLatin1(buffer, offset, length)
+      else null
+    Charsets.UTF_16BE   ->
+      if (length % 2 == 0 && StringInternTable.isWellFormedUtf16(buffer, offset, length / 2))
+        internTable?.utf16(buffer, offset, length / 2)
+        ?: StringInternTable.decodeUtf16(buffer, offset, length / 2)
+      else null
+    else                -> null
+  }
+
   override fun serialize(buffer: ChainedByteBuffer, data: String?, features: QuasselFeatures) =
     try {
       if (data == null) {
@@ -102,6 +135,13 @@ abstract class StringSerializer(
     if (len == -1) {
       null
     } else {
+      val fast = decodeFast(
+        buffer, buffer.position(), Math.max(0, len - trailingNullBytes), internTable
+      )
+      if (fast != null) {
+        buffer.position(buffer.limit())
+        return fast
+      }
       val limit = buffer.limit()
       buffer.limit(buffer.position() + len - trailingNullBytes)
       val charBuffer = charBuffer(len)
@@ -118,11 +158,21 @@ abstract class StringSerializer(
     throw RuntimeException(e)
   }
 
-  override fun deserialize(buffer: ByteBuffer, features: QuasselFeatures): String? = try {
+  override fun deserialize(buffer: ByteBuffer, features: QuasselFeatures): String? =
+    deserialize(buffer, features, internTable)
+
+  fun deserialize(buffer: ByteBuffer, features: QuasselFeatures,
+                  internTable: StringInternTable?): String? = try {
     val len = IntSerializer.deserialize(buffer, features)
     if (len == -1) {
       null
     } else {
+      val length = Math.max(0, len - trailingNullBytes)
+      val fast = decodeFast(buffer, buffer.position(), length, internTable)
+      if (fast != null) {
+        buffer.position(buffer.position() + length + trailingNullBytes)
+        return fast
+      }
       val limit = buffer.limit()
       buffer.limit(buffer.position() + Math.max(0, len - trailingNullBytes))
       val charBuffer = charBuffer(len)
@@ -20,11 +20,18 @@
 package de.kuschku.libquassel.protocol.primitive.serializer
 
 import de.kuschku.libquassel.protocol.QVariantMap
+import de.kuschku.libquassel.protocol.QVariant_
 import de.kuschku.libquassel.quassel.QuasselFeatures
 import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import de.kuschku.libquassel.util.nio.StringInternTable
 import java.nio.ByteBuffer
 
 object VariantMapSerializer : Serializer<QVariantMap> {
+  /**
+   * Map keys are a small, highly repetitive set of strings, so they are always interned
+   */
+  private val keys = StringInternTable(1024)
+
   override fun serialize(buffer: ChainedByteBuffer, data: QVariantMap, features: QuasselFeatures) {
     IntSerializer.serialize(buffer, data.size, features)
     data.entries.forEach { (key, value) ->
@@ -34,13 +41,12 @@ object VariantMapSerializer : Serializer<QVariantMap> {
   }
 
   override fun deserialize(buffer: ByteBuffer, features: QuasselFeatures): QVariantMap {
-    return mutableMapOf(
-      *(0 until IntSerializer.deserialize(buffer, features)).map {
-        Pair(
-          StringSerializer.UTF16.deserialize(buffer, features) ?: "",
-          VariantSerializer.deserialize(buffer, features)
-        )
-      }.toTypedArray()
-    )
+    val size = IntSerializer.deserialize(buffer, features)
+    val map = LinkedHashMap<String, QVariant_>()
+    for (i in 0 until size) {
+      val key = StringSerializer.UTF16.deserialize(buffer, features, keys) ?: ""
+      map[key] = VariantSerializer.deserialize(buffer, features)
+    }
+    return map
   }
 }
@@ -214,7 +214,7 @@ class AliasManager constructor(
   private var _aliases = listOf<IAliasManager.Alias>()
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   fun isEqual(other: AliasManager): Boolean =
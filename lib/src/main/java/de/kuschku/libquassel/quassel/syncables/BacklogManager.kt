@@ -25,13 +25,22 @@ import de.kuschku.libquassel.session.BacklogStorage
 import de.kuschku.libquassel.session.ISession
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.DEBUG
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Requests backlog from the core. Unless `store` is false, received messages are written to the
+ * [BacklogStorage] and the request's callback is only called once they were stored, possibly on
+ * the storage's writer thread, so it always observes the messages it receives in the storage.
+ * Until then the request stays pending, and a second request for the same buffer is rejected.
+ */
 class BacklogManager(
   var session: ISession,
   private val backlogStorage: BacklogStorage? = null
 ) : SyncableObject(session.proxy, "BacklogManager"), IBacklogManager {
-  private val loading = mutableMapOf<BufferId, (List<Message>) -> Boolean>()
-  private val loadingFiltered = mutableMapOf<BufferId, (List<Message>) -> Boolean>()
+  private class Request(val store: Boolean, val callback: (List<Message>) -> Unit)
+
+  private val loading = ConcurrentHashMap<BufferId, Request>()
+  private val loadingFiltered = ConcurrentHashMap<BufferId, Request>()
 
   override fun deinit() {
     super.deinit()
@@ -42,74 +51,98 @@ class BacklogManager(
     initialized = true
   }
 
-  fun updateIgnoreRules() = backlogStorage?.updateIgnoreRules(session)
+  fun updateIgnoreRules(previous: List<IgnoreListManager.IgnoreListItem>? = null) =
+    backlogStorage?.updateIgnoreRules(session, previous)
 
   fun requestBacklog(bufferId: BufferId, first: MsgId = MsgId(-1), last: MsgId = MsgId(-1),
-                     limit: Int = -1, additional: Int = 0, callback: (List<Message>) -> Boolean) {
-    if (loading.contains(bufferId)) return
-    loading[bufferId] = callback
+                     limit: Int = -1, additional: Int = 0, store: Boolean = true,
+                     callback: (List<Message>) -> Unit): Boolean {
+    if (loading.putIfAbsent(bufferId, Request(store, callback)) != null) return false
     requestBacklog(bufferId, first, last, limit, additional)
+    return true
   }
 
   fun requestBacklogFiltered(bufferId: BufferId, first: MsgId = MsgId(-1),
                              last: MsgId = MsgId(-1), limit: Int = -1, additional: Int = 0,
-                             type: Int = -1, flags: Int = -1,
-                             callback: (List<Message>) -> Boolean) {
-    if (loadingFiltered.contains(bufferId)) return
-    loadingFiltered[bufferId] = callback
+                             type: Int = -1, flags: Int = -1, store: Boolean = true,
+                             callback: (List<Message>) -> Unit): Boolean {
+    if (loadingFiltered.putIfAbsent(bufferId, Request(store, callback)) != null) return false
     requestBacklogFiltered(bufferId, first, last, limit, additional, type, flags)
+    return true
   }
 
   fun requestBacklogAll(first: MsgId = MsgId(-1), last: MsgId = MsgId(-1), limit: Int = -1,
-                        additional: Int = 0, callback: (List<Message>) -> Boolean) {
-    if (loading.contains(BufferId(-1))) return
-    loading[BufferId(-1)] = callback
+                        additional: Int = 0, store: Boolean = true,
+                        callback: (List<Message>) -> Unit): Boolean {
+    if (loading.putIfAbsent(BufferId(-1), Request(store, callback)) != null) return false
     requestBacklogAll(first, last, limit, additional)
+    return true
   }
 
   fun requestBacklogAllFiltered(first: MsgId = MsgId(-1), last: MsgId = MsgId(-1),
                                 limit: Int = -1, additional: Int = 0, type: Int = -1,
-                                flags: Int = -1, callback: (List<Message>) -> Boolean) {
-    if (loadingFiltered.contains(BufferId(-1))) return
-    loadingFiltered[BufferId(-1)] = callback
+                                flags: Int = -1, store: Boolean = true,
+                                callback: (List<Message>) -> Unit): Boolean {
+    if (loadingFiltered.putIfAbsent(BufferId(-1), Request(store, callback)) != null) return false
     requestBacklogAllFiltered(first, last, limit, additional, type, flags)
+    return true
   }
 
   override fun receiveBacklog(bufferId: BufferId, first: MsgId, last: MsgId, limit: Int,
                               additional: Int, messages: QVariantList) {
     val list = messages.mapNotNull<QVariant_, Message>(QVariant_::value)
-    if (loading.remove(bufferId)?.invoke(list) != false) {
-      log(DEBUG, "BacklogManager", "storeMessages(${list.size})")
-      backlogStorage?.storeMessages(session, list)
+    val request = loading[bufferId]
+    if (request?.store != false) {
+      log(DEBUG, "BacklogManager", "storeBacklog(${list.size})")
+      backlogStorage?.storeBacklog(session, bufferId, first, last, limit, list)
     }
+    if (request != null) complete(loading, bufferId, request, list)
   }
 
   override fun receiveBacklogAll(first: MsgId, last: MsgId, limit: Int, additional: Int,
                                  messages: QVariantList) {
     val list = messages.mapNotNull<QVariant_, Message>(QVariant_::value)
-    if (loading.remove(BufferId(-1))?.invoke(list) != false) {
+    val request = loading[BufferId(-1)]
+    if (request?.store != false) {
       log(DEBUG, "BacklogManager", "storeMessages(${list.size})")
       backlogStorage?.storeMessages(session, list)
     }
+    if (request != null) complete(loading, BufferId(-1), request, list)
   }
 
   override fun receiveBacklogFiltered(bufferId: BufferId, first: MsgId, last: MsgId, limit: Int,
                                       additional: Int, type: Int, flags: Int,
                                       messages: QVariantList) {
     val list = messages.mapNotNull<QVariant_, Message>(QVariant_::value)
-    if (loadingFiltered.remove(bufferId)?.invoke(list) != false) {
+    val request = loadingFiltered[bufferId]
+    if (request?.store != false) {
       log(DEBUG, "BacklogManager", "storeMessages(${list.size})")
       backlogStorage?.storeMessages(session, list)
     }
+    if (request != null) complete(loadingFiltered, bufferId, request, list)
   }
 
   override fun receiveBacklogAllFiltered(first: MsgId, last: MsgId, limit: Int, additional: Int,
                                          type: Int, flags: Int, messages: QVariantList) {
     val list = messages.mapNotNull<QVariant_, Message>(QVariant_::value)
-    if (loadingFiltered.remove(BufferId(-1))?.invoke(list) != false) {
+    val request = loadingFiltered[BufferId(-1)]
+    if (request?.store != false) {
       log(DEBUG, "BacklogManager", "storeMessages(${list.size})")
       backlogStorage?.storeMessages(session, list)
     }
+    if (request != null) complete(loadingFiltered, BufferId(-1), request, list)
+  }
+
+  private fun complete(requests: ConcurrentHashMap<BufferId, Request>, bufferId: BufferId,
+                       request: Request, messages: List<Message>) {
+    val storage = backlogStorage
+    if (request.store && storage != null) storage.afterStored {
+      requests.remove(bufferId, request)
+      request.callback(messages)
+    } else {
+      requests.remove(bufferId, request)
+      request.callback(messages)
+    }
   }
 
   fun removeBuffer(buffer: BufferId) {
@@ -25,9 +25,15 @@ import de.kuschku.libquassel.quassel.BufferInfo
 import de.kuschku.libquassel.quassel.syncables.interfaces.IBufferSyncer
 import de.kuschku.libquassel.session.ISession
 import de.kuschku.libquassel.session.NotificationManager
+import de.kuschku.libquassel.util.IntIntMap
+import de.kuschku.libquassel.util.IntLongMap
 import de.kuschku.libquassel.util.Optional
+import de.kuschku.libquassel.util.PersistentMap
 import de.kuschku.libquassel.util.flag.minus
 import de.kuschku.libquassel.util.irc.IrcCaseMappers
+import de.kuschku.libquassel.util.rxjava.LiveMap
+import de.kuschku.libquassel.util.rxjava.LivePrimitiveMap
+import de.kuschku.libquassel.util.rxjava.MapChange
 import io.reactivex.Observable
 import io.reactivex.subjects.BehaviorSubject
 
@@ -40,43 +46,55 @@ class BufferSyncer constructor(
     session = ISession.NULL
   }
 
-  fun lastSeenMsg(buffer: BufferId): MsgId = _lastSeenMsg[buffer] ?: MsgId(0)
+  fun lastSeenMsg(buffer: BufferId): MsgId = MsgId(_lastSeenMsg.read { it.get(buffer.id, 0) })
   fun liveLastSeenMsg(buffer: BufferId): Observable<MsgId> = live_lastSeenMsg.map {
     markerLine(buffer)
   }.distinctUntilChanged()
 
   fun liveLastSeenMsgs(): Observable<Map<BufferId, MsgId>> =
-    live_lastSeenMsg.map { _lastSeenMsg.toMap() }
+    live_lastSeenMsg.map { _lastSeenMsg.snapshot() }
 
-  fun markerLine(buffer: BufferId): MsgId = _markerLines[buffer] ?: MsgId(0)
+  fun lastSeenMsgChanges(): Observable<MapChange<BufferId, MsgId>> = _lastSeenMsg.changes()
+
+  fun markerLine(buffer: BufferId): MsgId = MsgId(_markerLines.read { it.get(buffer.id, 0) })
   fun liveMarkerLine(buffer: BufferId): Observable<MsgId> =
     live_markerLines.map { markerLine(buffer) }.distinctUntilChanged()
 
   fun liveMarkerLines(): Observable<Map<BufferId, MsgId>> =
-    live_markerLines.map { _markerLines.toMap() }
+    live_markerLines.map { _markerLines.snapshot() }
+
+  fun markerLineChanges(): Observable<MapChange<BufferId, MsgId>> = _markerLines.changes()
 
   fun activity(buffer: BufferId): Message_Types =
-    _bufferActivities[buffer] ?: Message_Types.of()
+    Message_Type.of(_bufferActivities.read { it.get(buffer.id, 0) })
 
   fun liveActivity(buffer: BufferId): Observable<Message_Types> =
     live_bufferActivities.map { activity(buffer) }.distinctUntilChanged()
 
   fun liveActivities(): Observable<Map<BufferId, Message_Types>> =
-    live_bufferActivities.map { _bufferActivities.toMap() }
+    live_bufferActivities.map { _bufferActivities.snapshot() }
+
+  fun activityChanges(): Observable<MapChange<BufferId, Message_Types>> =
+    _bufferActivities.changes()
 
-  fun highlightCount(buffer: BufferId): Int = _highlightCounts[buffer] ?: 0
+  fun highlightCount(buffer: BufferId): Int = _highlightCounts.read { it.get(buffer.id, 0) }
   fun liveHighlightCount(buffer: BufferId): Observable<Int> =
     live_highlightCounts.map { highlightCount(buffer) }.distinctUntilChanged()
 
   fun liveHighlightCounts(): Observable<Map<BufferId, Int>> =
-    live_highlightCounts.map { _highlightCounts.toMap() }
+    live_highlightCounts.map { _highlightCounts.snapshot() }
+
+  fun highlightCountChanges(): Observable<MapChange<BufferId, Int>> = _highlightCounts.changes()
 
   fun bufferInfo(bufferId: BufferId) = _bufferInfos[bufferId]
   fun liveBufferInfo(bufferId: BufferId) =
     live_bufferInfos.map { bufferInfo(bufferId) }.distinctUntilChanged()
 
-  fun bufferInfos(): Collection<BufferInfo> = _bufferInfos.values.toList()
-  fun liveBufferInfos(): Observable<Map<BufferId, BufferInfo>> = live_bufferInfos.map { _bufferInfos.toMap() }
+  fun bufferInfos(): Collection<BufferInfo> = _bufferInfos.snapshot().values
+  fun liveBufferInfos(): Observable<Map<BufferId, BufferInfo>> =
+    live_bufferInfos.map { _bufferInfos.snapshot() }
+
+  fun bufferInfoChanges(): Observable<MapChange<BufferId, BufferInfo>> = _bufferInfos.changes()
 
   override fun toVariantMap(): QVariantMap = mapOf(
     "Activities" to QVariant.of(initActivities(), Type.QVariantList),
@@ -97,45 +115,53 @@ class BufferSyncer constructor(
   }
 
   fun isEqual(other: BufferSyncer) =
-    _bufferInfos == other._bufferInfos &&
-    _lastSeenMsg == other._lastSeenMsg &&
-    _markerLines == other._markerLines &&
-    _bufferActivities == other._bufferActivities &&
-    _highlightCounts == other._highlightCounts
+    _bufferInfos.snapshot() == other._bufferInfos.snapshot() &&
+    _lastSeenMsg.snapshot() == other._lastSeenMsg.snapshot() &&
+    _markerLines.snapshot() == other._markerLines.snapshot() &&
+    _bufferActivities.snapshot() == other._bufferActivities.snapshot() &&
+    _highlightCounts.snapshot() == other._highlightCounts.snapshot()
 
 
   override fun initActivities(): QVariantList {
     val list: MutableList<QVariant_> = mutableListOf()
-    for ((key, value) in _bufferActivities) {
-      list.add(QVariant.of(key, QType.BufferId))
-      list.add(QVariant.of(value.toInt(), Type.Int))
+    _bufferActivities.read {
+      it.forEach { key, value ->
+        list.add(QVariant.of(BufferId(key), QType.BufferId))
+        list.add(QVariant.of(value, Type.Int))
+      }
     }
     return list
   }
 
   override fun initHighlightCounts(): QVariantList {
     val list: MutableList<QVariant_> = mutableListOf()
-    for ((key, value) in _highlightCounts) {
-      list.add(QVariant.of(key, QType.BufferId))
-      list.add(QVariant.of(value, Type.Int))
+    _highlightCounts.read {
+      it.forEach { key, value ->
+        list.add(QVariant.of(BufferId(key), QType.BufferId))
+        list.add(QVariant.of(value, Type.Int))
+      }
     }
     return list
   }
 
   override fun initLastSeenMsg(): QVariantList {
     val list: MutableList<QVariant_> = mutableListOf()
-    for ((key, value) in _lastSeenMsg) {
-      list.add(QVariant.of(key, QType.BufferId))
-      list.add(QVariant.of(value, QType.MsgId))
+    _lastSeenMsg.read {
+      it.forEach { key, value ->
+        list.add(QVariant.of(BufferId(key), QType.BufferId))
+        list.add(QVariant.of(MsgId(value), QType.MsgId))
+      }
     }
     return list
   }
 
   override fun initMarkerLines(): QVariantList {
     val list: MutableList<QVariant_> = mutableListOf()
-    for ((key, value) in _markerLines) {
-      list.add(QVariant.of(key, QType.BufferId))
-      list.add(QVariant.of(value, QType.MsgId))
+    _markerLines.read {
+      it.forEach { key, value ->
+        list.add(QVariant.of(BufferId(key), QType.BufferId))
+        list.add(QVariant.of(MsgId(value), QType.MsgId))
+      }
     }
     return list
   }
@@ -149,11 +175,11 @@ class BufferSyncer constructor(
     })
   }
 
-  fun setActivities(data: List<Pair<BufferId, Message_Types>>) {
+  fun setActivities(data: List<Pair<BufferId, Message_Types>>) = ChangeBatch.batch {
     for ((buffer, activity) in data) {
       setBufferActivityInternal(buffer, activity)
     }
-    live_bufferActivities.onNext(Unit)
+    live_bufferActivities.notifyChanged()
   }
 
   override fun initSetHighlightCounts(data: QVariantList) {
@@ -165,11 +191,11 @@ class BufferSyncer constructor(
     })
   }
 
-  fun setHighlightCounts(data: List<Pair<BufferId, Int>>) {
+  fun setHighlightCounts(data: List<Pair<BufferId, Int>>) = ChangeBatch.batch {
     for ((buffer, count) in data) {
       setHighlightCount(buffer, count)
     }
-    live_highlightCounts.onNext(Unit)
+    live_highlightCounts.notifyChanged()
   }
 
   override fun initSetLastSeenMsg(data: QVariantList) {
@@ -181,11 +207,11 @@ class BufferSyncer constructor(
     })
   }
 
-  fun setLastSeenMsg(data: List<Pair<BufferId, MsgId>>) {
+  fun setLastSeenMsg(data: List<Pair<BufferId, MsgId>>) = ChangeBatch.batch {
     for ((buffer, msgId) in data) {
       setLastSeenMsg(buffer, msgId)
     }
-    live_lastSeenMsg.onNext(Unit)
+    live_lastSeenMsg.notifyChanged()
   }
 
   override fun initSetMarkerLines(data: QVariantList) {
@@ -197,11 +223,11 @@ class BufferSyncer constructor(
     })
   }
 
-  fun setMarkerLines(data: List<Pair<BufferId, MsgId>>) {
+  fun setMarkerLines(data: List<Pair<BufferId, MsgId>>) = ChangeBatch.batch {
     for ((buffer, msgId) in data) {
       setMarkerLine(buffer, msgId)
     }
-    live_markerLines.onNext(Unit)
+    live_markerLines.notifyChanged()
   }
 
   fun initSetBufferInfos(infos: QVariantList?) {
@@ -213,7 +239,7 @@ class BufferSyncer constructor(
     for (info in infos) {
       _bufferInfos[info.bufferId] = info
     }
-    live_bufferInfos.onNext(Unit)
+    live_bufferInfos.notifyChanged()
   }
 
   override fun mergeBuffersPermanently(buffer1: BufferId, buffer2: BufferId) {
@@ -221,11 +247,11 @@ class BufferSyncer constructor(
   }
 
   override fun removeBuffer(buffer: BufferId) {
-    _lastSeenMsg.remove(buffer);live_lastSeenMsg.onNext(Unit)
-    _markerLines.remove(buffer);live_markerLines.onNext(Unit)
-    _bufferActivities.remove(buffer);live_bufferActivities.onNext(Unit)
-    _highlightCounts.remove(buffer);live_highlightCounts.onNext(Unit)
-    _bufferInfos.remove(buffer);live_bufferInfos.onNext(Unit)
+    _lastSeenMsg.remove(buffer);live_lastSeenMsg.notifyChanged()
+    _markerLines.remove(buffer);live_markerLines.notifyChanged()
+    _bufferActivities.remove(buffer);live_bufferActivities.notifyChanged()
+    _highlightCounts.remove(buffer);live_highlightCounts.notifyChanged()
+    _bufferInfos.remove(buffer);live_bufferInfos.notifyChanged()
     session.backlogManager.removeBuffer(buffer)
     notificationManager?.clear(buffer)
   }
@@ -234,7 +260,7 @@ class BufferSyncer constructor(
     val bufferInfo = _bufferInfos[buffer]
     if (bufferInfo != null) {
       _bufferInfos[buffer] = bufferInfo.copy(bufferName = newName)
-      live_bufferInfos.onNext(Unit)
+      live_bufferInfos.notifyChanged()
     }
   }
 
@@ -242,7 +268,7 @@ class BufferSyncer constructor(
     val oldInfo = _bufferInfos[info.bufferId]
     if (info != oldInfo) {
       _bufferInfos[info.bufferId] = info
-      live_bufferInfos.onNext(Unit)
+      live_bufferInfos.notifyChanged()
 
       if (oldInfo == null) {
         session.bufferViewManager.handleBuffer(info, this)
@@ -256,8 +282,8 @@ class BufferSyncer constructor(
 
     val oldLastSeenMsg = lastSeenMsg(buffer)
     if (oldLastSeenMsg < msgId) {
-      _lastSeenMsg[buffer] = msgId
-      live_lastSeenMsg.onNext(Unit)
+      _lastSeenMsg.put(buffer, msgId.id)
+      live_lastSeenMsg.notifyChanged()
       super.setLastSeenMsg(buffer, msgId)
       notificationManager?.clear(buffer, msgId)
     }
@@ -267,8 +293,8 @@ class BufferSyncer constructor(
     if (msgId < MsgId(0) || markerLine(buffer) == msgId)
       return
 
-    _markerLines[buffer] = msgId
-    live_markerLines.onNext(Unit)
+    _markerLines.put(buffer, msgId.id)
+    live_markerLines.notifyChanged()
     super.setMarkerLine(buffer, msgId)
   }
 
@@ -278,8 +304,8 @@ class BufferSyncer constructor(
 
   fun setBufferActivityInternal(buffer: BufferId, activity: Message_Types) {
     super.setBufferActivity(buffer, activity.toInt())
-    _bufferActivities[buffer] = activity
-    live_bufferActivities.onNext(Unit)
+    _bufferActivities.put(buffer, activity.toInt())
+    live_bufferActivities.notifyChanged()
   }
 
   fun setBufferActivity(buffer: BufferId, activity: Message_Types) {
@@ -294,8 +320,8 @@ class BufferSyncer constructor(
 
   override fun setHighlightCount(buffer: BufferId, count: Int) {
     super.setHighlightCount(buffer, count)
-    _highlightCounts[buffer] = count
-    live_highlightCounts.onNext(Unit)
+    _highlightCounts.put(buffer, count)
+    live_highlightCounts.notifyChanged()
   }
 
   fun all(
@@ -304,7 +330,7 @@ class BufferSyncer constructor(
     networkId: NetworkId? = null,
     type: Buffer_Types? = null,
     groupId: Int? = null
-  ) = _bufferInfos.values.filter {
+  ) = _bufferInfos.snapshot().values.filter {
     bufferId == null || it.bufferId == bufferId
   }.filter {
     networkId == null || it.networkId == networkId
@@ -360,18 +386,65 @@ class BufferSyncer constructor(
     return "BufferSyncer(_lastSeenMsg=$_lastSeenMsg, _markerLines=$_markerLines, _bufferActivities=$_bufferActivities, _highlightCounts=$_highlightCounts, _bufferInfos=$_bufferInfos)"
   }
 
-  private val _lastSeenMsg: MutableMap<BufferId, MsgId> = mutableMapOf()
+  // Stored unboxed, there is one entry per buffer in each of these maps
+  private val _lastSeenMsg = liveMap(IntLongMap()) { id -> MsgId(id) }
   private val live_lastSeenMsg = BehaviorSubject.createDefault(Unit)
 
-  private val _markerLines: MutableMap<BufferId, MsgId> = mutableMapOf()
+  private val _markerLines = liveMap(IntLongMap()) { id -> MsgId(id) }
   private val live_markerLines = BehaviorSubject.createDefault(Unit)
 
-  private val _bufferActivities: MutableMap<BufferId, Message_Types> = mutableMapOf()
+  private val _bufferActivities = liveMap(IntIntMap()) { flags -> Message_Type.of(flags) }
   private val live_bufferActivities = BehaviorSubject.createDefault(Unit)
 
-  private val _highlightCounts: MutableMap<BufferId, Int> = mutableMapOf()
+  private val _highlightCounts = liveMap(IntIntMap()) { count -> count }
   private val live_highlightCounts = BehaviorSubject.createDefault(Unit)
 
-  private val _bufferInfos = mutableMapOf<BufferId, BufferInfo>()
+  private val _bufferInfos = LiveMap<BufferId, BufferInfo>()
   private val live_bufferInfos = BehaviorSubject.createDefault(Unit)
+
+  private fun LivePrimitiveMap<IntLongMap, BufferId, *>.put(buffer: BufferId, value: Long) =
+    update(buffer.id) { map ->
+      val changed = !map.containsKey(buffer.id) || map.get(buffer.id, 0) != value
+      if (changed) map.put(buffer.id, value)
+      changed
+    }
+
+  private fun LivePrimitiveMap<IntIntMap, BufferId, *>.put(buffer: BufferId, value: Int) =
+    update(buffer.id) { map ->
+      val changed = !map.containsKey(buffer.id) || map.get(buffer.id, 0) != value
+      if (changed) map.put(buffer.id, value)
+      changed
+    }
+
+  @JvmName("removeLong")
+  private fun LivePrimitiveMap<IntLongMap, BufferId, *>.remove(buffer: BufferId) =
+    update(buffer.id) { map -> map.remove(buffer.id) }
+
+  @JvmName("removeInt")
+  private fun LivePrimitiveMap<IntIntMap, BufferId, *>.remove(buffer: BufferId) =
+    update(buffer.id) { map -> map.remove(buffer.id) }
+
+  companion object {
+    private fun <V> liveMap(storage: IntLongMap, box: (Long) -> V) =
+      LivePrimitiveMap<IntLongMap, BufferId, V>(
+        storage,
+        { key -> BufferId(key) },
+        { map, key -> if (map.containsKey(key)) box(map.get(key, 0)) else null }
+      ) { map ->
+        var result = PersistentMap.empty<BufferId, V>()
+        map.forEach { key, value -> result = result.put(BufferId(key), box(value)) }
+        result
+      }
+
+    private fun <V> liveMap(storage: IntIntMap, box: (Int) -> V) =
+      LivePrimitiveMap<IntIntMap, BufferId, V>(
+        storage,
+        { key -> BufferId(key) },
+        { map, key -> if (map.containsKey(key)) box(map.get(key, 0)) else null }
+      ) { map ->
+        var result = PersistentMap.empty<BufferId, V>()
+        map.forEach { key, value -> result = result.put(BufferId(key), box(value)) }
+        result
+      }
+  }
 }
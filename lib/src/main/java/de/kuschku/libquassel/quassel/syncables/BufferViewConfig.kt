@@ -24,6 +24,7 @@ import de.kuschku.libquassel.protocol.Type
 import de.kuschku.libquassel.quassel.BufferInfo
 import de.kuschku.libquassel.quassel.syncables.interfaces.IBufferViewConfig
 import de.kuschku.libquassel.session.SignalProxy
+import de.kuschku.libquassel.util.IntList
 import de.kuschku.libquassel.util.flag.hasFlag
 import de.kuschku.libquassel.util.helper.clampOf
 import io.reactivex.Observable
@@ -51,15 +52,15 @@ class BufferViewConfig constructor(
   }
 
   override fun initBufferList(): QVariantList = _buffers.map {
-    QVariant.of(it, QType.BufferId)
+    QVariant.of(BufferId(it), QType.BufferId)
   }
 
   override fun initRemovedBuffers(): QVariantList = _removedBuffers.map {
-    QVariant.of(it, QType.BufferId)
+    QVariant.of(BufferId(it), QType.BufferId)
   }
 
   override fun initTemporarilyRemovedBuffers(): QVariantList = _temporarilyRemovedBuffers.map {
-    QVariant.of(it, QType.BufferId)
+    QVariant.of(BufferId(it), QType.BufferId)
   }
 
   override fun initProperties(): QVariantMap = mapOf(
@@ -76,18 +77,19 @@ class BufferViewConfig constructor(
   )
 
   override fun initSetBufferList(buffers: QVariantList) {
-    _buffers = buffers.mapNotNull { it.value<BufferId?>() }.toMutableList()
-    live_buffers.onNext(Unit)
+    _buffers = IntList.of(buffers.mapNotNull { it.value<BufferId?>()?.id })
+    live_buffers.notifyChanged()
   }
 
   override fun initSetRemovedBuffers(buffers: QVariantList) {
-    _removedBuffers = buffers.mapNotNull { it.value<BufferId?>() }.toMutableSet()
-    live_removedBuffers.onNext(Unit)
+    _removedBuffers = IntList.of(buffers.mapNotNull { it.value<BufferId?>()?.id }.toSortedSet())
+    live_removedBuffers.notifyChanged()
   }
 
   override fun initSetTemporarilyRemovedBuffers(buffers: QVariantList) {
-    _temporarilyRemovedBuffers = buffers.mapNotNull { it.value<BufferId?>() }.toMutableSet()
-    live_temporarilyRemovedBuffers.onNext(Unit)
+    _temporarilyRemovedBuffers =
+      IntList.of(buffers.mapNotNull { it.value<BufferId?>()?.id }.toSortedSet())
+    live_temporarilyRemovedBuffers.notifyChanged()
   }
 
   override fun initSetProperties(properties: QVariantMap) {
@@ -104,71 +106,65 @@ class BufferViewConfig constructor(
   }
 
   override fun addBuffer(bufferId: BufferId, pos: Int) {
-    if (_buffers.contains(bufferId))
+    if (_buffers.contains(bufferId.id))
       return
 
-    if (_removedBuffers.contains(bufferId)) {
-      _removedBuffers.remove(bufferId)
-      live_removedBuffers.onNext(Unit)
+    if (_removedBuffers.removeSorted(bufferId.id)) {
+      live_removedBuffers.notifyChanged()
     }
 
-    if (_temporarilyRemovedBuffers.contains(bufferId)) {
-      _temporarilyRemovedBuffers.remove(bufferId)
-      live_temporarilyRemovedBuffers.onNext(Unit)
+    if (_temporarilyRemovedBuffers.removeSorted(bufferId.id)) {
+      live_temporarilyRemovedBuffers.notifyChanged()
     }
 
-    _buffers.add(minOf(maxOf(pos, 0), _buffers.size), bufferId)
-    live_buffers.onNext(Unit)
+    _buffers.add(minOf(maxOf(pos, 0), _buffers.size), bufferId.id)
+    live_buffers.notifyChanged()
   }
 
   override fun moveBuffer(bufferId: BufferId, pos: Int) {
-    if (!_buffers.contains(bufferId))
+    if (!_buffers.contains(bufferId.id))
       return
 
-    val currentPos = _buffers.indexOf(bufferId)
+    val currentPos = _buffers.indexOf(bufferId.id)
     val targetPos = clampOf(pos, 0, _buffers.size - 1)
 
     if (currentPos > targetPos) {
       _buffers.removeAt(currentPos)
-      _buffers.add(targetPos, bufferId)
+      _buffers.add(targetPos, bufferId.id)
     }
 
     if (currentPos < targetPos) {
       _buffers.removeAt(currentPos)
-      _buffers.add(targetPos - 1, bufferId)
+      _buffers.add(targetPos - 1, bufferId.id)
     }
 
-    live_buffers.onNext(Unit)
+    live_buffers.notifyChanged()
   }
 
   override fun removeBuffer(bufferId: BufferId) {
-    if (_buffers.contains(bufferId)) {
-      _buffers.remove(bufferId)
-      live_buffers.onNext(Unit)
+    if (_buffers.remove(bufferId.id)) {
+      live_buffers.notifyChanged()
     }
 
-    if (_removedBuffers.contains(bufferId)) {
-      _removedBuffers.remove(bufferId)
-      live_removedBuffers.onNext(Unit)
+    if (_removedBuffers.removeSorted(bufferId.id)) {
+      live_removedBuffers.notifyChanged()
     }
 
-    _temporarilyRemovedBuffers.add(bufferId)
-    live_temporarilyRemovedBuffers.onNext(Unit)
+    _temporarilyRemovedBuffers.addSorted(bufferId.id)
+    live_temporarilyRemovedBuffers.notifyChanged()
   }
 
   override fun removeBufferPermanently(bufferId: BufferId) {
-    if (_buffers.contains(bufferId)) {
-      _buffers.remove(bufferId)
-      live_buffers.onNext(Unit)
+    if (_buffers.remove(bufferId.id)) {
+      live_buffers.notifyChanged()
     }
 
-    if (_temporarilyRemovedBuffers.contains(bufferId)) {
-      _temporarilyRemovedBuffers.remove(bufferId)
-      live_temporarilyRemovedBuffers.onNext(Unit)
+    if (_temporarilyRemovedBuffers.removeSorted(bufferId.id)) {
+      live_temporarilyRemovedBuffers.notifyChanged()
     }
 
-    _removedBuffers.add(bufferId)
-    live_removedBuffers.onNext(Unit)
+    _removedBuffers.addSorted(bufferId.id)
+    live_removedBuffers.notifyChanged()
   }
 
   fun bufferViewId() = _bufferViewId
@@ -183,9 +179,10 @@ class BufferViewConfig constructor(
   fun minimumActivity() = _minimumActivity
   fun showSearch() = _showSearch
 
-  fun buffers(): List<BufferId> = _buffers.toList()
-  fun removedBuffers(): Set<BufferId> = _removedBuffers.toSet()
-  fun temporarilyRemovedBuffers(): Set<BufferId> = _temporarilyRemovedBuffers.toSet()
+  fun buffers(): List<BufferId> = _buffers.map { BufferId(it) }
+  fun removedBuffers(): Set<BufferId> = _removedBuffers.map { BufferId(it) }.toSet()
+  fun temporarilyRemovedBuffers(): Set<BufferId> =
+    _temporarilyRemovedBuffers.map { BufferId(it) }.toSet()
 
   fun liveUpdates(): Observable<BufferViewConfig> =
     live_config.map { this }
@@ -265,56 +262,71 @@ class BufferViewConfig constructor(
   private var _bufferViewName: String = ""
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _networkId: NetworkId = NetworkId(0)
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _addNewBuffersAutomatically: Boolean = true
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _sortAlphabetically: Boolean = true
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _hideInactiveBuffers: Boolean = false
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _hideInactiveNetworks: Boolean = false
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _disableDecoration: Boolean = false
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _allowedBufferTypes: Buffer_Types = Buffer_Type.of(*Buffer_Type.validValues)
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _minimumActivity: Buffer_Activities = Buffer_Activities.of(0u)
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
   private var _showSearch: Boolean = false
     set(value) {
       field = value
-      live_config.onNext(Unit)
+      live_config.notifyChanged()
     }
-  private var _buffers: MutableList<BufferId> = mutableListOf()
-  private var _removedBuffers: MutableSet<BufferId> = mutableSetOf()
-  private var _temporarilyRemovedBuffers: MutableSet<BufferId> = mutableSetOf()
+  // Buffer ids are stored unboxed, the removed buffers are kept sorted
+  private var _buffers = IntList()
+  private var _removedBuffers = IntList()
+  private var _temporarilyRemovedBuffers = IntList()
+
+  private fun IntList.containsSorted(value: Int) = binarySearch(value) >= 0
+
+  private fun IntList.addSorted(value: Int) {
+    val index = binarySearch(value)
+    if (index < 0) add(-(index + 1), value)
+  }
+
+  private fun IntList.removeSorted(value: Int): Boolean {
+    val index = binarySearch(value)
+    if (index < 0) return false
+    removeAt(index)
+    return true
+  }
   private val live_config = BehaviorSubject.createDefault(Unit)
   private val live_buffers = BehaviorSubject.createDefault(Unit)
   private val live_removedBuffers = BehaviorSubject.createDefault(Unit)
@@ -329,7 +341,7 @@ class BufferViewConfig constructor(
     if (sortAlphabetically()) {
       var maxBuffer = -1
       for (i in 0 until _buffers.size) {
-        val buffer = bufferSyncer.bufferInfo(_buffers[i])
+        val buffer = bufferSyncer.bufferInfo(BufferId(_buffers[i]))
                      ?: continue
         if (buffer.networkId != info.networkId)
           continue
@@ -345,13 +357,13 @@ class BufferViewConfig constructor(
 
   fun handleBuffer(info: BufferInfo, bufferSyncer: BufferSyncer, unhide: Boolean = false) {
     if (_addNewBuffersAutomatically &&
-        !_buffers.contains(info.bufferId) &&
-        !_temporarilyRemovedBuffers.contains(info.bufferId) &&
-        !_removedBuffers.contains(info.bufferId) &&
+        !_buffers.contains(info.bufferId.id) &&
+        !_temporarilyRemovedBuffers.containsSorted(info.bufferId.id) &&
+        !_removedBuffers.containsSorted(info.bufferId.id) &&
         !info.type.hasFlag(Buffer_Type.StatusBuffer)) {
       insertBufferSorted(info, bufferSyncer)
-    } else if (unhide && !_buffers.contains(info.bufferId) &&
-               _temporarilyRemovedBuffers.contains(info.bufferId)) {
+    } else if (unhide && !_buffers.contains(info.bufferId.id) &&
+               _temporarilyRemovedBuffers.containsSorted(info.bufferId.id)) {
       insertBufferSorted(info, bufferSyncer)
     }
   }
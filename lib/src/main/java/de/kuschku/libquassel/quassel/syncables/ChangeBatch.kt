@@ -0,0 +1,61 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import io.reactivex.subjects.BehaviorSubject
+
+/**
+ * Coalesces change notifications of syncables. While a batch is open on the current thread,
+ * notifications are only recorded, and every recorded subject is notified exactly once when the
+ * outermost batch is closed.
+ */
+object ChangeBatch {
+  private class State {
+    var depth = 0
+    val pending = LinkedHashSet<BehaviorSubject<Unit>>()
+  }
+
+  private val state = object : ThreadLocal<State>() {
+    override fun initialValue() = State()
+  }
+
+  fun <T> batch(f: () -> T): T {
+    val state = state.get()
+    state.depth++
+    try {
+      return f()
+    } finally {
+      state.depth--
+      if (state.depth == 0 && state.pending.isNotEmpty()) {
+        val pending = state.pending.toList()
+        state.pending.clear()
+        for (subject in pending) {
+          subject.onNext(Unit)
+        }
+      }
+    }
+  }
+
+  fun notify(subject: BehaviorSubject<Unit>) {
+    val state = state.get()
+    if (state.depth > 0) state.pending.add(subject)
+    else subject.onNext(Unit)
+  }
+}
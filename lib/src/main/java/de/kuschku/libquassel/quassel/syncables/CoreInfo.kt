@@ -81,7 +81,7 @@ class CoreInfo constructor(
   private var _coreData: QVariantMap = emptyMap()
     set(value) {
       field = value
-      live_coreData.onNext(Unit)
+      live_coreData.notifyChanged()
     }
 
   data class CoreData(
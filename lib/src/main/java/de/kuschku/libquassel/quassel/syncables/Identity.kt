@@ -213,97 +213,97 @@ class Identity constructor(
   private var _identityId: IdentityId = IdentityId(-1)
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _identityName: String? = "<empty>"
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _realName: String? = ""
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _nicks: MutableList<String> = mutableListOf("quassel")
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _awayNick: String? = ""
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _awayNickEnabled: Boolean = false
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _awayReason: String? = "Gone fishing."
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _awayReasonEnabled: Boolean = true
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _autoAwayEnabled: Boolean = false
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _autoAwayTime: Int = 10
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _autoAwayReason: String? = "Not here. No, really. not here!"
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _autoAwayReasonEnabled: Boolean = false
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _detachAwayEnabled: Boolean = false
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _detachAwayReason: String? = "All Quassel clients vanished from the face of the earth..."
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _detachAwayReasonEnabled: Boolean = false
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _ident: String? = "quassel"
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _kickReason: String? = "Kindergarten is elsewhere!"
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _partReason: String? = "http://quassel-irc.org - Chat comfortably. Anywhere."
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
   private var _quitReason: String? = "http://quassel-irc.org - Chat comfortably. Anywhere."
     set(value) {
       field = value
-      _change.onNext(Unit)
+      _change.notifyChanged()
     }
 
   fun isEqual(other: Identity): Boolean =
@@ -23,7 +23,6 @@ import de.kuschku.libquassel.protocol.*
 import de.kuschku.libquassel.quassel.syncables.interfaces.IIgnoreListManager
 import de.kuschku.libquassel.session.ISession
 import de.kuschku.libquassel.util.ExpressionMatch
-import de.kuschku.libquassel.util.flag.and
 import io.reactivex.subjects.BehaviorSubject
 import java.io.Serializable
 
@@ -266,32 +265,29 @@ class IgnoreListManager constructor(
   }
 
   fun match(msgContents: String, msgSender: String, msgType: Message_Types, network: String,
-            bufferName: String): StrictnessType {
-    if ((Message_Type.of(Message_Type.Plain, Message_Type.Notice, Message_Type.Action) and msgType)
-        .isEmpty()) return StrictnessType.UnmatchedStrictness
-
-    return _ignoreList.filter {
-      it.isActive && it.type != IgnoreType.CtcpIgnore
-    }.filter {
-      it.scope == ScopeType.GlobalScope ||
-      it.scope == ScopeType.NetworkScope && it.scopeRegEx.match(network) ||
-      it.scope == ScopeType.ChannelScope && it.scopeRegEx.match(bufferName)
-    }.filter {
-      val content = if (it.type == IgnoreType.MessageIgnore) msgContents else msgSender
-      it.regEx.match(content)
-    }.map {
-      it.strictness
-    }.sortedByDescending {
-      it.value
-    }.firstOrNull() ?: StrictnessType.UnmatchedStrictness
+            bufferName: String): StrictnessType =
+    matcher.match(msgContents, msgSender, msgType, network, bufferName)
+
+  /**
+   * Matches a batch of messages against the ignore list, returns the strictness for each message
+   */
+  fun match(messages: List<Message>): List<StrictnessType> {
+    val networkNames = session.networkNames
+    return matcher.match(messages) { networkId ->
+      networkNames[networkId] ?: ""
+    }
   }
 
   private val live_updates = BehaviorSubject.createDefault(Unit)
+  @Volatile
+  private var matcher = IgnoreMatcher(emptyList())
   private var _ignoreList = emptyList<IgnoreListItem>()
     set(value) {
+      val previous = field
       field = value
-      live_updates.onNext(Unit)
-      if (initialized) session.backlogManager.updateIgnoreRules()
+      matcher = IgnoreMatcher(value)
+      live_updates.notifyChanged()
+      if (initialized) session.backlogManager.updateIgnoreRules(previous)
     }
 
   fun isEqual(other: IgnoreListManager): Boolean =
@@ -0,0 +1,169 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import de.kuschku.libquassel.protocol.Message
+import de.kuschku.libquassel.protocol.Message_Type
+import de.kuschku.libquassel.protocol.Message_Types
+import de.kuschku.libquassel.protocol.NetworkId
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.*
+import de.kuschku.libquassel.util.ExpressionMatch
+import de.kuschku.libquassel.util.flag.and
+
+/**
+ * Ignore list compiled for matching. The rules applying to a combination of network and buffer
+ * are resolved once and split by type and strictness, all plain wildcard rules of each group are
+ * combined into a single regular expression. Results of sender rules are cached per scope.
+ */
+class IgnoreMatcher(
+  rules: List<IgnoreListItem>,
+  private val senderCacheSize: Int = 256
+) {
+  private val effective = rules.filter {
+    it.isActive && it.type != IgnoreType.CtcpIgnore &&
+    it.strictness != StrictnessType.UnmatchedStrictness
+  }
+  private val globalRules = effective.filter { it.scope == ScopeType.GlobalScope }
+  private val networkRules = effective.filter { it.scope == ScopeType.NetworkScope }
+  private val channelRules = effective.filter { it.scope == ScopeType.ChannelScope }
+
+  private val scopes = mutableMapOf<String, MutableMap<String, ScopedRules>>()
+
+  fun isEmpty() = effective.isEmpty()
+
+  fun match(msgContents: String, msgSender: String, msgType: Message_Types, network: String,
+            bufferName: String): StrictnessType {
+    if (effective.isEmpty() || (MATCHED_TYPES and msgType).isEmpty())
+      return StrictnessType.UnmatchedStrictness
+
+    return scope(network, bufferName).match(msgContents, msgSender)
+  }
+
+  /**
+   * Matches a batch of messages, resolving the rules for each buffer only once
+   */
+  fun match(messages: List<Message>, networkName: (NetworkId) -> String): List<StrictnessType> {
+    if (effective.isEmpty()) return messages.map { StrictnessType.UnmatchedStrictness }
+
+    var lastNetwork: NetworkId? = null
+    var lastBufferName: String? = null
+    var lastScope: ScopedRules? = null
+    return messages.map {
+      if ((MATCHED_TYPES and it.type).isEmpty()) {
+        StrictnessType.UnmatchedStrictness
+      } else {
+        val networkId = it.bufferInfo.networkId
+        val bufferName = it.bufferInfo.bufferName ?: ""
+        val rules = lastScope?.takeIf { networkId == lastNetwork && bufferName == lastBufferName }
+                    ?: scope(networkName(networkId), bufferName)
+        lastNetwork = networkId
+        lastBufferName = bufferName
+        lastScope = rules
+        rules.match(it.content, it.sender)
+      }
+    }
+  }
+
+  private fun scope(network: String, bufferName: String): ScopedRules = synchronized(scopes) {
+    val buffers = scopes.getOrPut(network) { mutableMapOf() }
+    buffers.getOrPut(bufferName) {
+      if (buffers.size >= MAX_BUFFERS_PER_NETWORK) buffers.clear()
+      ScopedRules(
+        globalRules +
+        networkRules.filter { it.scopeRegEx.match(network) } +
+        channelRules.filter { it.scopeRegEx.match(bufferName) },
+        senderCacheSize
+      )
+    }
+  }
+
+  private class ScopedRules(rules: List<IgnoreListItem>, private val cacheSize: Int) {
+    private val hardSender = RuleGroup(rules, IgnoreType.SenderIgnore, StrictnessType.HardStrictness)
+    private val softSender = RuleGroup(rules, IgnoreType.SenderIgnore, StrictnessType.SoftStrictness)
+    private val hardMessage = RuleGroup(rules, IgnoreType.MessageIgnore, StrictnessType.HardStrictness)
+    private val softMessage = RuleGroup(rules, IgnoreType.MessageIgnore, StrictnessType.SoftStrictness)
+    private val hasSenderRules = !hardSender.isEmpty() || !softSender.isEmpty()
+
+    private val senderCache = object : LinkedHashMap<String, StrictnessType>(16, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, StrictnessType>?) =
+        size > cacheSize
+    }
+
+    fun match(content: String, sender: String): StrictnessType {
+      val senderResult = matchSender(sender)
+      return when {
+        senderResult == StrictnessType.HardStrictness -> StrictnessType.HardStrictness
+        hardMessage.matches(content)                  -> StrictnessType.HardStrictness
+        senderResult == StrictnessType.SoftStrictness -> StrictnessType.SoftStrictness
+        softMessage.matches(content)                  -> StrictnessType.SoftStrictness
+        else                                          -> StrictnessType.UnmatchedStrictness
+      }
+    }
+
+    private fun matchSender(sender: String): StrictnessType {
+      if (!hasSenderRules) return StrictnessType.UnmatchedStrictness
+
+      synchronized(senderCache) {
+        senderCache[sender]?.let { return it }
+      }
+      val result = when {
+        hardSender.matches(sender) -> StrictnessType.HardStrictness
+        softSender.matches(sender) -> StrictnessType.SoftStrictness
+        else                       -> StrictnessType.UnmatchedStrictness
+      }
+      synchronized(senderCache) {
+        senderCache[sender] = result
+      }
+      return result
+    }
+  }
+
+  private class RuleGroup(rules: List<IgnoreListItem>, type: IgnoreType,
+                          strictness: StrictnessType) {
+    private val combined: Regex?
+    private val remaining: List<ExpressionMatch>
+
+    init {
+      val patterns = mutableListOf<String>()
+      val remaining = mutableListOf<ExpressionMatch>()
+      for (rule in rules) {
+        if (rule.type != type || rule.strictness != strictness) continue
+        val pattern = rule.regEx.combinableRegEx()
+        if (pattern != null && !rule.regEx.sourceCaseSensitive) patterns.add(pattern)
+        else remaining.add(rule.regEx)
+      }
+      this.combined =
+        if (patterns.isEmpty()) null
+        else Regex(patterns.joinToString("|") { "(?:$it)" }, RegexOption.IGNORE_CASE)
+      this.remaining = remaining
+    }
+
+    fun isEmpty() = combined == null && remaining.isEmpty()
+
+    fun matches(value: String) =
+      combined?.containsMatchIn(value) == true || remaining.any { it.match(value) }
+  }
+
+  companion object {
+    private val MATCHED_TYPES =
+      Message_Type.of(Message_Type.Plain, Message_Type.Notice, Message_Type.Action)
+    private const val MAX_BUFFERS_PER_NETWORK = 1024
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.IgnoreListItem
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.IgnoreType
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.ScopeType
+
+/**
+ * Set of ignore rules which differ between two versions of an ignore list. Only messages in
+ * scopes matched by one of these rules can change their ignored state.
+ */
+class IgnoreRuleDiff(
+  val changed: Set<IgnoreListItem>,
+  val isGlobal: Boolean
+) {
+  fun isEmpty() = changed.isEmpty() && !isGlobal
+
+  fun affectsNetwork(networkName: String) = isGlobal || changed.any {
+    it.scope == ScopeType.NetworkScope && it.scopeRegEx.match(networkName)
+  }
+
+  fun affectsBuffer(bufferName: String) = isGlobal || changed.any {
+    it.scope == ScopeType.ChannelScope && it.scopeRegEx.match(bufferName)
+  }
+
+  operator fun plus(other: IgnoreRuleDiff) = IgnoreRuleDiff(
+    changed + other.changed,
+    isGlobal || other.isGlobal
+  )
+
+  override fun toString(): String {
+    return "IgnoreRuleDiff(changed=$changed, isGlobal=$isGlobal)"
+  }
+
+  companion object {
+    val EMPTY = IgnoreRuleDiff(emptySet(), false)
+
+    /**
+     * Computes the difference between [previous] and [current], if [previous] is unknown every
+     * message is considered affected
+     */
+    fun of(previous: List<IgnoreListItem>?, current: List<IgnoreListItem>): IgnoreRuleDiff {
+      if (previous == null) return IgnoreRuleDiff(emptySet(), true)
+
+      val before = previous.filterTo(mutableSetOf(), ::isEffective)
+      val after = current.filterTo(mutableSetOf(), ::isEffective)
+      val changed = (before - after) + (after - before)
+      return IgnoreRuleDiff(changed, changed.any { it.scope == ScopeType.GlobalScope })
+    }
+
+    private fun isEffective(item: IgnoreListItem) =
+      item.isActive && item.type != IgnoreType.CtcpIgnore
+  }
+}
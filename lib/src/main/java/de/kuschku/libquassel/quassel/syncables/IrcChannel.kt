@@ -28,9 +28,11 @@ import de.kuschku.libquassel.session.SignalProxy
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.ERROR
 import de.kuschku.libquassel.util.helper.getOr
+import de.kuschku.libquassel.util.irc.IrcCaseMappers
 import io.reactivex.Observable
 import io.reactivex.subjects.BehaviorSubject
 import java.nio.charset.Charset
+import java.util.*
 
 class IrcChannel(
   name: String,
@@ -82,7 +84,7 @@ class IrcChannel(
 
   override fun initUserModes(): QVariantMap = synchronized(_userModes) {
     _userModes.entries.map { (key, value) ->
-      key.nick() to QVariant.of(value, Type.QString)
+      key.nick() to QVariant.of(network().prefixModesOf(value), Type.QString)
     }.toMap()
   }
 
@@ -143,19 +145,34 @@ class IrcChannel(
   fun liveIrcUsers(): Observable<Set<IrcUser>> =
     live_userModes.map { ircUsers() }
 
-  fun userModes(ircUser: IrcUser) = synchronized(_userModes) {
-    _userModes.getOr(ircUser, "")
+  fun userModes(ircUser: IrcUser) = network().prefixModesOf(userModeBits(ircUser))
+
+  /**
+   * Prefix modes of the user as bitmask, see [Network.prefixModeBits]
+   */
+  fun userModeBits(ircUser: IrcUser) = synchronized(_userModes) {
+    _userModes.getOr(ircUser, 0)
   }
 
   fun liveUserModes(ircUser: IrcUser) = live_userModes.map {
-    synchronized(_userModes) {
-      _userModes.getOr(ircUser, "")
-    }
+    userModes(ircUser)
   }
 
+  /**
+   * Users ordered by their highest prefix mode, then by nick
+   */
+  fun members(): List<IrcUser> = synchronized(_userModes) {
+    _members.toList()
+  }
+
+  fun liveMembers(): Observable<List<IrcUser>> =
+    live_userModes.map { members() }
+
   fun userCount() = _userCount
 
-  fun userModes(): Map<IrcUser, String> = _userModes
+  fun userModes(): Map<IrcUser, String> = synchronized(_userModes) {
+    _userModes.mapValues { (_, bits) -> network().prefixModesOf(bits) }
+  }
   fun userModes(nick: String) = network().ircUser(nick)?.let { userModes(it) } ?: ""
   fun liveUserModes(nick: String) = network().ircUser(nick)?.let { userModes(it) } ?: ""
 
@@ -258,20 +275,19 @@ class IrcChannel(
     joinIrcUsersInternal(rawUsers, rawModes)
   }
 
-  private fun joinIrcUsersInternal(rawUsers: List<IrcUser>, rawModes: List<String>) {
+  private fun joinIrcUsersInternal(rawUsers: List<IrcUser>,
+                                   rawModes: List<String>) = ChangeBatch.batch {
     synchronized(_userModes) {
-      val users = rawUsers.zip(rawModes)
-      val newNicks = users.filter { !_userModes.contains(it.first) }
-      val oldNicks = users.filter { _userModes.contains(it.first) }
-      for ((user, modes) in oldNicks) {
-        modes.forEach { mode ->
-          addUserMode(user, mode)
+      for ((user, modes) in rawUsers.zip(rawModes)) {
+        val bits = network().prefixModeBits(modes)
+        val oldBits = _userModes[user]
+        if (oldBits == null) {
+          setUserModeBits(user, bits)
+          user.joinChannel(this, true)
+        } else if ((oldBits or bits) != oldBits) {
+          setUserModeBits(user, oldBits or bits)
         }
       }
-      for ((user, modes) in newNicks) {
-        _userModes[user] = modes
-        user.joinChannel(this, true)
-      }
       updateUsers()
     }
   }
@@ -286,12 +302,14 @@ class IrcChannel(
         return
       if (!isKnownUser(ircuser))
         return
+      _members.remove(ircuser)
       _userModes.remove(ircuser)
       ircuser.partChannel(this)
       if (network().isMe(ircuser) || _userModes.isEmpty()) {
         for (user in _userModes.keys) {
           user.partChannel(this)
         }
+        _members.clear()
         _userModes.clear()
         network().removeIrcChannel(this)
         proxy.stopSynchronize(this)
@@ -308,7 +326,7 @@ class IrcChannel(
     synchronized(_userModes) {
       if (ircuser == null || !isKnownUser(ircuser))
         return
-      _userModes[ircuser] = modes ?: ""
+      setUserModeBits(ircuser, network().prefixModeBits(modes ?: ""))
       updateUsers()
     }
   }
@@ -326,9 +344,11 @@ class IrcChannel(
       val userMode = mode ?: ""
       if (ircuser == null || !isKnownUser(ircuser) || !isValidChannelUserMode(userMode))
         return
-      if (_userModes.getOr(ircuser, "").contains(userMode, ignoreCase = true))
+      val bits = _userModes.getOr(ircuser, 0)
+      val newBits = bits or network().prefixModeBits(userMode)
+      if (newBits == bits)
         return
-      _userModes[ircuser] = _userModes.getOr(ircuser, "") + userMode
+      setUserModeBits(ircuser, newBits)
       updateUsers()
     }
   }
@@ -342,10 +362,11 @@ class IrcChannel(
       val userMode = mode ?: ""
       if (ircuser == null || !isKnownUser(ircuser) || !isValidChannelUserMode(userMode))
         return
-      if (!_userModes.getOr(ircuser, "").contains(userMode, ignoreCase = true))
+      val bits = _userModes.getOr(ircuser, 0)
+      val newBits = bits and network().prefixModeBits(userMode).inv()
+      if (newBits == bits)
         return
-      _userModes[ircuser] = _userModes.getOr(ircuser, "")
-        .replace(userMode, "", ignoreCase = true)
+      setUserModeBits(ircuser, newBits)
       updateUsers()
     }
   }
@@ -392,40 +413,98 @@ class IrcChannel(
   private var _name: String = name
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   private var _userCount: Int = 0
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   private var _topic: String = ""
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   private var _password: String = ""
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   private var _encrypted: Boolean = false
     set(value) {
       field = value
-      live_updates.onNext(Unit)
+      live_updates.notifyChanged()
     }
 
   private fun updateUsers() = synchronized(_userModes) {
     _userCount = _userModes.size
-    live_userModes.onNext(Unit)
+    live_userModes.notifyChanged()
+  }
+
+  /**
+   * Has to be called before a property the member order depends on changes, followed by
+   * [endMemberUpdate] afterwards
+   */
+  fun beginMemberUpdate(ircUser: IrcUser) = synchronized(_userModes) {
+    _members.remove(ircUser)
   }
 
+  fun endMemberUpdate(ircUser: IrcUser) = synchronized(_userModes) {
+    if (_userModes.containsKey(ircUser)) {
+      _members.add(ircUser)
+      live_userModes.notifyChanged()
+    }
+  }
+
+  /**
+   * Rebuilds the member order after the case mapping of the network changed
+   */
+  fun updateMemberOrder() = synchronized(_userModes) {
+    _members = TreeSet(memberOrder(network().caseMapper)).apply {
+      addAll(_userModes.keys)
+    }
+    live_userModes.notifyChanged()
+  }
+
+  /**
+   * Translates the stored user modes after the prefix modes of the network changed
+   */
+  fun remapUserModes(oldPrefixModes: List<Char>) = synchronized(_userModes) {
+    for ((user, bits) in _userModes.entries.toList()) {
+      val modes = oldPrefixModes.filterIndexed { index, _ ->
+        index < Int.SIZE_BITS && (bits and (1 shl index)) != 0
+      }.joinToString("")
+      setUserModeBits(user, network().prefixModeBits(modes))
+    }
+    updateUsers()
+  }
+
+  private fun setUserModeBits(ircUser: IrcUser, bits: Int) {
+    _members.remove(ircUser)
+    _userModes[ircUser] = bits
+    _members.add(ircUser)
+  }
+
+  private fun memberOrder(caseMapper: IrcCaseMappers.IrcCaseMapper) =
+    Comparator<IrcUser> { a, b ->
+      val rankA = Integer.numberOfTrailingZeros(_userModes.getOr(a, 0))
+      val rankB = Integer.numberOfTrailingZeros(_userModes.getOr(b, 0))
+      when {
+        rankA != rankB -> rankA.compareTo(rankB)
+        a === b        -> 0
+        else           -> compareNicks(caseMapper, a.nick(), b.nick()).takeIf { it != 0 }
+                          ?: a.nick().compareTo(b.nick()).takeIf { it != 0 }
+                          ?: a.sequence.compareTo(b.sequence)
+      }
+    }
+
   private val live_userModes = BehaviorSubject.createDefault(Unit)
-  private val _userModes = mutableMapOf<IrcUser, String>()
+  private val _userModes = mutableMapOf<IrcUser, Int>()
+  private var _members = TreeSet(memberOrder(network.caseMapper))
 
   private var _network: Network = network
 
@@ -439,5 +518,33 @@ class IrcChannel(
 
   companion object {
     val NULL = IrcChannel("", Network.NULL, SignalProxy.NULL)
+
+    /**
+     * Leading characters of nicks which are skipped when ordering them
+     */
+    val IGNORED_NICK_CHARS = charArrayOf(
+      '!', '"', '$', '%', '&', '\'', '(', ')', '*', '+', ',', '-', '.', '/', ':', ';', '<', '=',
+      '>', '?', '@', '[', '\\', ']', '^', '_', '`', '{', '|', '}', '~'
+    )
+
+    /**
+     * Compares nicks ignoring case and leading [IGNORED_NICK_CHARS], without copying them
+     */
+    fun compareNicks(caseMapper: IrcCaseMappers.IrcCaseMapper, a: String, b: String): Int {
+      var indexA = nickStart(a)
+      var indexB = nickStart(b)
+      while (indexA < a.length && indexB < b.length) {
+        val charA = caseMapper.foldCase(a[indexA++])
+        val charB = caseMapper.foldCase(b[indexB++])
+        if (charA != charB) return charA.compareTo(charB)
+      }
+      return (a.length - indexA).compareTo(b.length - indexB)
+    }
+
+    private fun nickStart(nick: String): Int {
+      var index = 0
+      while (index < nick.length && nick[index] in IGNORED_NICK_CHARS) index++
+      return index
+    }
   }
 }
@@ -30,6 +30,7 @@ import io.reactivex.subjects.BehaviorSubject
 import org.threeten.bp.Instant
 import org.threeten.bp.temporal.Temporal
 import java.nio.charset.Charset
+import java.util.concurrent.atomic.AtomicLong
 
 class IrcUser(
   hostmask: String,
@@ -148,9 +149,17 @@ class IrcUser(
 
   override fun setNick(nick: String?) {
     if (!nick.isNullOrEmpty() && _nick != nick) {
+      // Channels keep their members ordered by nick
+      val channels = _channels.toList()
+      for (channel in channels) {
+        channel.beginMemberUpdate(this)
+      }
       network().ircUserNickChanged(_nick, nick)
       _nick = nick
       updateObjectName()
+      for (channel in channels) {
+        channel.endMemberUpdate(this)
+      }
     }
   }
 
@@ -288,99 +297,106 @@ class IrcUser(
     renameObject(identifier)
   }
 
+  /**
+   * Unique per instance, orders users that are otherwise equal
+   */
+  val sequence = nextSequence.getAndIncrement()
+
   private val hasChangedNotification = BehaviorSubject.createDefault(Unit)
 
   private var _nick: String = HostmaskHelper.nick(hostmask)
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _user: String = HostmaskHelper.user(hostmask)
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _host: String = HostmaskHelper.host(hostmask)
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _realName: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _account: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _awayMessage: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _away: Boolean = false
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _server: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _idleTime: Instant = Instant.EPOCH
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _idleTimeSet: Instant = Instant.EPOCH
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _loginTime: Instant = Instant.EPOCH
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _ircOperator: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _lastAwayMessageTime: Instant = Instant.EPOCH
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _whoisServiceReply: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _suserHost: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _encrypted: Boolean = false
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _channels: MutableSet<IrcChannel> = mutableSetOf()
   private var _userModes: String = ""
     set(value) {
       field = value
-      hasChangedNotification.onNext(Unit)
+      hasChangedNotification.notifyChanged()
     }
   private var _network: Network = network
   private var _codecForEncoding: Charset? = null
   private var _codecForDecoding: Charset? = null
 
   companion object {
+    private val nextSequence = AtomicLong()
+
     val NULL = IrcUser("", Network.NULL, SignalProxy.NULL)
   }
 }
@@ -27,8 +27,11 @@ import de.kuschku.libquassel.quassel.syncables.interfaces.INetwork.*
 import de.kuschku.libquassel.session.SignalProxy
 import de.kuschku.libquassel.util.helper.getOr
 import de.kuschku.libquassel.util.helper.serializeString
+import de.kuschku.libquassel.util.irc.CaseMappedMap
 import de.kuschku.libquassel.util.irc.HostmaskHelper
 import de.kuschku.libquassel.util.irc.IrcCaseMappers
+import de.kuschku.libquassel.util.rxjava.LiveMap
+import de.kuschku.libquassel.util.rxjava.MapChange
 import io.reactivex.Observable
 import io.reactivex.subjects.BehaviorSubject
 import java.nio.ByteBuffer
@@ -106,6 +109,39 @@ class Network constructor(
     prefixes().elementAtOrNull(it)
   }.joinToString("")
 
+  /**
+   * Bitmask of the prefix modes contained in [modes], bit i stands for the i-th entry of
+   * [prefixModes]. Characters which aren't prefix modes are ignored.
+   */
+  fun prefixModeBits(modes: String): Int {
+    val prefixModes = prefixModes()
+    var bits = 0
+    for (mode in modes) {
+      val index = prefixModes.indexOf(mode)
+      if (index in 0 until Int.SIZE_BITS) bits = bits or (1 shl index)
+    }
+    return bits
+  }
+
+  fun prefixModesOf(bits: Int): String = charsOf(prefixModes(), bits)
+
+  fun prefixesOf(bits: Int): String = charsOf(prefixes(), bits)
+
+  /**
+   * Index of the highest prefix mode in [bits], or the number of prefix modes if there is none
+   */
+  fun prefixModeRank(bits: Int): Int =
+    minOf(Integer.numberOfTrailingZeros(bits), prefixModes().size)
+
+  private fun charsOf(chars: List<Char>, bits: Int): String {
+    if (bits == 0) return ""
+    val result = StringBuilder(Integer.bitCount(bits))
+    for (index in 0 until minOf(chars.size, Int.SIZE_BITS)) {
+      if ((bits and (1 shl index)) != 0) result.append(chars[index])
+    }
+    return result.toString()
+  }
+
   fun channelModeType(mode: Char): ChannelModeType {
     if (_channelModes == null)
       determineChannelModeTypes()
@@ -133,8 +169,8 @@ class Network constructor(
   fun latency() = _latency
   fun me() = ircUser(myNick())
   fun identity() = _identity
-  fun nicks() = _ircUsers.values.map(IrcUser::nick)
-  fun channels(): Set<String> = _ircChannels.keys
+  fun nicks() = _ircUsers.values().map(IrcUser::nick)
+  fun channels(): Set<String> = _ircChannels.keys()
   fun caps(): Set<String> = _caps.keys
   fun liveCaps() = live_caps.map { caps() }
   fun capsEnabled(): Set<String> = _capsEnabled
@@ -352,7 +388,7 @@ class Network constructor(
 
   fun newIrcUser(hostMask: String, initData: QVariantMap = emptyMap(),
                  index: Int? = null): IrcUser {
-    val nick = caseMapper.toLowerCase(HostmaskHelper.nick(hostMask))
+    val nick = HostmaskHelper.nick(hostMask)
     val user = ircUser(nick)
     return if (user == null) {
       val ircUser = IrcUser(hostMask, this, proxy)
@@ -362,24 +398,29 @@ class Network constructor(
         ircUser.initialized = true
       }
       proxy.synchronize(ircUser)
-      _ircUsers[nick] = ircUser
-      live_ircUsers.onNext(Unit)
+      putLinked(_ircUsers, _liveIrcUsers, nick, ircUser)
+      live_ircUsers.notifyChanged()
       ircUser
     } else {
       user
     }
   }
 
-  fun ircUser(nickName: String?) = _ircUsers[caseMapper.toLowerCaseNullable(nickName)]
+  fun ircUser(nickName: String?) = _ircUsers[nickName]
   fun liveIrcUser(nickName: String?) = live_ircUsers.map {
     ircUser(nickName) ?: IrcUser.NULL
   }.distinctUntilChanged()
 
-  fun ircUsers() = _ircUsers.values.toList()
-  fun liveIrcUsers() = live_ircUsers.map {
-    ircUsers()
+  fun ircUsers() = _ircUsers.values()
+  fun liveIrcUsers(): Observable<Collection<IrcUser>> = live_ircUsers.map {
+    _liveIrcUsers.snapshot().values
   }
 
+  /**
+   * Users added to, renamed in or removed from this network, keyed by nick
+   */
+  fun ircUserChanges(): Observable<MapChange<String, IrcUser>> = _liveIrcUsers.changes()
+
   fun ircUserCount(): UInt = _ircUsers.size.toUInt()
   fun liveIrcUserCount() = live_ircUsers.map {
     ircUserCount()
@@ -396,26 +437,28 @@ class Network constructor(
           ircChannel.initialized = true
         }
         proxy.synchronize(ircChannel)
-        _ircChannels[caseMapper.toLowerCase(channelName)] = ircChannel
-        live_ircChannels.onNext(Unit)
+        putLinked(_ircChannels, _liveIrcChannels, channelName, ircChannel)
+        live_ircChannels.notifyChanged()
         ircChannel
       } else {
         channel
       }
     }
 
-  fun ircChannel(channelName: String?) = _ircChannels[channelName?.let(caseMapper::toLowerCase)]
+  fun ircChannel(channelName: String?) = _ircChannels[channelName]
   fun liveIrcChannel(channelName: String?) = live_ircChannels.map {
     ircChannel(
       channelName
     ) ?: IrcChannel.NULL
   }.distinctUntilChanged()
 
-  fun ircChannels() = _ircChannels.values.toList()
-  fun liveIrcChannels() = live_ircChannels.map {
-    ircChannels()
+  fun ircChannels() = _ircChannels.values()
+  fun liveIrcChannels(): Observable<Collection<IrcChannel>> = live_ircChannels.map {
+    _liveIrcChannels.snapshot().values
   }
 
+  fun ircChannelChanges(): Observable<MapChange<String, IrcChannel>> = _liveIrcChannels.changes()
+
   fun ircChannelCount(): UInt = _ircChannels.size.toUInt()
   fun liveIrcChannelCount() = live_ircChannels.map {
     ircChannelCount()
@@ -629,12 +672,45 @@ class Network constructor(
 
   override fun addSupport(param: String?, value: String?) {
     _supports[param ?: ""] = value
+    updateCaseMapper()
+    if (param == "PREFIX") updatePrefixes()
   }
 
   override fun removeSupport(param: String?) {
     if (!_supports.contains(param ?: ""))
       return
     _supports.remove(param ?: "")
+    updateCaseMapper()
+    if (param == "PREFIX") updatePrefixes()
+  }
+
+  /**
+   * Rehashes users and channels if the case mapping of the network changed
+   */
+  private fun updateCaseMapper() {
+    val mapper = caseMapper
+    if (mapper === _ircUsers.caseMapper) return
+    _ircUsers = _ircUsers.withCaseMapper(mapper)
+    _ircChannels = _ircChannels.withCaseMapper(mapper)
+    relink(_ircUsers, _liveIrcUsers)
+    relink(_ircChannels, _liveIrcChannels)
+    for (channel in _ircChannels.values()) {
+      channel.updateMemberOrder()
+    }
+  }
+
+  /**
+   * Recomputes the prefix modes, channels store user modes as bits indexed by them
+   */
+  private fun updatePrefixes() {
+    val oldPrefixModes = _prefixModes ?: return
+    _prefixes = null
+    _prefixModes = null
+    if (prefixModes() != oldPrefixModes) {
+      for (channel in _ircChannels.values()) {
+        channel.remapUserModes(oldPrefixModes)
+      }
+    }
   }
 
   override fun addCap(capability: String, value: String?) {
@@ -690,13 +766,13 @@ class Network constructor(
   override fun initIrcUsersAndChannels(): QVariantMap {
     return mapOf(
       "Users" to QVariant.of(
-        _ircUsers.values.map { it.toVariantMap() }.transpose().mapValues { (_, value) ->
+        _ircUsers.values().map { it.toVariantMap() }.transpose().mapValues { (_, value) ->
           QVariant.of(value, Type.QVariantList)
         },
         Type.QVariantMap
       ),
       "Channels" to QVariant.of(
-        _ircChannels.values.map { it.toVariantMap() }.transpose().mapValues { (_, value) ->
+        _ircChannels.values().map { it.toVariantMap() }.transpose().mapValues { (_, value) ->
           QVariant.of(value, Type.QVariantList)
         },
         Type.QVariantMap
@@ -742,6 +818,8 @@ class Network constructor(
 
   override fun initSetSupports(supports: QVariantMap) {
     supports.entries.map { (key, value) -> key to value.value("") }.toMap(_supports)
+    updateCaseMapper()
+    updatePrefixes()
   }
 
   override fun initSetCaps(caps: QVariantMap) {
@@ -817,8 +895,7 @@ class Network constructor(
   }
 
   fun updateNickFromMask(mask: String): IrcUser {
-    val nick = caseMapper.toLowerCase(HostmaskHelper.nick(mask))
-    val user = _ircUsers[nick]
+    val user = _ircUsers[HostmaskHelper.nick(mask)]
     return if (user != null) {
       user.updateHostmask(mask)
       user
@@ -828,9 +905,9 @@ class Network constructor(
   }
 
   override fun ircUserNickChanged(old: String?, new: String?) {
-    val value = _ircUsers.remove(caseMapper.toLowerCase(old ?: ""))
+    val value = removeLinked(_ircUsers, _liveIrcUsers, old)
     if (value != null) {
-      _ircUsers[caseMapper.toLowerCase(new ?: "")] = value
+      putLinked(_ircUsers, _liveIrcUsers, new ?: "", value)
     }
   }
 
@@ -839,19 +916,52 @@ class Network constructor(
 
   fun removeChansAndUsers() {
     _ircUsers.clear()
+    _liveIrcUsers.clear()
     _ircChannels.clear()
-    live_ircChannels.onNext(Unit)
-    live_ircUsers.onNext(Unit)
+    _liveIrcChannels.clear()
+    live_ircChannels.notifyChanged()
+    live_ircUsers.notifyChanged()
   }
 
   fun removeIrcUser(user: IrcUser) {
-    _ircUsers.remove(caseMapper.toLowerCase(user.nick()))
-    live_ircUsers.onNext(Unit)
+    removeLinked(_ircUsers, _liveIrcUsers, user.nick())
+    live_ircUsers.notifyChanged()
   }
 
   fun removeIrcChannel(channel: IrcChannel) {
-    _ircChannels.remove(caseMapper.toLowerCase(channel.name()))
-    live_ircChannels.onNext(Unit)
+    removeLinked(_ircChannels, _liveIrcChannels, channel.name())
+    live_ircChannels.notifyChanged()
+  }
+
+  /**
+   * Stores [value] in both the lookup map and its change tracking copy. The copy is keyed by
+   * the exact key stored in the lookup map, so the two always contain the same entries.
+   */
+  private fun <V> putLinked(map: CaseMappedMap<V>, live: LiveMap<String, V>, key: String,
+                            value: V) {
+    if (map.keyOf(key) != key) removeLinked(map, live, key)
+    map[key] = value
+    live[key] = value
+  }
+
+  private fun <V> removeLinked(map: CaseMappedMap<V>, live: LiveMap<String, V>,
+                               key: String?): V? {
+    val storedKey = map.keyOf(key) ?: return null
+    live.remove(storedKey)
+    return map.remove(storedKey)
+  }
+
+  /**
+   * Drops entries merged by a change of the case mapping from the change tracking copy
+   */
+  private fun <V> relink(map: CaseMappedMap<V>, live: LiveMap<String, V>) {
+    for ((key, value) in live.snapshot()) {
+      val current = map[key]
+      when {
+        map.keyOf(key) != key                 -> live.remove(key)
+        current != null && current !== value -> live[key] = current
+      }
+    }
   }
 
   fun copy(): Network {
@@ -863,12 +973,12 @@ class Network constructor(
   private var _networkId: NetworkId = networkId
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _identity: IdentityId = IdentityId(-1)
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _myNick: String? = null
   private var _latency: Int = 0
@@ -880,7 +990,7 @@ class Network constructor(
   private var _networkName: String = "<not initialized>"
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _currentServer: String = ""
     set(value) {
@@ -895,16 +1005,18 @@ class Network constructor(
   private var _prefixModes: List<Char>? = null
   private var _channelModes: Map<ChannelModeType, Set<Char>>? = null
   // stores all known nicks for the server
-  private var _ircUsers: MutableMap<String, IrcUser> = mutableMapOf()
+  private var _ircUsers = CaseMappedMap<IrcUser>(IrcCaseMappers.unicode)
+  private val _liveIrcUsers = LiveMap<String, IrcUser>()
   private val live_ircUsers = BehaviorSubject.createDefault(Unit)
   // stores all known channels
-  private var _ircChannels: MutableMap<String, IrcChannel> = mutableMapOf()
+  private var _ircChannels = CaseMappedMap<IrcChannel>(IrcCaseMappers.unicode)
+  private val _liveIrcChannels = LiveMap<String, IrcChannel>()
   private val live_ircChannels = BehaviorSubject.createDefault(Unit)
   // stores results from RPL_ISUPPORT
   private var _supports: MutableMap<String, String?> = mutableMapOf()
     set(value) {
       field = value
-      live_caps.onNext(Unit)
+      live_caps.notifyChanged()
     }
   private val live_supports = BehaviorSubject.createDefault(Unit)
   /**
@@ -916,7 +1028,7 @@ class Network constructor(
   private var _caps: MutableMap<String, String?> = mutableMapOf()
     set(value) {
       field = value
-      live_caps.onNext(Unit)
+      live_caps.notifyChanged()
     }
   private val live_caps = BehaviorSubject.createDefault(Unit)
   /**
@@ -926,118 +1038,118 @@ class Network constructor(
   private var _capsEnabled: MutableSet<String> = mutableSetOf()
     set(value) {
       field = value
-      live_capsEnabled.onNext(Unit)
+      live_capsEnabled.notifyChanged()
     }
   private val live_capsEnabled = BehaviorSubject.createDefault(Unit)
   private var _serverList: List<Server> = listOf()
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _useRandomServer: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _perform: List<String> = listOf()
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _useAutoIdentify: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _autoIdentifyService: String = ""
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _autoIdentifyPassword: String = ""
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _useSasl: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _saslAccount: String = ""
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _saslPassword: String = ""
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _useAutoReconnect: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _autoReconnectInterval: UInt = 60u
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _autoReconnectRetries: UShort = 10u
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _unlimitedReconnectRetries = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _rejoinChannels = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   // Custom rate limiting
   /** If true, use custom rate limits, otherwise use defaults */
   private var _useCustomMessageRate: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   /** Maximum number of messages to send without any delays */
   private var _messageRateBurstSize: UInt = 5u
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   /** Delay in ms. for messages when max. burst messages sent */
   private var _messageRateDelay: UInt = 2200u
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   /** If true, disable rate limiting, otherwise apply limits */
   private var _unlimitedMessageRate: Boolean = false
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _codecForServer: String = "UTF_8"
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _codecForEncoding: String = "UTF_8"
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   private var _codecForDecoding: String = "UTF_8"
     set(value) {
       field = value
-      live_networkInfo.onNext(Unit)
+      live_networkInfo.notifyChanged()
     }
   /** when this is active handle305 and handle306 don't trigger any output */
   private var _autoAwayActive: Boolean = false
@@ -54,6 +54,11 @@ abstract class SyncableObject(
     }
   }
 
+  /**
+   * Notifies subscribers of [this], or defers it until the currently open [ChangeBatch] closes
+   */
+  protected fun BehaviorSubject<Unit>.notifyChanged() = ChangeBatch.notify(this)
+
   override fun deinit() {
     this.proxy = SignalProxy.NULL
   }
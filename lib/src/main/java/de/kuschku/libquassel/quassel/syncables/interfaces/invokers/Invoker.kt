@@ -25,6 +25,13 @@ import de.kuschku.libquassel.quassel.exceptions.WrongObjectTypeException
 
 interface Invoker<out T> {
   val className: String
+  val slots: List<String>
   @Throws(WrongObjectTypeException::class, UnknownMethodException::class)
   fun invoke(on: Any?, method: String, params: QVariantList)
+
+  /**
+   * Invokes the slot with the given id, ids being indices into [slots]
+   */
+  @Throws(WrongObjectTypeException::class, UnknownMethodException::class)
+  fun invoke(on: Any?, slotId: Int, params: QVariantList)
 }
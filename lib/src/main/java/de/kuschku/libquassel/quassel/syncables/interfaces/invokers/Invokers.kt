@@ -19,11 +19,11 @@
 
 package de.kuschku.libquassel.quassel.syncables.interfaces.invokers
 
-import de.kuschku.libquassel.annotations.Syncable
 import de.kuschku.libquassel.quassel.syncables.interfaces.*
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.DEBUG
 import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
+import de.kuschku.libquassel.util.nio.ByteStringTable
 
 object Invokers {
   private val registry = mutableMapOf<String, Invoker<*>>()
@@ -31,6 +31,11 @@ object Invokers {
 
   val RPC: Invoker<IRpcHandler>?
 
+  val classNames: ByteStringTable
+  val rpcSlots: SlotTable
+  private val slotTables = mutableMapOf<String, SlotTable>()
+  fun slotTable(className: String) = slotTables[className]
+
   val size
     get() = registry.size
 
@@ -56,29 +61,20 @@ object Invokers {
 
     RPC = invoker()
 
+    classNames = ByteStringTable(registry.keys)
+    rpcSlots = SlotTable(RPC?.slots.orEmpty())
+
     log(DEBUG, "Invokers", "$size invokers registered")
   }
 
   private inline fun <reified T> invoker(): Invoker<T>? = getInvoker(T::class.java)
 
   private fun <T> getInvoker(type: Class<T>): Invoker<T>? {
-    val syncable: Syncable? = type.getAnnotation(Syncable::class.java)
-    if (syncable == null) {
+    val invoker = InvokerRegistry.invokers[type]
+    if (invoker == null) {
       log(
         WARN, "Invokers",
-        "Invoker not annotated: ${type.canonicalName}"
-      )
-      return null
-    }
-
-    val packageName = "${type.`package`.name}.invokers"
-    val className = "${syncable.name}Invoker"
-    val klass = Class.forName("$packageName.$className")
-    val invoker = klass.getDeclaredField("INSTANCE").get(null)
-    if (invoker !is Invoker<*>) {
-      log(
-        WARN, "Invokers",
-        "Invoker not of proper type: ${type.canonicalName} != ${invoker.javaClass.canonicalName}"
+        "No invoker generated for: ${type.canonicalName}"
       )
       return null
     }
@@ -88,7 +84,9 @@ object Invokers {
   }
 
   private fun <T> register(invoker: Invoker<T>?) {
-    if (invoker != null)
+    if (invoker != null) {
       registry[invoker.className] = invoker
+      slotTables[invoker.className] = SlotTable(invoker.slots)
+    }
   }
 }
@@ -0,0 +1,107 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables.interfaces.invokers
+
+import de.kuschku.libquassel.util.nio.Fnv
+import java.nio.ByteBuffer
+
+/**
+ * Maps the UTF-8 encoded slot names of an [Invoker], as read from a frame, to their slot ids.
+ *
+ * Uses a perfect hash over the name bytes: a seed is searched for at construction time such that
+ * no two slots share an entry, so every lookup inspects exactly one candidate.
+ */
+class SlotTable(val slots: List<String>) {
+  private val keys = Array(slots.size) { slots[it].toByteArray(Charsets.UTF_8) }
+  private val table: IntArray
+  private val seed: Int
+  private val mask: Int
+
+  init {
+    var capacity = 8
+    while (capacity < slots.size * 2)
+      capacity = capacity shl 1
+
+    var result: IntArray? = null
+    var foundSeed = 0
+    while (result == null) {
+      for (candidate in 0 until MAX_SEEDS) {
+        result = place(capacity, candidate)
+        if (result != null) {
+          foundSeed = candidate
+          break
+        }
+      }
+      if (result == null)
+        capacity = capacity shl 1
+    }
+
+    table = result
+    seed = foundSeed
+    mask = capacity - 1
+  }
+
+  private fun place(capacity: Int, seed: Int): IntArray? {
+    val result = IntArray(capacity) { -1 }
+    for ((slotId, key) in keys.withIndex()) {
+      val index = hash(seed, ByteBuffer.wrap(key), 0, key.size) and (capacity - 1)
+      if (result[index] != -1) {
+        // Duplicate names resolve to the first slot
+        if (keys[result[index]].contentEquals(key))
+          continue
+        return null
+      }
+      result[index] = slotId
+    }
+    return result
+  }
+
+  /**
+   * Returns the id of the slot encoded in the [length] bytes starting at the absolute [offset] of
+   * [buffer], or -1 if there is none. Does not modify the buffer’s position.
+   */
+  operator fun get(buffer: ByteBuffer, offset: Int, length: Int): Int {
+    val slotId = table[hash(seed, buffer, offset, length) and mask]
+    if (slotId == -1)
+      return -1
+
+    val key = keys[slotId]
+    if (key.size != length)
+      return -1
+    for (i in 0 until length) {
+      if (key[i] != buffer.get(offset + i))
+        return -1
+    }
+    return slotId
+  }
+
+  fun indexOf(slot: String): Int {
+    val bytes = slot.toByteArray(Charsets.UTF_8)
+    return get(ByteBuffer.wrap(bytes), 0, bytes.size)
+  }
+
+  companion object {
+    private const val MAX_SEEDS = 256
+    private const val SEED_MULTIPLIER = -0x61c88647
+
+    private fun hash(seed: Int, buffer: ByteBuffer, offset: Int, length: Int) =
+      Fnv.hash(buffer, offset, length, Fnv.OFFSET xor (seed * SEED_MULTIPLIER))
+  }
+}
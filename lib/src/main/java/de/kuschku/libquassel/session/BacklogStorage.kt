@@ -21,16 +21,58 @@ package de.kuschku.libquassel.session
 
 import de.kuschku.libquassel.protocol.BufferId
 import de.kuschku.libquassel.protocol.Message
+import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
 
 interface BacklogStorage {
-  fun updateIgnoreRules(session: ISession)
+  /**
+   * Updates the ignored state of stored messages after the ignore list changed, [previous] is
+   * the ignore list before the change or null if unknown
+   */
+  fun updateIgnoreRules(session: ISession,
+                        previous: List<IgnoreListManager.IgnoreListItem>? = null)
 
   fun storeMessages(session: ISession, vararg messages: Message)
   fun storeMessages(session: ISession, messages: Iterable<Message>)
 
+  /**
+   * Stores the response to an unfiltered backlog request for [bufferId], the message id range it
+   * covers is known to be complete afterwards, see [completeRange]
+   */
+  fun storeBacklog(session: ISession, bufferId: BufferId, first: MsgId, last: MsgId, limit: Int,
+                   messages: List<Message>)
+
   fun clearMessages(bufferId: BufferId, idRange: LongRange)
 
   fun clearMessages(bufferId: BufferId)
 
   fun clearMessages()
+
+  /**
+   * Runs [task] once everything passed to this storage before has been written
+   */
+  fun afterStored(task: () -> Unit) = task()
+
+  /**
+   * Whether [bufferId] is currently shown to the user, live messages for it are stored without
+   * delay so they are visible as soon as they were received
+   */
+  fun isBufferOpen(bufferId: BufferId): Boolean = false
+
+  companion object {
+    /**
+     * Range of message ids of which all messages were part of the response to a backlog request.
+     * The core returns the newest [limit] messages with ids in [first], exclusive [last], so the
+     * range only reaches down to [first], or to the start of the history, if fewer were returned.
+     */
+    fun completeRange(first: MsgId, last: MsgId, limit: Int, messageIds: List<MsgId>): LongRange? {
+      val upper =
+        if (last.id >= 0) last.id - 1
+        else messageIds.map { it.id }.max() ?: return null
+      val lower =
+        if (limit < 0 || messageIds.size < limit) maxOf(first.id, 0L)
+        else messageIds.map { it.id }.min() ?: return null
+      return (lower..upper).takeUnless { it.isEmpty() }
+    }
+  }
 }
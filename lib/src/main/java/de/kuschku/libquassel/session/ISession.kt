@@ -55,6 +55,12 @@ interface ISession : Closeable {
   val ircListHelper: IrcListHelper
   val networks: Map<NetworkId, Network>
   fun liveNetworks(): Observable<Map<NetworkId, Network>>
+
+  /**
+   * Names of all networks, safe to read from threads other than the backend thread
+   */
+  val networkNames: Map<NetworkId, String>
+    get() = networks.mapValues { it.value.networkName() }
   fun liveNetworkAdded(): Observable<NetworkId>
   val networkConfig: NetworkConfig
   val rpcHandler: RpcHandler
@@ -24,6 +24,7 @@ import de.kuschku.libquassel.protocol.message.HandshakeMessage
 import de.kuschku.libquassel.protocol.message.SignalProxyMessage
 import de.kuschku.libquassel.quassel.exceptions.MessageHandlingException
 import de.kuschku.libquassel.quassel.exceptions.ObjectNotFoundException
+import de.kuschku.libquassel.quassel.syncables.ChangeBatch
 import de.kuschku.libquassel.quassel.syncables.RpcHandler
 import de.kuschku.libquassel.quassel.syncables.interfaces.ISyncableObject
 import de.kuschku.libquassel.quassel.syncables.interfaces.invokers.Invokers
@@ -85,12 +86,18 @@ abstract class ProtocolHandler(
     val obj: ISyncableObject = objectStorage.get(f.className, f.objectName)
                                ?: throw ObjectNotFoundException(f.className, f.objectName)
 
-    obj.fromVariantMap(f.initData)
-    obj.initialized = true
-    synchronize(obj)
-    val list = toInit.remove(obj)
+    // Applying InitData touches many properties and child objects, subscribers are only
+    // notified once after it has been applied
+    val list = ChangeBatch.batch {
+      obj.fromVariantMap(f.initData)
+      obj.initialized = true
+      synchronize(obj)
+      toInit.remove(obj)
+    }
     checkForInitDone()
-    list?.map(this::handle)
+    ChangeBatch.batch {
+      list?.map(this::handle)
+    }
     return true
   }
 
@@ -99,11 +106,13 @@ abstract class ProtocolHandler(
     if (isInitializing && toInit.isEmpty()) {
       isInitializing = false
       onInitDone()
-      syncQueue.map {
-        try {
-          this.handle(it)
-        } catch (e: Throwable) {
-          exceptionHandler?.invoke(e)
+      ChangeBatch.batch {
+        syncQueue.map {
+          try {
+            this.handle(it)
+          } catch (e: Throwable) {
+            exceptionHandler?.invoke(e)
+          }
         }
       }
     }
@@ -113,6 +122,7 @@ abstract class ProtocolHandler(
 
   override fun handle(f: SignalProxyMessage.SyncMessage): Boolean {
     val obj = objectStorage.get(f.className, f.objectName) ?: if (isInitializing) {
+      f.detach()
       syncQueue.add(f)
       return true
     } else null
@@ -120,6 +130,7 @@ abstract class ProtocolHandler(
     obj?.let {
       val initQueue = toInit[it]
       if (initQueue != null) {
+        f.detach()
         initQueue.add(f)
         return true
       }
@@ -129,7 +140,8 @@ abstract class ProtocolHandler(
       currentCallClass = f.className
       currentCallInstance = f.objectName
       currentCallSlot = f.slotName
-      invoker.invoke(it, f.slotName, f.params)
+      if (f.slotId != -1) invoker.invoke(it, f.slotId, f.params)
+      else invoker.invoke(it, f.slotName, f.params)
       currentCallClass = ""
       currentCallInstance = ""
       currentCallSlot = ""
@@ -139,7 +151,8 @@ abstract class ProtocolHandler(
 
   override fun handle(f: SignalProxyMessage.RpcCall): Boolean {
     currentCallSlot = f.slotName
-    Invokers.RPC?.invoke(rpcHandler, f.slotName, f.params)
+    if (f.slotId != -1) Invokers.RPC?.invoke(rpcHandler, f.slotId, f.params)
+    else Invokers.RPC?.invoke(rpcHandler, f.slotName, f.params)
     currentCallSlot = ""
     return true
   }
@@ -81,8 +81,20 @@ class Session(
     __error.publish().refCount()
   )
 
+  /**
+   * Live messages are written in batches, notifications for them are only shown once the batch
+   * containing them has been stored
+   */
+  private val liveBacklogStorage = backlogStorage?.let {
+    WriteBehindBacklogStorage(it) { session, messages ->
+      handlerService.backend {
+        notificationManager?.processMessages(session, true, *messages.toTypedArray())
+      }
+    }
+  }
+
   override val aliasManager = AliasManager(this)
-  override val backlogManager = BacklogManager(this, backlogStorage)
+  override val backlogManager = BacklogManager(this, liveBacklogStorage)
   override val bufferViewManager = BufferViewManager(this)
   override val bufferSyncer = BufferSyncer(this, notificationManager)
   override var certManagers = emptyMap<IdentityId, CertManager>()
@@ -104,12 +116,27 @@ class Session(
   private val live_networks = BehaviorSubject.createDefault(Unit)
   override fun liveNetworks(): Observable<Map<NetworkId, Network>> = live_networks.map { networks }
 
+  // Copied on the backend thread whenever a network is added, removed or renamed
+  @Volatile
+  override var networkNames = emptyMap<NetworkId, String>()
+    private set
+
+  private val networkNamesSubscription = live_networks.switchMap {
+    Observable.merge(networks.values.map(Network::liveNetworkInfo)).map { Unit }.startWith(Unit)
+  }.subscribe {
+    networkNames = networks.mapValues { it.value.networkName() }
+  }
+
   private val network_added = PublishSubject.create<NetworkId>()
   override fun liveNetworkAdded(): Observable<NetworkId> = network_added
 
   override val networkConfig = NetworkConfig(this)
 
-  override val rpcHandler = RpcHandler(this, backlogStorage, notificationManager)
+  override val rpcHandler = RpcHandler(
+    this,
+    liveBacklogStorage,
+    notificationManager.takeIf { liveBacklogStorage == null }
+  )
 
   override val lag = BehaviorSubject.createDefault(0L)
 
@@ -328,12 +355,14 @@ class Session(
     networkConfig.deinit()
     backlogManager.deinit()
     rpcHandler.deinit()
+    liveBacklogStorage?.close()
 
     certManagers = emptyMap()
     identities = emptyMap()
     live_identities.onNext(Unit)
     networks = emptyMap()
     live_networks.onNext(Unit)
+    networkNamesSubscription.dispose()
   }
 
   fun join() {
@@ -0,0 +1,204 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.session
+
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.Message
+import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
+import java.io.Closeable
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Write-behind queue in front of a [BacklogStorage]. Single messages passed to [storeMessages]
+ * are collected and written as one batch once [maxBatchSize] messages are queued or
+ * [maxDelayMillis] have passed since the first queued message, whichever happens first.
+ * Messages for a buffer the delegate reports as open are written without waiting for the delay.
+ *
+ * Live batches are written on their own thread, so they are not held up by bulk operations.
+ * Every other operation is executed on the bulk writer thread, after all queued messages have
+ * been written, so clearing or bulk-storing a buffer always observes the live messages received
+ * before it. The calling thread never waits for the disk. [onStored] is called on one of the
+ * writer threads with each batch after it has been written.
+ */
+class WriteBehindBacklogStorage(
+  private val delegate: BacklogStorage,
+  private val maxBatchSize: Int = 256,
+  private val maxDelayMillis: Long = 100,
+  private val onStored: ((ISession, List<Message>) -> Unit)? = null
+) : BacklogStorage, Closeable {
+  private val executor = Executors.newSingleThreadExecutor {
+    Thread(it, "BacklogWriter").apply { isDaemon = true }
+  }
+  private val liveExecutor = Executors.newSingleThreadScheduledExecutor {
+    Thread(it, "BacklogLiveWriter").apply { isDaemon = true }
+  }
+
+  // Held while a batch is written, so later operations wait for batches taken before them
+  private val flushLock = Any()
+  private val pending = mutableListOf<Message>()
+  private var pendingSession: ISession = ISession.NULL
+  private var scheduled: ScheduledFuture<*>? = null
+  private var closed = false
+
+  private val batchesFlushed = AtomicLong()
+  private val messagesFlushed = AtomicLong()
+  private val lastFlushLatency = AtomicLong()
+  private val maxFlushLatency = AtomicLong()
+
+  override fun storeMessages(session: ISession, vararg messages: Message) {
+    if (messages.isEmpty()) return
+
+    val open = messages.any { delegate.isBufferOpen(it.bufferInfo.bufferId) }
+    val queued = synchronized(pending) {
+      if (!closed) {
+        pendingSession = session
+        pending.addAll(messages)
+        if (open || pending.size >= maxBatchSize) {
+          liveExecutor.execute(::flushQueued)
+        } else if (scheduled == null) {
+          scheduled = liveExecutor.schedule(::flushQueued, maxDelayMillis, TimeUnit.MILLISECONDS)
+        }
+      }
+      !closed
+    }
+
+    if (!queued) synchronized(flushLock) {
+      delegate.storeMessages(session, *messages)
+    }
+  }
+
+  override fun storeMessages(session: ISession, messages: Iterable<Message>) {
+    val list = messages as? List<Message> ?: messages.toList()
+    submit { delegate.storeMessages(session, list) }
+  }
+
+  override fun storeBacklog(session: ISession, bufferId: BufferId, first: MsgId, last: MsgId,
+                            limit: Int, messages: List<Message>) =
+    submit { delegate.storeBacklog(session, bufferId, first, last, limit, messages) }
+
+  override fun updateIgnoreRules(session: ISession,
+                                 previous: List<IgnoreListManager.IgnoreListItem>?) =
+    submit { delegate.updateIgnoreRules(session, previous) }
+
+  override fun clearMessages(bufferId: BufferId, idRange: LongRange) =
+    submit { delegate.clearMessages(bufferId, idRange) }
+
+  override fun clearMessages(bufferId: BufferId) =
+    submit { delegate.clearMessages(bufferId) }
+
+  override fun clearMessages() =
+    submit { delegate.clearMessages() }
+
+  override fun afterStored(task: () -> Unit) = submit(task)
+
+  override fun isBufferOpen(bufferId: BufferId) = delegate.isBufferOpen(bufferId)
+
+  /**
+   * Runs [task] on the writer thread after all previously queued messages have been written
+   */
+  private fun submit(task: () -> Unit) {
+    val queued = synchronized(pending) {
+      if (!closed) executor.execute {
+        try {
+          flush()
+          task()
+        } catch (e: Throwable) {
+          log(WARN, "BacklogWriter", "Error encountered while writing backlog", e)
+        }
+      }
+      !closed
+    }
+
+    if (!queued) {
+      flush()
+      task()
+    }
+  }
+
+  /**
+   * Writes all queued messages on the calling thread, returns once they are stored
+   */
+  fun flush() {
+    synchronized(flushLock) {
+      val (session, batch) = synchronized(pending) {
+        scheduled?.cancel(false)
+        scheduled = null
+        if (pending.isEmpty()) return
+        val batch = pending.toList()
+        pending.clear()
+        Pair(pendingSession, batch)
+      }
+
+      val start = System.nanoTime()
+      delegate.storeMessages(session, batch)
+      val latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+      batchesFlushed.incrementAndGet()
+      messagesFlushed.addAndGet(batch.size.toLong())
+      lastFlushLatency.set(latency)
+      do {
+        val max = maxFlushLatency.get()
+      } while (latency > max && !maxFlushLatency.compareAndSet(max, latency))
+
+      onStored?.invoke(session, batch)
+    }
+  }
+
+  private fun flushQueued() {
+    try {
+      flush()
+    } catch (e: Throwable) {
+      log(WARN, "BacklogWriter", "Error encountered while storing messages", e)
+    }
+  }
+
+  override fun close() {
+    synchronized(pending) {
+      closed = true
+    }
+    executor.shutdown()
+    liveExecutor.shutdown()
+    executor.awaitTermination(maxDelayMillis * 10, TimeUnit.MILLISECONDS)
+    liveExecutor.awaitTermination(maxDelayMillis * 10, TimeUnit.MILLISECONDS)
+    flush()
+  }
+
+  fun stats() = Stats(
+    queueDepth = synchronized(pending) { pending.size },
+    batchesFlushed = batchesFlushed.get(),
+    messagesFlushed = messagesFlushed.get(),
+    lastFlushLatencyMillis = lastFlushLatency.get(),
+    maxFlushLatencyMillis = maxFlushLatency.get()
+  )
+
+  data class Stats(
+    val queueDepth: Int,
+    val batchesFlushed: Long,
+    val messagesFlushed: Long,
+    val lastFlushLatencyMillis: Long,
+    val maxFlushLatencyMillis: Long
+  )
+}
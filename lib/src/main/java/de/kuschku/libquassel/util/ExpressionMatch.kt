@@ -175,6 +175,22 @@ class ExpressionMatch : Serializable {
       }
     }
 
+  /**
+   * Gets the regular expression of a valid, noninverted wildcard rule. Such rules have no
+   * capturing groups or inverted components and can be combined with other rules into a single
+   * alternation.
+   *
+   * @return Regular expression string, or null if this rule can not be combined
+   */
+  fun combinableRegEx(): String? {
+    val _matchRegEx = _matchRegEx
+    return if (_sourceMode == MatchMode.MatchWildcard && !_sourceExpressionEmpty &&
+               _matchRegExActive && !_matchInvertRegExActive && _matchRegEx != null)
+      _matchRegEx.pattern
+    else
+      null
+  }
+
   override fun equals(other: Any?): Boolean {
     return other is ExpressionMatch &&
            _sourceExpression == other._sourceExpression &&
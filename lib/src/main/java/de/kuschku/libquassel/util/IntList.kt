@@ -0,0 +1,120 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+import java.util.*
+
+/**
+ * Growable list of ints, stored unboxed. Not thread safe.
+ */
+class IntList(capacity: Int = 10) {
+  @PublishedApi
+  internal var values = IntArray(capacity)
+
+  var size = 0
+    private set
+
+  fun isEmpty() = size == 0
+
+  operator fun get(index: Int): Int {
+    checkIndex(index, size)
+    return values[index]
+  }
+
+  fun add(value: Int) = add(size, value)
+
+  fun add(index: Int, value: Int) {
+    checkIndex(index, size + 1)
+    if (size == values.size) values = values.copyOf(maxOf(values.size * 2, 10))
+    System.arraycopy(values, index, values, index + 1, size - index)
+    values[index] = value
+    size++
+  }
+
+  fun removeAt(index: Int): Int {
+    checkIndex(index, size)
+    val value = values[index]
+    System.arraycopy(values, index + 1, values, index, size - index - 1)
+    size--
+    return value
+  }
+
+  /**
+   * Removes the first occurrence of [value]
+   */
+  fun remove(value: Int): Boolean {
+    val index = indexOf(value)
+    if (index < 0) return false
+    removeAt(index)
+    return true
+  }
+
+  fun indexOf(value: Int): Int {
+    for (i in 0 until size) {
+      if (values[i] == value) return i
+    }
+    return -1
+  }
+
+  operator fun contains(value: Int) = indexOf(value) >= 0
+
+  /**
+   * Index of [value] in a list sorted ascending, otherwise -(insertion point + 1)
+   */
+  fun binarySearch(value: Int) = Arrays.binarySearch(values, 0, size, value)
+
+  fun clear() {
+    size = 0
+  }
+
+  inline fun forEach(action: (Int) -> Unit) {
+    for (i in 0 until size) {
+      action(values[i])
+    }
+  }
+
+  inline fun <T> map(transform: (Int) -> T): List<T> {
+    val result = ArrayList<T>(size)
+    for (i in 0 until size) {
+      result.add(transform(get(i)))
+    }
+    return result
+  }
+
+  fun toIntArray(): IntArray = values.copyOf(size)
+
+  override fun equals(other: Any?) =
+    other is IntList && Arrays.equals(toIntArray(), other.toIntArray())
+
+  override fun hashCode() = Arrays.hashCode(toIntArray())
+
+  override fun toString() = toIntArray().contentToString()
+
+  companion object {
+    fun of(values: Collection<Int>) = IntList(values.size).apply {
+      for (value in values) add(value)
+    }
+
+    private fun checkIndex(index: Int, size: Int) {
+      if (index < 0 || index >= size)
+        throw IndexOutOfBoundsException("Index: $index, Size: $size")
+    }
+  }
+}
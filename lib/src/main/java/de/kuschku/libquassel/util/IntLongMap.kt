@@ -0,0 +1,110 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+/**
+ * Hash map from int to long with open addressing, keys and values are stored unboxed. Not thread
+ * safe.
+ */
+class IntLongMap(capacity: Int = 16) {
+  @PublishedApi
+  internal var keys = IntArray(PrimitiveHashing.tableSize(capacity))
+  @PublishedApi
+  internal var values = LongArray(keys.size)
+  @PublishedApi
+  internal var used = BooleanArray(keys.size)
+
+  var size = 0
+    private set
+
+  fun isEmpty() = size == 0
+
+  fun containsKey(key: Int) = indexOf(key) >= 0
+
+  fun get(key: Int, defaultValue: Long): Long {
+    val index = indexOf(key)
+    return if (index >= 0) values[index] else defaultValue
+  }
+
+  fun put(key: Int, value: Long) {
+    var index = indexOf(key)
+    if (index < 0) {
+      if (PrimitiveHashing.isFull(size, keys.size)) {
+        resize(keys.size * 2)
+        index = indexOf(key)
+      }
+      index = -(index + 1)
+      keys[index] = key
+      used[index] = true
+      size++
+    }
+    values[index] = value
+  }
+
+  fun remove(key: Int): Boolean {
+    val index = indexOf(key)
+    if (index < 0) return false
+
+    val hole = PrimitiveHashing.delete(index, keys.size - 1, { used[it] },
+                                       { PrimitiveHashing.hash(keys[it]) }) { from, to ->
+      keys[to] = keys[from]
+      values[to] = values[from]
+    }
+    used[hole] = false
+    size--
+    return true
+  }
+
+  fun clear() {
+    used.fill(false)
+    size = 0
+  }
+
+  inline fun forEach(action: (Int, Long) -> Unit) {
+    for (i in keys.indices) {
+      if (used[i]) action(keys[i], values[i])
+    }
+  }
+
+  /**
+   * Slot of [key] if present, otherwise -(free slot + 1)
+   */
+  private fun indexOf(key: Int) =
+    PrimitiveHashing.probe(PrimitiveHashing.hash(key), keys.size - 1, { used[it] }) {
+      keys[it] == key
+    }
+
+  private fun resize(capacity: Int) {
+    val oldKeys = keys
+    val oldValues = values
+    val oldUsed = used
+    keys = IntArray(capacity)
+    values = LongArray(capacity)
+    used = BooleanArray(capacity)
+    val mask = capacity - 1
+    for (i in oldKeys.indices) {
+      if (!oldUsed[i]) continue
+      val index = PrimitiveHashing.freeSlot(PrimitiveHashing.hash(oldKeys[i]), mask) { used[it] }
+      keys[index] = oldKeys[i]
+      values[index] = oldValues[i]
+      used[index] = true
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+/**
+ * Immutable set of longs stored as sorted, disjoint ranges. Overlapping or adjacent ranges are
+ * merged when added, so every gap between two ranges is at least one value wide.
+ */
+class LongRangeSet private constructor(
+  val ranges: List<LongRange>
+) {
+  fun isEmpty() = ranges.isEmpty()
+
+  operator fun contains(value: Long) = rangeContaining(value) != null
+
+  fun rangeContaining(value: Long): LongRange? =
+    ranges.getOrNull(floorIndex(value))?.takeIf { value <= it.last }
+
+  /**
+   * The highest range entirely below [value]
+   */
+  fun rangeBelow(value: Long): LongRange? {
+    val index = floorIndex(value - 1)
+    val range = ranges.getOrNull(index) ?: return null
+    return if (range.last < value) range else ranges.getOrNull(index - 1)
+  }
+
+  operator fun plus(range: LongRange): LongRangeSet {
+    if (range.isEmpty()) return this
+
+    var first = range.first
+    var last = range.last
+    val before = mutableListOf<LongRange>()
+    val after = mutableListOf<LongRange>()
+    for (it in ranges) {
+      when {
+        it.last + 1 < first -> before.add(it)
+        it.first - 1 > last -> after.add(it)
+        else                -> {
+          first = minOf(first, it.first)
+          last = maxOf(last, it.last)
+        }
+      }
+    }
+    return LongRangeSet(before + listOf(first..last) + after)
+  }
+
+  operator fun minus(range: LongRange): LongRangeSet {
+    if (range.isEmpty()) return this
+
+    val result = mutableListOf<LongRange>()
+    for (it in ranges) {
+      if (it.last < range.first || it.first > range.last) {
+        result.add(it)
+      } else {
+        if (it.first < range.first) result.add(it.first until range.first)
+        if (it.last > range.last) result.add(range.last + 1..it.last)
+      }
+    }
+    return LongRangeSet(result)
+  }
+
+  /**
+   * Index of the last range starting at or below [value], -1 if there is none
+   */
+  private fun floorIndex(value: Long): Int {
+    var low = 0
+    var high = ranges.size - 1
+    var result = -1
+    while (low <= high) {
+      val mid = (low + high) ushr 1
+      if (ranges[mid].first <= value) {
+        result = mid
+        low = mid + 1
+      } else {
+        high = mid - 1
+      }
+    }
+    return result
+  }
+
+  override fun equals(other: Any?) = other is LongRangeSet && other.ranges == ranges
+
+  override fun hashCode() = ranges.hashCode()
+
+  override fun toString() = "LongRangeSet$ranges"
+
+  companion object {
+    val EMPTY = LongRangeSet(emptyList())
+
+    fun of(ranges: Iterable<LongRange>) = ranges.fold(EMPTY, LongRangeSet::plus)
+
+    fun of(vararg ranges: LongRange) = of(ranges.asIterable())
+  }
+}
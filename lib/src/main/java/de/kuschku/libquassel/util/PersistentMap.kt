@@ -0,0 +1,212 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+/**
+ * Immutable hash map, implemented as hash array mapped trie. Adding or removing an entry copies
+ * only the path to it and shares everything else with the original map, so every version can be
+ * kept and handed out as snapshot without copying.
+ */
+class PersistentMap<K, V> private constructor(
+  private val root: Node<K, V>?,
+  override val size: Int
+) : AbstractMap<K, V>() {
+  override fun get(key: K): V? = root?.find(key, hash(key), 0)?.value
+
+  override fun containsKey(key: K) = root?.find(key, hash(key), 0) != null
+
+  override val entries: Set<Map.Entry<K, V>> = object : AbstractSet<Map.Entry<K, V>>() {
+    override val size: Int
+      get() = this@PersistentMap.size
+
+    override fun iterator(): Iterator<Map.Entry<K, V>> =
+      root?.leaves()?.iterator() ?: emptyList<Map.Entry<K, V>>().iterator()
+  }
+
+  fun put(key: K, value: V): PersistentMap<K, V> {
+    val hash = hash(key)
+    val existing = root?.find(key, hash, 0)
+    if (existing != null && existing.value == value) return this
+
+    val leaf = Leaf(hash, key, value)
+    val newRoot = root?.put(leaf, 0) ?: leaf
+    return PersistentMap(newRoot, if (existing == null) size + 1 else size)
+  }
+
+  fun remove(key: K): PersistentMap<K, V> {
+    val root = root ?: return this
+    val hash = hash(key)
+    if (root.find(key, hash, 0) == null) return this
+    return PersistentMap(root.remove(key, hash, 0), size - 1)
+  }
+
+  private sealed class Node<K, V> {
+    abstract fun find(key: K, hash: Int, shift: Int): Leaf<K, V>?
+    abstract fun put(leaf: Leaf<K, V>, shift: Int): Node<K, V>
+    abstract fun remove(key: K, hash: Int, shift: Int): Node<K, V>?
+    abstract fun leaves(): Sequence<Leaf<K, V>>
+  }
+
+  private class Leaf<K, V>(
+    val hash: Int,
+    override val key: K,
+    override val value: V
+  ) : Node<K, V>(), Map.Entry<K, V> {
+    override fun find(key: K, hash: Int, shift: Int) =
+      if (hash == this.hash && key == this.key) this else null
+
+    override fun put(leaf: Leaf<K, V>, shift: Int) = when {
+      leaf.hash != hash -> merge(this, hash, leaf, leaf.hash, shift)
+      leaf.key == key   -> leaf
+      else              -> Collision(hash, listOf(this, leaf))
+    }
+
+    override fun remove(key: K, hash: Int, shift: Int) =
+      if (hash == this.hash && key == this.key) null else this
+
+    override fun leaves() = sequenceOf(this)
+
+    override fun equals(other: Any?) =
+      other is Map.Entry<*, *> && other.key == key && other.value == value
+
+    override fun hashCode() = key.hashCode() xor value.hashCode()
+
+    override fun toString() = "$key=$value"
+  }
+
+  /**
+   * Entries with equal hashes
+   */
+  private class Collision<K, V>(
+    val hash: Int,
+    val entries: List<Leaf<K, V>>
+  ) : Node<K, V>() {
+    override fun find(key: K, hash: Int, shift: Int) =
+      if (hash == this.hash) entries.find { it.key == key } else null
+
+    override fun put(leaf: Leaf<K, V>, shift: Int) =
+      if (leaf.hash != hash) merge(this, hash, leaf, leaf.hash, shift)
+      else Collision(hash, entries.filter { it.key != leaf.key } + leaf)
+
+    override fun remove(key: K, hash: Int, shift: Int): Node<K, V>? {
+      if (hash != this.hash) return this
+      val remaining = entries.filter { it.key != key }
+      return if (remaining.size == 1) remaining.first() else Collision(hash, remaining)
+    }
+
+    override fun leaves() = entries.asSequence()
+  }
+
+  /**
+   * Inner node, holds one child for every set bit of [bitmap]
+   */
+  private class Branch<K, V>(
+    val bitmap: Int,
+    val children: Array<Node<K, V>>
+  ) : Node<K, V>() {
+    override fun find(key: K, hash: Int, shift: Int): Leaf<K, V>? {
+      val bit = bit(hash, shift)
+      if (bitmap and bit == 0) return null
+      return children[position(bit)].find(key, hash, shift + BITS)
+    }
+
+    override fun put(leaf: Leaf<K, V>, shift: Int): Node<K, V> {
+      val bit = bit(leaf.hash, shift)
+      val position = position(bit)
+      if (bitmap and bit == 0) {
+        val result = arrayOfNulls<Node<K, V>>(children.size + 1)
+        System.arraycopy(children, 0, result, 0, position)
+        result[position] = leaf
+        System.arraycopy(children, position, result, position + 1, children.size - position)
+        @Suppress("UNCHECKED_CAST")
+        return Branch(bitmap or bit, result as Array<Node<K, V>>)
+      }
+      return replace(position, children[position].put(leaf, shift + BITS))
+    }
+
+    override fun remove(key: K, hash: Int, shift: Int): Node<K, V>? {
+      val bit = bit(hash, shift)
+      if (bitmap and bit == 0) return this
+      val position = position(bit)
+      val child = children[position].remove(key, hash, shift + BITS)
+      return when {
+        child === children[position]       -> this
+        child != null && children.size == 1 ->
+          // A single entry can move up, it is found by its hash on any level
+          if (child is Branch) replace(position, child) else child
+        child != null                       -> replace(position, child)
+        children.size == 1                  -> null
+        children.size == 2 && children[1 - position] !is Branch ->
+          children[1 - position]
+        else                                -> {
+          val result = arrayOfNulls<Node<K, V>>(children.size - 1)
+          System.arraycopy(children, 0, result, 0, position)
+          System.arraycopy(children, position + 1, result, position, children.size - position - 1)
+          @Suppress("UNCHECKED_CAST")
+          Branch(bitmap and bit.inv(), result as Array<Node<K, V>>)
+        }
+      }
+    }
+
+    override fun leaves() = children.asSequence().flatMap { it.leaves() }
+
+    private fun position(bit: Int) = Integer.bitCount(bitmap and (bit - 1))
+
+    private fun replace(position: Int, child: Node<K, V>): Branch<K, V> {
+      val result = children.copyOf()
+      result[position] = child
+      return Branch(bitmap, result)
+    }
+  }
+
+  companion object {
+    private const val BITS = 5
+
+    private val EMPTY = PersistentMap<Any?, Any?>(null, 0)
+
+    @Suppress("UNCHECKED_CAST")
+    fun <K, V> empty() = EMPTY as PersistentMap<K, V>
+
+    fun <K, V> of(vararg pairs: Pair<K, V>) =
+      pairs.fold(empty<K, V>()) { map, (key, value) -> map.put(key, value) }
+
+    private fun hash(key: Any?): Int {
+      val hash = key?.hashCode() ?: 0
+      return hash xor (hash ushr 16)
+    }
+
+    private fun bit(hash: Int, shift: Int) = 1 shl ((hash ushr shift) and 0x1F)
+
+    /**
+     * Joins two nodes with different hashes below a new branch
+     */
+    private fun <K, V> merge(a: Node<K, V>, hashA: Int,
+                             b: Node<K, V>, hashB: Int, shift: Int): Node<K, V> {
+      val bitA = bit(hashA, shift)
+      val bitB = bit(hashB, shift)
+      return when {
+        bitA == bitB                           ->
+          Branch(bitA, arrayOf(merge(a, hashA, b, hashB, shift + BITS)))
+        Integer.compareUnsigned(bitA, bitB) < 0 -> Branch(bitA or bitB, arrayOf(a, b))
+        else                                   -> Branch(bitA or bitB, arrayOf(b, a))
+      }
+    }
+  }
+}
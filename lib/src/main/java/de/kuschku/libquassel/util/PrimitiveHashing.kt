@@ -0,0 +1,87 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+/**
+ * Shared helpers of the open addressing hash maps. Tables have a power of two size and use linear
+ * probing, slots are addressed through [mask], the table size minus one.
+ */
+internal object PrimitiveHashing {
+  /**
+   * Spreads sequential ids, as used for buffers, over the whole table
+   */
+  fun hash(key: Int) = spread(key * -0x61c88647)
+
+  /**
+   * Folds the upper half of [hash] into the lower bits, which are the ones selecting the slot
+   */
+  fun spread(hash: Int) = hash xor (hash ushr 16)
+
+  fun tableSize(capacity: Int): Int {
+    var size = 16
+    while (size * 3 < capacity * 4) size *= 2
+    return size
+  }
+
+  /**
+   * Whether one more entry would fill a table of [tableSize] slots beyond three quarters
+   */
+  fun isFull(size: Int, tableSize: Int) = (size + 1) * 4 > tableSize * 3
+
+  /**
+   * Slot in the probe sequence of [hash] that [matches], otherwise -(free slot + 1)
+   */
+  inline fun probe(hash: Int, mask: Int, used: (Int) -> Boolean, matches: (Int) -> Boolean): Int {
+    var index = hash and mask
+    while (used(index)) {
+      if (matches(index)) return index
+      index = (index + 1) and mask
+    }
+    return -(index + 1)
+  }
+
+  /**
+   * First free slot in the probe sequence of [hash]
+   */
+  inline fun freeSlot(hash: Int, mask: Int, used: (Int) -> Boolean): Int {
+    var index = hash and mask
+    while (used(index)) index = (index + 1) and mask
+    return index
+  }
+
+  /**
+   * Removes the entry in [slot] by moving following entries of the same probe sequence back, so
+   * no lookup stops early. Returns the slot left empty, which the caller has to clear.
+   */
+  inline fun delete(slot: Int, mask: Int, used: (Int) -> Boolean, hashAt: (Int) -> Int,
+                    move: (from: Int, to: Int) -> Unit): Int {
+    var hole = slot
+    var next = (hole + 1) and mask
+    while (used(next)) {
+      val ideal = hashAt(next) and mask
+      if (((next - ideal) and mask) >= ((next - hole) and mask)) {
+        move(next, hole)
+        hole = next
+      }
+      next = (next + 1) and mask
+    }
+    return hole
+  }
+}
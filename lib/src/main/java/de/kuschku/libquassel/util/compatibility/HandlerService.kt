@@ -29,6 +29,7 @@ interface HandlerService {
   fun serialize(f: () -> Unit)
   fun deserialize(f: () -> Unit)
   fun write(f: () -> Unit)
+  fun writeDelayed(delayMillis: Long, f: () -> Unit)
   fun backend(f: () -> Unit)
   fun backendDelayed(delayMillis: Long, f: () -> Unit)
 
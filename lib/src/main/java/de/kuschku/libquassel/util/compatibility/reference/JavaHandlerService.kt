@@ -27,6 +27,7 @@ class JavaHandlerService : HandlerService {
   override val scheduler = Schedulers.computation()
 
   override fun backendDelayed(delayMillis: Long, f: () -> Unit) = backend(f)
+  override fun writeDelayed(delayMillis: Long, f: () -> Unit) = write(f)
 
   private val serializeExecutor = Executors.newSingleThreadExecutor()
   private val deserializeExecutor = Executors.newSingleThreadExecutor()
@@ -0,0 +1,166 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.irc
+
+import de.kuschku.libquassel.util.PrimitiveHashing
+
+/**
+ * Hash map with string keys compared ignoring case under an IRC case mapping. Keys are hashed
+ * and compared character by character, so lookups never create case-folded copies of the key.
+ * Keys keep the case they were inserted with.
+ */
+class CaseMappedMap<V>(
+  val caseMapper: IrcCaseMappers.IrcCaseMapper,
+  capacity: Int = 16
+) {
+  private var keys = arrayOfNulls<String>(PrimitiveHashing.tableSize(capacity))
+  private var values = arrayOfNulls<Any>(keys.size)
+  private var hashes = IntArray(keys.size)
+
+  var size = 0
+    private set
+
+  fun isEmpty() = size == 0
+
+  fun containsKey(key: String?) = key != null && indexOf(key, hash(key)) >= 0
+
+  @Suppress("UNCHECKED_CAST")
+  operator fun get(key: String?): V? {
+    if (key == null) return null
+    val index = indexOf(key, hash(key))
+    return if (index >= 0) values[index] as V else null
+  }
+
+  /**
+   * The key as it was inserted, if an equal key is present
+   */
+  fun keyOf(key: String?): String? {
+    if (key == null) return null
+    val index = indexOf(key, hash(key))
+    return if (index >= 0) keys[index] else null
+  }
+
+  operator fun set(key: String, value: V) {
+    put(key, value)
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun put(key: String, value: V): V? {
+    val hash = hash(key)
+    var index = indexOf(key, hash)
+    if (index >= 0) {
+      val previous = values[index] as V
+      values[index] = value
+      return previous
+    }
+
+    if (PrimitiveHashing.isFull(size, keys.size)) {
+      resize(keys.size * 2)
+      index = indexOf(key, hash)
+    }
+    index = -(index + 1)
+    keys[index] = key
+    values[index] = value
+    hashes[index] = hash
+    size++
+    return null
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun remove(key: String?): V? {
+    if (key == null) return null
+    val index = indexOf(key, hash(key))
+    if (index < 0) return null
+    val previous = values[index] as V
+
+    val hole = PrimitiveHashing.delete(index, keys.size - 1, { keys[it] != null },
+                                       { hashes[it] }) { from, to ->
+      keys[to] = keys[from]
+      values[to] = values[from]
+      hashes[to] = hashes[from]
+    }
+    keys[hole] = null
+    values[hole] = null
+    size--
+    return previous
+  }
+
+  fun clear() {
+    keys.fill(null)
+    values.fill(null)
+    size = 0
+  }
+
+  fun keys(): Set<String> = keys.filterNotNullTo(HashSet(size))
+
+  @Suppress("UNCHECKED_CAST")
+  fun values(): List<V> {
+    val result = ArrayList<V>(size)
+    for (i in keys.indices) {
+      if (keys[i] != null) result.add(values[i] as V)
+    }
+    return result
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun forEach(action: (String, V) -> Unit) {
+    for (i in keys.indices) {
+      val key = keys[i]
+      if (key != null) action(key, values[i] as V)
+    }
+  }
+
+  /**
+   * Copy of this map using another case mapping, keys equal under it are merged
+   */
+  fun withCaseMapper(caseMapper: IrcCaseMappers.IrcCaseMapper): CaseMappedMap<V> {
+    if (caseMapper === this.caseMapper) return this
+    val result = CaseMappedMap<V>(caseMapper, size)
+    forEach { key, value -> result.put(key, value) }
+    return result
+  }
+
+  private fun hash(key: String) = PrimitiveHashing.spread(caseMapper.hashCodeIgnoreCase(key))
+
+  /**
+   * Slot of [key] if present, otherwise -(free slot + 1)
+   */
+  private fun indexOf(key: String, hash: Int) =
+    PrimitiveHashing.probe(hash, keys.size - 1, { keys[it] != null }) {
+      hashes[it] == hash && caseMapper.equalsIgnoreCase(keys[it]!!, key)
+    }
+
+  private fun resize(capacity: Int) {
+    val oldKeys = keys
+    val oldValues = values
+    val oldHashes = hashes
+    keys = arrayOfNulls(capacity)
+    values = arrayOfNulls(capacity)
+    hashes = IntArray(capacity)
+    val mask = capacity - 1
+    for (i in oldKeys.indices) {
+      val key = oldKeys[i] ?: continue
+      val index = PrimitiveHashing.freeSlot(oldHashes[i], mask) { keys[it] != null }
+      keys[index] = key
+      values[index] = oldValues[i]
+      hashes[index] = oldHashes[i]
+    }
+  }
+}
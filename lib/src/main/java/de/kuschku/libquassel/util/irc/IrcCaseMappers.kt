@@ -25,8 +25,23 @@ object IrcCaseMappers {
   var irc: IrcCaseMapper = ClassicalIrcCaseMapper()
   var unicode: IrcCaseMapper = UnicodeCaseMapper()
 
-  interface IrcCaseMapper {
-    fun equalsIgnoreCase(a: String, b: String): Boolean
+  interface IrcCaseMapper : Comparator<String> {
+    /**
+     * Folds a single character, two strings are equal ignoring case if all of their characters
+     * fold to the same
+     */
+    fun foldCase(char: Char): Char
+
+    fun equalsIgnoreCase(a: String, b: String): Boolean {
+      if (a.length != b.length) return false
+      for (i in a.indices) {
+        val charA = a[i]
+        val charB = b[i]
+        if (charA != charB && foldCase(charA) != foldCase(charB)) return false
+      }
+      return true
+    }
+
     fun equalsIgnoreCaseNullable(a: String?, b: String?) = when {
       a === null && b === null -> true
       a === null               -> false
@@ -39,9 +54,38 @@ object IrcCaseMappers {
 
     fun toUpperCase(value: String): String
     fun toUpperCaseNullable(value: String?): String? = value?.let(this@IrcCaseMapper::toUpperCase)
+
+    /**
+     * Hash code consistent with [equalsIgnoreCase]
+     */
+    fun hashCodeIgnoreCase(value: String): Int {
+      var hash = 0
+      for (char in value) {
+        hash = 31 * hash + foldCase(char).toInt()
+      }
+      return hash
+    }
+
+    /**
+     * Compares character by character after folding, consistent with [equalsIgnoreCase]
+     */
+    override fun compare(a: String, b: String): Int {
+      val length = minOf(a.length, b.length)
+      for (i in 0 until length) {
+        val charA = a[i]
+        val charB = b[i]
+        if (charA != charB) {
+          val foldedA = foldCase(charA)
+          val foldedB = foldCase(charB)
+          if (foldedA != foldedB) return foldedA.compareTo(foldedB)
+        }
+      }
+      return a.length - b.length
+    }
   }
 
   internal class UnicodeCaseMapper : IrcCaseMapper {
+    override fun foldCase(char: Char) = Character.toLowerCase(Character.toUpperCase(char))
 
     override fun equalsIgnoreCase(a: String, b: String): Boolean {
       return a.equals(b, ignoreCase = true)
@@ -58,6 +102,13 @@ object IrcCaseMappers {
 
   internal class ClassicalIrcCaseMapper :
     IrcCaseMapper {
+    override fun foldCase(char: Char) = when (char) {
+      '['  -> '{'
+      ']'  -> '}'
+      '^'  -> '~'
+      else -> Character.toLowerCase(Character.toUpperCase(char))
+    }
+
     override fun toLowerCase(value: String): String {
       return value.toLowerCase(Locale.US)
         .replace('[', '{')
@@ -71,10 +122,6 @@ object IrcCaseMappers {
         .replace('}', ']')
         .replace('~', '^')
     }
-
-    override fun equalsIgnoreCase(a: String, b: String): Boolean {
-      return toLowerCase(a) == toLowerCase(b) || toUpperCase(a) == toUpperCase(b)
-    }
   }
 
   operator fun get(caseMapping: String?) = if (caseMapping.equals("rfc1459", ignoreCase = true)) {
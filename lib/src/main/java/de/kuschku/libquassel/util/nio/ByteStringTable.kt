@@ -0,0 +1,82 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+
+/**
+ * Immutable lookup table from encoded bytes to a fixed set of strings, allowing names read from a
+ * frame to be resolved to shared instances without decoding them first
+ */
+class ByteStringTable(values: Iterable<String>, charset: Charset = Charsets.UTF_8) {
+  private val keys: Array<ByteArray?>
+  private val strings: Array<String?>
+  private val mask: Int
+
+  val size: Int
+
+  init {
+    val distinct = values.distinct()
+    var capacity = 8
+    while (capacity < distinct.size * 2)
+      capacity = capacity shl 1
+
+    keys = arrayOfNulls(capacity)
+    strings = arrayOfNulls(capacity)
+    mask = capacity - 1
+    size = distinct.size
+
+    for (value in distinct) {
+      val bytes = value.toByteArray(charset)
+      var index = Fnv.hash(bytes) and mask
+      while (keys[index] != null)
+        index = (index + 1) and mask
+      keys[index] = bytes
+      strings[index] = value
+    }
+  }
+
+  /**
+   * Looks up the string encoded in the [length] bytes starting at the absolute [offset] of
+   * [buffer], without modifying the buffer’s position
+   */
+  operator fun get(buffer: ByteBuffer, offset: Int, length: Int): String? {
+    var index = Fnv.hash(buffer, offset, length) and mask
+    while (true) {
+      val key = keys[index] ?: return null
+      if (matches(key, buffer, offset, length))
+        return strings[index]
+      index = (index + 1) and mask
+    }
+  }
+
+  operator fun get(bytes: ByteArray) = get(ByteBuffer.wrap(bytes), 0, bytes.size)
+
+  private fun matches(key: ByteArray, buffer: ByteBuffer, offset: Int, length: Int): Boolean {
+    if (key.size != length)
+      return false
+    for (i in 0 until length) {
+      if (key[i] != buffer.get(offset + i))
+        return false
+    }
+    return true
+  }
+}
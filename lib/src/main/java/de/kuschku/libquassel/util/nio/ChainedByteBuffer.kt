@@ -20,15 +20,32 @@
 package de.kuschku.libquassel.util.nio
 
 import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
 import java.nio.channels.WritableByteChannel
 import java.util.*
 
-class ChainedByteBuffer(private val bufferSize: Int = 1024, private val direct: Boolean = false) {
+/**
+ * Growable output buffer made up of fixed-size segments.
+ *
+ * Segments are kept across [clear] (up to [retainedSize] bytes worth of them), so serializing
+ * many messages through the same instance does not allocate once it has warmed up.
+ */
+class ChainedByteBuffer(
+  private val bufferSize: Int = 1024,
+  private val direct: Boolean = false,
+  private val retainedSize: Int = 64 * 1024
+) {
   private val bufferList: MutableList<ByteBuffer> = ArrayList()
 
   var size = 0
     private set
 
+  /**
+   * Largest [size] this buffer has reached since it was created
+   */
+  var highWaterMark = 0
+    private set
+
   private var currentBuffer = 0
 
   private fun allocate(size: Int) = when (direct) {
@@ -36,93 +53,149 @@ class ChainedByteBuffer(private val bufferSize: Int = 1024, private val direct:
     false -> ByteBuffer.allocate(size)
   }
 
-  private fun ensureSpace(size: Int) {
-    if (bufferList.isEmpty()) {
+  private fun current(): ByteBuffer {
+    if (currentBuffer == bufferList.size) {
       bufferList.add(allocate(bufferSize))
     }
-    if (bufferList[currentBuffer].remaining() < size) {
+    return bufferList[currentBuffer]
+  }
+
+  private fun ensureSpace(size: Int): ByteBuffer {
+    var buffer = current()
+    if (buffer.remaining() < size) {
       currentBuffer += 1
+      buffer = current()
     }
-    if (currentBuffer == bufferList.size) {
-      bufferList.add(allocate(bufferSize))
-    }
+    grow(size)
+    return buffer
+  }
+
+  private fun grow(size: Int) {
     this.size += size
+    if (this.size > highWaterMark)
+      highWaterMark = this.size
   }
 
   fun put(value: Byte) {
-    ensureSpace(1)
-
-    bufferList.last().put(value)
+    ensureSpace(1).put(value)
   }
 
   fun putChar(value: Char) {
-    ensureSpace(2)
-
-    bufferList.last().putChar(value)
+    ensureSpace(2).putChar(value)
   }
 
   fun putShort(value: Short) {
-    ensureSpace(2)
-
-    bufferList.last().putShort(value)
+    ensureSpace(2).putShort(value)
   }
 
   fun putInt(value: Int) {
-    ensureSpace(4)
-
-    bufferList.last().putInt(value)
+    ensureSpace(4).putInt(value)
   }
 
   fun putLong(value: Long) {
-    ensureSpace(8)
-
-    bufferList.last().putLong(value)
+    ensureSpace(8).putLong(value)
   }
 
   fun putFloat(value: Float) {
-    ensureSpace(4)
-
-    bufferList.last().putFloat(value)
+    ensureSpace(4).putFloat(value)
   }
 
   fun putDouble(value: Double) {
-    ensureSpace(8)
-
-    bufferList.last().putDouble(value)
+    ensureSpace(8).putDouble(value)
   }
 
   fun put(value: ByteBuffer) {
-    while (value.remaining() > 8) {
-      putLong(value.long)
-    }
+    grow(value.remaining())
     while (value.hasRemaining()) {
-      put(value.get())
+      var buffer = current()
+      if (!buffer.hasRemaining()) {
+        currentBuffer += 1
+        buffer = current()
+      }
+      if (value.remaining() <= buffer.remaining()) {
+        buffer.put(value)
+      } else {
+        val limit = value.limit()
+        value.limit(value.position() + buffer.remaining())
+        buffer.put(value)
+        value.limit(limit)
+      }
     }
   }
 
-  fun put(value: ByteArray) {
-    value.forEach(this::put)
+  fun put(value: ByteArray, offset: Int = 0, length: Int = value.size - offset) {
+    grow(length)
+    var position = offset
+    val end = offset + length
+    while (position < end) {
+      var buffer = current()
+      if (!buffer.hasRemaining()) {
+        currentBuffer += 1
+        buffer = current()
+      }
+      val chunk = minOf(buffer.remaining(), end - position)
+      buffer.put(value, position, chunk)
+      position += chunk
+    }
   }
 
   fun clear() {
-    bufferList.clear()
+    var retained = 0
+    val iterator = bufferList.iterator()
+    while (iterator.hasNext()) {
+      val buffer = iterator.next()
+      if (retained + buffer.capacity() > retainedSize) {
+        iterator.remove()
+      } else {
+        buffer.clear()
+        retained += buffer.capacity()
+      }
+    }
     currentBuffer = 0
     size = 0
   }
 
+  /**
+   * Returns flipped views of the used segments, suitable for gathering writes.
+   * The views share content with this buffer and are only valid until the next [clear].
+   */
+  fun segments(): Array<ByteBuffer> {
+    if (bufferList.isEmpty())
+      return emptyArray()
+    val used = minOf(currentBuffer + 1, bufferList.size)
+    return Array(used) {
+      val view = bufferList[it].duplicate()
+      view.flip()
+      view
+    }
+  }
+
   fun write(channel: WritableByteChannel) {
-    for (buffer in bufferList) {
-      buffer.flip()
-      channel.write(buffer)
+    val segments = segments()
+    if (channel is GatheringByteChannel) {
+      var remaining = size.toLong()
+      while (remaining > 0) {
+        val written = channel.write(segments)
+        if (written <= 0)
+          break
+        remaining -= written
+      }
+    } else {
+      for (segment in segments) {
+        channel.write(segment)
+      }
+    }
+  }
+
+  fun copyTo(target: ByteBuffer) {
+    for (segment in segments()) {
+      target.put(segment)
     }
   }
 
   fun toBuffer(): ByteBuffer {
     val byteBuffer = allocate(size)
-    for (buffer in bufferList) {
-      buffer.flip()
-      byteBuffer.put(buffer)
-    }
+    copyTo(byteBuffer)
     byteBuffer.flip()
     return byteBuffer
   }
@@ -0,0 +1,134 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Size-classed pool of direct buffers, used to avoid allocating a new direct buffer for every
+ * frame read from the core. Size classes are powers of two between [minSize] and [maxSize],
+ * requests larger than [maxSize] are allocated on demand and never retained.
+ */
+class DirectBufferPool(
+  private val minSize: Int = 512,
+  private val maxSize: Int = 1024 * 1024,
+  private val buffersPerClass: Int = 8
+) {
+  init {
+    require(Integer.bitCount(minSize) == 1) { "minSize has to be a power of two: $minSize" }
+    require(Integer.bitCount(maxSize) == 1) { "maxSize has to be a power of two: $maxSize" }
+    require(minSize <= maxSize) { "minSize larger than maxSize: $minSize > $maxSize" }
+  }
+
+  private val minShift = Integer.numberOfTrailingZeros(minSize)
+  private val classes = Array(Integer.numberOfTrailingZeros(maxSize) - minShift + 1) {
+    ArrayDeque<ByteBuffer>(buffersPerClass)
+  }
+
+  private val hits = AtomicLong()
+  private val misses = AtomicLong()
+  private val bytesInFlight = AtomicLong()
+  private val bytesPooled = AtomicLong()
+
+  private fun sizeClass(size: Int): Int {
+    if (size <= minSize) return 0
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift
+  }
+
+  /**
+   * Borrows a buffer with at least [size] bytes of capacity. The returned buffer is cleared and
+   * its limit set to [size]. It should be handed back via [release] once it is no longer used.
+   */
+  fun acquire(size: Int): ByteBuffer {
+    val buffer = if (size > maxSize) {
+      misses.incrementAndGet()
+      ByteBuffer.allocateDirect(size)
+    } else {
+      val index = sizeClass(size)
+      val queue = classes[index]
+      val pooled = synchronized(queue) {
+        queue.pollFirst()
+      }
+      if (pooled != null) {
+        hits.incrementAndGet()
+        bytesPooled.addAndGet(-pooled.capacity().toLong())
+        pooled
+      } else {
+        misses.incrementAndGet()
+        ByteBuffer.allocateDirect(minSize shl index)
+      }
+    }
+    bytesInFlight.addAndGet(buffer.capacity().toLong())
+    buffer.clear()
+    buffer.limit(size)
+    return buffer
+  }
+
+  /**
+   * Returns a buffer previously obtained from [acquire]. The buffer may not be used anymore
+   * after calling this.
+   */
+  fun release(buffer: ByteBuffer) {
+    val capacity = buffer.capacity()
+    bytesInFlight.addAndGet(-capacity.toLong())
+    if (!buffer.isDirect || capacity > maxSize || Integer.bitCount(capacity) != 1 || capacity < minSize)
+      return
+
+    val queue = classes[sizeClass(capacity)]
+    val retained = synchronized(queue) {
+      if (queue.size < buffersPerClass) {
+        queue.addFirst(buffer)
+        true
+      } else {
+        false
+      }
+    }
+    if (retained) {
+      bytesPooled.addAndGet(capacity.toLong())
+    }
+  }
+
+  fun clear() {
+    for (queue in classes) {
+      val released = synchronized(queue) {
+        val sum = queue.fold(0L) { acc, buffer -> acc + buffer.capacity() }
+        queue.clear()
+        sum
+      }
+      bytesPooled.addAndGet(-released)
+    }
+  }
+
+  fun stats() = Stats(
+    hits = hits.get(),
+    misses = misses.get(),
+    bytesInFlight = bytesInFlight.get(),
+    bytesPooled = bytesPooled.get()
+  )
+
+  data class Stats(
+    val hits: Long,
+    val misses: Long,
+    val bytesInFlight: Long,
+    val bytesPooled: Long
+  )
+}
@@ -0,0 +1,58 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import de.kuschku.libquassel.util.PrimitiveHashing
+import java.nio.ByteBuffer
+
+/**
+ * 32 bit FNV-1a hash of encoded strings, as used by the lookup tables of names read from frames.
+ * Results are spread with [PrimitiveHashing.spread], so they can be masked to any table size.
+ */
+internal object Fnv {
+  const val OFFSET = -0x7ee3623b
+  private const val PRIME = 0x01000193
+
+  /**
+   * Hashes the [length] bytes starting at the absolute [offset] of [buffer], without modifying the
+   * buffer’s position
+   */
+  fun hash(buffer: ByteBuffer, offset: Int, length: Int, basis: Int = OFFSET): Int {
+    var hash = basis
+    for (i in offset until offset + length) {
+      hash = (hash xor (buffer.get(i).toInt() and 0xFF)) * PRIME
+    }
+    return PrimitiveHashing.spread(hash)
+  }
+
+  fun hash(bytes: ByteArray) = hash(ByteBuffer.wrap(bytes), 0, bytes.size)
+
+  /**
+   * Hashes the [length] UTF-16BE code units starting at the absolute [offset] of [buffer], without
+   * modifying the buffer’s position
+   */
+  fun hashUtf16(buffer: ByteBuffer, offset: Int, length: Int): Int {
+    var hash = OFFSET
+    for (i in 0 until length) {
+      hash = (hash xor buffer.getChar(offset + 2 * i).toInt()) * PRIME
+    }
+    return PrimitiveHashing.spread(hash)
+  }
+}
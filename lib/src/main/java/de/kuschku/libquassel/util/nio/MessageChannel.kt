@@ -0,0 +1,44 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import de.kuschku.libquassel.connection.HostnameVerifier
+import de.kuschku.libquassel.connection.SocketAddress
+import java.io.Flushable
+import java.io.IOException
+import java.nio.channels.ByteChannel
+import java.nio.channels.GatheringByteChannel
+import java.security.GeneralSecurityException
+import javax.net.ssl.SSLSession
+import javax.net.ssl.X509TrustManager
+
+/**
+ * Transport used by the connection to the core, supporting the TLS and compression layers that
+ * can be negotiated during the handshake
+ */
+interface MessageChannel : ByteChannel, GatheringByteChannel, Flushable {
+  val sslSession: SSLSession?
+
+  fun withCompression(): MessageChannel
+
+  @Throws(GeneralSecurityException::class, IOException::class)
+  fun withSSL(certificateManager: X509TrustManager, hostnameVerifier: HostnameVerifier,
+              address: SocketAddress): MessageChannel
+}
@@ -0,0 +1,518 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import de.kuschku.libquassel.connection.HostnameVerifier
+import de.kuschku.libquassel.connection.SocketAddress
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.security.GeneralSecurityException
+import java.security.cert.X509Certificate
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLEngine
+import javax.net.ssl.SSLEngineResult
+import javax.net.ssl.SSLSession
+import javax.net.ssl.X509TrustManager
+
+/**
+ * Non-blocking alternative to [WrappedChannel], layering TLS via [SSLEngine] and compression via
+ * [Inflater]/[Deflater] directly on top of a [SocketChannel], without any stream adapters.
+ *
+ * Reads are non-blocking and return 0 if no complete data is available yet, they are expected to
+ * be driven by a [SelectorLoop] from a single thread. Writes may happen from any thread, output
+ * is buffered and only guaranteed to be handed to the socket on [flush]. Output the socket can
+ * not take immediately is written once the socket becomes writable again, see [onWritable]. If
+ * more than [maxBufferedSize] bytes are pending because the peer is not reading, the connection
+ * is closed and the write fails.
+ *
+ * With TLS, the hostname is verified as soon as the handshake has finished. Until then, no
+ * application data is wrapped or delivered.
+ */
+class NioChannel(
+  private val socket: SocketChannel,
+  private val maxBufferedSize: Int = MAX_BUFFERED_SIZE
+) : MessageChannel {
+  private var engine: SSLEngine? = null
+  private var hostnameVerifier: HostnameVerifier? = null
+  private var address: SocketAddress? = null
+  @Volatile
+  private var handshakeVerified = false
+
+  /**
+   * Called once the TLS handshake has completed and the hostname was verified, on the thread
+   * that completed the handshake
+   */
+  var handshakeListener: ((SSLSession) -> Unit)? = null
+
+  private var inflater: Inflater? = null
+  private var deflater: Deflater? = null
+
+  // Inbound state, only accessed from the reading thread. Buffers are kept in read mode.
+  private var netIn = emptyReadBuffer(ByteBuffer.allocateDirect(BUFFER_SIZE))
+  private var plainIn = emptyReadBuffer(ByteBuffer.allocate(BUFFER_SIZE))
+  private val appIn = emptyReadBuffer(ByteBuffer.allocate(BUFFER_SIZE))
+  private val inflateInput = ByteBuffer.allocate(BUFFER_SIZE)
+  private var endOfStream = false
+
+  // Outbound state, guarded by outLock. Buffers are kept in write mode.
+  private val outLock = Any()
+  private var plainOut = ByteBuffer.allocate(BUFFER_SIZE)
+  private var netOut = ByteBuffer.allocateDirect(BUFFER_SIZE)
+  private val deflateInput = ByteArray(BUFFER_SIZE)
+  private val deflateOutput = ByteArray(BUFFER_SIZE)
+  private var writeInterest = false
+
+  private var loop: SelectorLoop? = null
+  private var key: SelectionKey? = null
+
+  /**
+   * Switches the socket to non-blocking mode and registers it with [loop]
+   */
+  fun register(loop: SelectorLoop, handler: SelectorLoop.Handler) {
+    this.loop = loop
+    loop.register(socket, SelectionKey.OP_READ, handler) { key ->
+      synchronized(outLock) {
+        this.key = key
+        writeInterest = false
+        updateWriteInterest()
+      }
+    }
+  }
+
+  override fun withCompression(): NioChannel {
+    inflater = Inflater()
+    synchronized(outLock) {
+      deflater = Deflater()
+    }
+    return this
+  }
+
+  @Throws(GeneralSecurityException::class, IOException::class)
+  override fun withSSL(certificateManager: X509TrustManager, hostnameVerifier: HostnameVerifier,
+                       address: SocketAddress): NioChannel {
+    val context = SSLContext.getInstance("TLSv1.2")
+    context.init(null, arrayOf(certificateManager), null)
+
+    val engine = context.createSSLEngine(address.host, address.port)
+    engine.useClientMode = true
+
+    this.hostnameVerifier = hostnameVerifier
+    this.address = address
+    plainIn = emptyReadBuffer(ByteBuffer.allocate(engine.session.applicationBufferSize))
+    netIn = ensureCapacity(netIn, engine.session.packetBufferSize)
+
+    synchronized(outLock) {
+      netOut = ensureRemaining(netOut, engine.session.packetBufferSize)
+      this.engine = engine
+      engine.beginHandshake()
+      flushOutbound()
+    }
+    return this
+  }
+
+  override val sslSession: SSLSession?
+    get() = if (handshakeVerified) engine?.session else null
+
+  @Throws(IOException::class)
+  override fun read(dst: ByteBuffer): Int {
+    var total = 0
+    while (dst.hasRemaining()) {
+      val pulled = pull(dst)
+      if (pulled > 0) {
+        total += pulled
+        continue
+      }
+      if (endOfStream || readSocket() <= 0)
+        break
+    }
+    return if (total == 0 && endOfStream) -1 else total
+  }
+
+  @Throws(IOException::class)
+  override fun write(src: ByteBuffer): Int = synchronized(outLock) {
+    ensureOpen()
+    val length = src.remaining()
+    appendPlain(src)
+    flushIfFull()
+    length
+  }
+
+  @Throws(IOException::class)
+  override fun write(srcs: Array<out ByteBuffer>, offset: Int, length: Int): Long =
+    synchronized(outLock) {
+      ensureOpen()
+      var total = 0L
+      for (i in offset until offset + length) {
+        total += srcs[i].remaining()
+        appendPlain(srcs[i])
+      }
+      flushIfFull()
+      total
+    }
+
+  @Throws(IOException::class)
+  override fun write(srcs: Array<out ByteBuffer>): Long = write(srcs, 0, srcs.size)
+
+  @Throws(IOException::class)
+  override fun flush() = synchronized(outLock) {
+    val deflater = deflater
+    if (deflater != null)
+      deflate(deflater, Deflater.SYNC_FLUSH)
+    flushOutbound()
+  }
+
+  /**
+   * Writes pending output, to be called once the socket has become writable
+   */
+  @Throws(IOException::class)
+  fun onWritable() = synchronized(outLock) {
+    flushOutbound()
+  }
+
+  override fun isOpen() = socket.isOpen
+
+  @Throws(IOException::class)
+  override fun close() {
+    key?.cancel()
+    socket.close()
+    inflater?.end()
+    synchronized(outLock) {
+      deflater?.end()
+      deflater = null
+    }
+  }
+
+  private fun pull(dst: ByteBuffer): Int {
+    val inflater = inflater ?: return pullPlain(dst)
+    if (!appIn.hasRemaining())
+      inflate(inflater)
+    return transfer(appIn, dst)
+  }
+
+  private fun pullPlain(dst: ByteBuffer): Int {
+    val engine = engine ?: return transfer(netIn, dst)
+    if (!plainIn.hasRemaining())
+      unwrap(engine)
+    return transfer(plainIn, dst)
+  }
+
+  private fun readSocket(): Int {
+    netIn.compact()
+    netIn = ensureRemaining(netIn, 1)
+    val read = try {
+      socket.read(netIn)
+    } finally {
+      netIn.flip()
+    }
+    if (read < 0)
+      endOfStream = true
+    return read
+  }
+
+  private fun inflate(inflater: Inflater) {
+    appIn.clear()
+    try {
+      while (appIn.hasRemaining()) {
+        if (inflater.needsInput()) {
+          inflateInput.clear()
+          val available = pullPlain(inflateInput)
+          if (available == 0)
+            break
+          inflater.setInput(inflateInput.array(), inflateInput.arrayOffset(), available)
+        }
+        val inflated = inflater.inflate(
+          appIn.array(), appIn.arrayOffset() + appIn.position(), appIn.remaining()
+        )
+        appIn.position(appIn.position() + inflated)
+        if (inflated == 0 && !inflater.needsInput())
+          break
+      }
+    } finally {
+      appIn.flip()
+    }
+  }
+
+  private fun unwrap(engine: SSLEngine) {
+    plainIn.clear()
+    try {
+      loop@ while (netIn.hasRemaining()) {
+        val result = engine.unwrap(netIn, plainIn)
+        when (result.status) {
+          SSLEngineResult.Status.BUFFER_OVERFLOW  -> {
+            if (plainIn.position() > 0)
+              break@loop
+            plainIn = ensureRemaining(plainIn, engine.session.applicationBufferSize)
+            continue@loop
+          }
+          SSLEngineResult.Status.BUFFER_UNDERFLOW -> {
+            netIn = ensureCapacity(netIn, engine.session.packetBufferSize)
+            break@loop
+          }
+          SSLEngineResult.Status.CLOSED           -> {
+            endOfStream = true
+            break@loop
+          }
+          else                                    -> Unit
+        }
+
+        when (runDelegatedTasks(engine, result.handshakeStatus)) {
+          SSLEngineResult.HandshakeStatus.FINISHED,
+          SSLEngineResult.HandshakeStatus.NEED_WRAP -> synchronized(outLock) {
+            flushOutbound()
+          }
+          else                                      -> Unit
+        }
+
+        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+          break@loop
+      }
+    } finally {
+      plainIn.flip()
+    }
+  }
+
+  private fun runDelegatedTasks(engine: SSLEngine,
+                                status: SSLEngineResult.HandshakeStatus): SSLEngineResult.HandshakeStatus {
+    var current = status
+    if (current == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+      while (true) {
+        val task = engine.delegatedTask ?: break
+        task.run()
+      }
+      current = engine.handshakeStatus
+    }
+    if (current == SSLEngineResult.HandshakeStatus.FINISHED) {
+      verifyHandshake(engine)
+    }
+    return current
+  }
+
+  private fun verifyHandshake(engine: SSLEngine) {
+    if (handshakeVerified)
+      return
+
+    try {
+      val address = address
+      if (address != null) {
+        hostnameVerifier?.checkValid(
+          address,
+          engine.session.peerCertificates.map { it as X509Certificate }.toTypedArray()
+        )
+      }
+    } catch (e: Throwable) {
+      close()
+      throw e
+    }
+    handshakeVerified = true
+    handshakeListener?.invoke(engine.session)
+  }
+
+  private fun ensureOpen() {
+    if (!socket.isOpen)
+      throw ClosedChannelException()
+  }
+
+  // Called with outLock held
+  private fun pendingSize() = plainOut.position() + if (engine != null) netOut.position() else 0
+
+  // Called with outLock held. Fails the connection if the peer doesn't take the pending output.
+  private fun reservePlain(length: Int) {
+    if (pendingSize() + length > maxBufferedSize) {
+      flushOutbound()
+      if (pendingSize() + length > maxBufferedSize) {
+        close()
+        throw IOException("Peer is not reading, more than $maxBufferedSize bytes pending")
+      }
+    }
+    plainOut = ensureRemaining(plainOut, length)
+  }
+
+  // Called with outLock held
+  private fun appendPlain(src: ByteBuffer) {
+    val deflater = deflater
+    if (deflater == null) {
+      reservePlain(src.remaining())
+      plainOut.put(src)
+    } else {
+      while (src.hasRemaining()) {
+        val length = minOf(src.remaining(), deflateInput.size)
+        src.get(deflateInput, 0, length)
+        deflater.setInput(deflateInput, 0, length)
+        deflate(deflater, Deflater.NO_FLUSH)
+      }
+    }
+  }
+
+  // Called with outLock held
+  private fun deflate(deflater: Deflater, mode: Int) {
+    while (true) {
+      val length = deflater.deflate(deflateOutput, 0, deflateOutput.size, mode)
+      if (length > 0) {
+        reservePlain(length)
+        plainOut.put(deflateOutput, 0, length)
+      }
+      if (length < deflateOutput.size && deflater.needsInput())
+        break
+    }
+  }
+
+  // Called with outLock held
+  private fun flushIfFull() {
+    if (plainOut.position() >= MAX_PENDING_SIZE)
+      flushOutbound()
+  }
+
+  // Called with outLock held
+  private fun flushOutbound() {
+    val engine = engine
+    if (engine != null)
+      wrap(engine)
+    writeSocket(if (engine != null) netOut else plainOut)
+  }
+
+  // Called with outLock held
+  private fun wrap(engine: SSLEngine) {
+    plainOut.flip()
+    try {
+      loop@ while (true) {
+        // Application data is held back until the peer has been verified
+        val source = if (handshakeVerified) plainOut else EMPTY_BUFFER
+        val result = engine.wrap(source, netOut)
+        when (result.status) {
+          SSLEngineResult.Status.BUFFER_OVERFLOW -> {
+            netOut = ensureRemaining(netOut, engine.session.packetBufferSize)
+            continue@loop
+          }
+          SSLEngineResult.Status.CLOSED          ->
+            break@loop
+          else                                   -> Unit
+        }
+
+        val status = runDelegatedTasks(engine, result.handshakeStatus)
+        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+          break@loop
+        val pending = handshakeVerified && plainOut.hasRemaining()
+        if (!pending && status != SSLEngineResult.HandshakeStatus.NEED_WRAP)
+          break@loop
+      }
+    } finally {
+      plainOut.compact()
+    }
+  }
+
+  // Called with outLock held
+  private fun writeSocket(source: ByteBuffer) {
+    source.flip()
+    try {
+      while (source.hasRemaining()) {
+        if (socket.write(source) == 0)
+          break
+      }
+    } finally {
+      source.compact()
+    }
+    updateWriteInterest()
+  }
+
+  // Called with outLock held
+  private fun updateWriteInterest() {
+    val source = if (engine != null) netOut else plainOut
+    val pending = source.position() > 0
+    if (pending == writeInterest)
+      return
+    val key = key ?: return
+    val loop = loop ?: return
+
+    writeInterest = pending
+    loop.execute {
+      synchronized(outLock) {
+        if (key.isValid) {
+          key.interestOps(
+            if (writeInterest) SelectionKey.OP_READ or SelectionKey.OP_WRITE
+            else SelectionKey.OP_READ
+          )
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val BUFFER_SIZE = 16 * 1024
+    private const val MAX_PENDING_SIZE = 64 * 1024
+    private const val MAX_BUFFERED_SIZE = 32 * 1024 * 1024
+    private val EMPTY_BUFFER = ByteBuffer.allocate(0)
+
+    private fun emptyReadBuffer(buffer: ByteBuffer): ByteBuffer {
+      buffer.flip()
+      return buffer
+    }
+
+    /**
+     * Copies as much of [src] as fits into [dst], never reading past what [dst] can take
+     */
+    private fun transfer(src: ByteBuffer, dst: ByteBuffer): Int {
+      val length = minOf(src.remaining(), dst.remaining())
+      if (length == 0)
+        return 0
+      if (src.remaining() <= dst.remaining()) {
+        dst.put(src)
+      } else {
+        val limit = src.limit()
+        src.limit(src.position() + length)
+        dst.put(src)
+        src.limit(limit)
+      }
+      return length
+    }
+
+    private fun allocate(like: ByteBuffer, capacity: Int) =
+      if (like.isDirect) ByteBuffer.allocateDirect(capacity)
+      else ByteBuffer.allocate(capacity)
+
+    /**
+     * Ensures a buffer in write mode has at least [remaining] bytes of space left
+     */
+    private fun ensureRemaining(buffer: ByteBuffer, remaining: Int): ByteBuffer {
+      if (buffer.remaining() >= remaining)
+        return buffer
+      val result = allocate(buffer, maxOf(buffer.capacity() * 2, buffer.position() + remaining))
+      buffer.flip()
+      result.put(buffer)
+      return result
+    }
+
+    /**
+     * Ensures a buffer in read mode has a capacity of at least [capacity] bytes
+     */
+    private fun ensureCapacity(buffer: ByteBuffer, capacity: Int): ByteBuffer {
+      if (buffer.capacity() >= capacity)
+        return buffer
+      val result = allocate(buffer, capacity)
+      result.put(buffer)
+      result.flip()
+      return result
+    }
+  }
+}
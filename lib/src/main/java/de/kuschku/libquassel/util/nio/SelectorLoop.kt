@@ -0,0 +1,118 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
+import java.io.Closeable
+import java.nio.channels.ClosedSelectorException
+import java.nio.channels.SelectableChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * A single I/O thread driving any number of non-blocking channels, allowing multiple
+ * connections to share one thread
+ */
+class SelectorLoop(name: String = "SelectorLoop") : Closeable {
+  interface Handler {
+    fun onReady(key: SelectionKey)
+    fun onError(key: SelectionKey, throwable: Throwable)
+  }
+
+  private val selector = Selector.open()
+  private val tasks = ConcurrentLinkedQueue<() -> Unit>()
+
+  @Volatile
+  private var running = true
+
+  private val thread = Thread(Runnable { loop() }, name)
+
+  init {
+    thread.isDaemon = true
+    thread.start()
+  }
+
+  val inLoop
+    get() = Thread.currentThread() == thread
+
+  /**
+   * Registers [channel] with this loop, [callback] is invoked on the loop thread with the
+   * resulting key
+   */
+  fun register(channel: SelectableChannel, ops: Int, handler: Handler,
+               callback: (SelectionKey) -> Unit = {}) = execute {
+    channel.configureBlocking(false)
+    callback(channel.register(selector, ops, handler))
+  }
+
+  /**
+   * Runs [task] on the loop thread
+   */
+  fun execute(task: () -> Unit) {
+    if (inLoop) {
+      task()
+    } else {
+      tasks.add(task)
+      selector.wakeup()
+    }
+  }
+
+  private fun loop() {
+    try {
+      while (running) {
+        selector.select()
+
+        while (true) {
+          val task = tasks.poll() ?: break
+          try {
+            task()
+          } catch (e: Throwable) {
+            log(WARN, "SelectorLoop", "Error encountered while running task", e)
+          }
+        }
+
+        val iterator = selector.selectedKeys().iterator()
+        while (iterator.hasNext()) {
+          val key = iterator.next()
+          iterator.remove()
+          val handler = key.attachment() as? Handler ?: continue
+          try {
+            if (key.isValid)
+              handler.onReady(key)
+          } catch (e: Throwable) {
+            key.cancel()
+            handler.onError(key, e)
+          }
+        }
+      }
+    } catch (e: ClosedSelectorException) {
+      // Loop was closed, nothing to do
+    } catch (e: Throwable) {
+      log(WARN, "SelectorLoop", "Error encountered in selector loop", e)
+    }
+  }
+
+  override fun close() {
+    running = false
+    selector.close()
+  }
+}
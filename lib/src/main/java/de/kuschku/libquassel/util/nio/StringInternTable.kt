@@ -0,0 +1,165 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import java.nio.ByteBuffer
+
+/**
+ * Bounded, direct-mapped cache of decoded strings, letting strings which are read over and over
+ * again (map keys, nicks, buffer names) share one instance.
+ *
+ * Lookups compare against the still encoded data, so a hit does not allocate. Colliding entries
+ * replace each other, which keeps the table bounded without any bookkeeping and makes it safe to
+ * share between threads.
+ */
+class StringInternTable(capacity: Int = 4096, private val maxLength: Int = 64) {
+  private val strings: Array<String?>
+  private val mask: Int
+
+  init {
+    var size = 16
+    while (size < capacity)
+      size = size shl 1
+    strings = arrayOfNulls(size)
+    mask = size - 1
+  }
+
+  /**
+   * Returns the string made up of the [length] single-byte (ASCII or Latin-1) characters starting
+   * at the absolute [offset] of [buffer], without modifying the buffer’s position
+   */
+  fun latin1(buffer: ByteBuffer, offset: Int, length: Int): String {
+    if (length > maxLength)
+      return decodeLatin1(buffer, offset, length)
+
+    val index = Fnv.hash(buffer, offset, length) and mask
+
+    val candidate = strings[index]
+    if (candidate != null && candidate.length == length) {
+      var matches = true
+      for (i in 0 until length) {
+        if (candidate[i].toInt() != buffer.get(offset + i).toInt() and 0xFF) {
+          matches = false
+          break
+        }
+      }
+      if (matches)
+        return candidate
+    }
+
+    val value = decodeLatin1(buffer, offset, length)
+    strings[index] = value
+    return value
+  }
+
+  /**
+   * Returns the string made up of the [length] UTF-16BE code units starting at the absolute
+   * [offset] of [buffer], without modifying the buffer’s position
+   */
+  fun utf16(buffer: ByteBuffer, offset: Int, length: Int): String {
+    if (length > maxLength)
+      return decodeUtf16(buffer, offset, length)
+
+    val index = Fnv.hashUtf16(buffer, offset, length) and mask
+
+    val candidate = strings[index]
+    if (candidate != null && candidate.length == length) {
+      var matches = true
+      for (i in 0 until length) {
+        if (candidate[i] != buffer.getChar(offset + 2 * i)) {
+          matches = false
+          break
+        }
+      }
+      if (matches)
+        return candidate
+    }
+
+    val value = decodeUtf16(buffer, offset, length)
+    strings[index] = value
+    return value
+  }
+
+  fun clear() {
+    strings.fill(null)
+  }
+
+  companion object {
+    fun decodeLatin1(buffer: ByteBuffer, offset: Int, length: Int): String {
+      if (buffer.hasArray())
+        return String(buffer.array(), buffer.arrayOffset() + offset, length, Charsets.ISO_8859_1)
+
+      val bytes = ByteArray(length)
+      for (i in 0 until length) {
+        bytes[i] = buffer.get(offset + i)
+      }
+      return String(bytes, Charsets.ISO_8859_1)
+    }
+
+    fun decodeUtf16(buffer: ByteBuffer, offset: Int, length: Int): String {
+      val chars = CharArray(length)
+      for (i in 0 until length) {
+        chars[i] = buffer.getChar(offset + 2 * i)
+      }
+      return String(chars)
+    }
+
+    /**
+     * Checks whether the [length] UTF-16BE code units starting at the absolute [offset] of
+     * [buffer] contain only correctly paired surrogates
+     */
+    fun isWellFormedUtf16(buffer: ByteBuffer, offset: Int, length: Int): Boolean {
+      var i = 0
+      while (i < length) {
+        val char = buffer.getChar(offset + 2 * i)
+        if (Character.isHighSurrogate(char)) {
+          if (i + 1 >= length || !Character.isLowSurrogate(buffer.getChar(offset + 2 * i + 2)))
+            return false
+          i += 2
+        } else if (Character.isLowSurrogate(char)) {
+          return false
+        } else {
+          i++
+        }
+      }
+      return true
+    }
+
+    /**
+     * Checks whether the [length] bytes starting at the absolute [offset] of [buffer] are all
+     * ASCII, folding them together instead of branching per byte
+     */
+    fun isAscii(buffer: ByteBuffer, offset: Int, length: Int): Boolean {
+      var bits = 0
+      if (buffer.hasArray()) {
+        val array = buffer.array()
+        val start = buffer.arrayOffset() + offset
+        for (i in start until start + length) {
+          bits = bits or array[i].toInt()
+        }
+      } else {
+        for (i in offset until offset + length) {
+          bits = bits or buffer.get(i).toInt()
+        }
+      }
+      return bits and 0x80 == 0
+    }
+  }
+}
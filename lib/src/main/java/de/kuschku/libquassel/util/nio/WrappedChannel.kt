@@ -27,7 +27,6 @@ import java.io.*
 import java.net.Socket
 import java.net.SocketException
 import java.nio.ByteBuffer
-import java.nio.channels.ByteChannel
 import java.nio.channels.InterruptibleChannel
 import java.nio.channels.ReadableByteChannel
 import java.nio.channels.WritableByteChannel
@@ -45,9 +44,10 @@ class WrappedChannel private constructor(
   private var rawOutStream: OutputStream? = null,
   private var flusher: (() -> Unit)? = null,
   private val closeListeners: List<Closeable> = emptyList()
-) : Flushable, ByteChannel, InterruptibleChannel {
+) : MessageChannel, InterruptibleChannel {
   private var rawIn: ReadableByteChannel? = null
   private var rawOut: WritableByteChannel? = null
+  private var gatherBuffer: ByteBuffer? = null
 
   init {
     val rawInStream = this.rawInStream
@@ -60,6 +60,8 @@ class WrappedChannel private constructor(
   }
 
   companion object {
+    private const val MAX_GATHER_BUFFER_SIZE = 64 * 1024
+
     fun ofSocket(s: Socket, closeListeners: List<Closeable> = emptyList()): WrappedChannel {
       return WrappedChannel(
         s,
@@ -70,7 +72,7 @@ class WrappedChannel private constructor(
     }
   }
 
-  fun withCompression(): WrappedChannel {
+  override fun withCompression(): WrappedChannel {
     val deflaterOutputStream = CompatibilityUtils.createDeflaterOutputStream(rawOutStream)
     return WrappedChannel(
       socket, InflaterInputStream(rawInStream), deflaterOutputStream,
@@ -80,8 +82,8 @@ class WrappedChannel private constructor(
   }
 
   @Throws(GeneralSecurityException::class, IOException::class)
-  fun withSSL(certificateManager: X509TrustManager, hostnameVerifier: HostnameVerifier,
-              address: SocketAddress): WrappedChannel {
+  override fun withSSL(certificateManager: X509TrustManager, hostnameVerifier: HostnameVerifier,
+                       address: SocketAddress): WrappedChannel {
     val context = SSLContext.getInstance("TLSv1.2")
     val managers = arrayOf(certificateManager)
     context.init(null, managers, null)
@@ -179,6 +181,72 @@ class WrappedChannel private constructor(
     return stream.write(src)
   }
 
+  /**
+   * Writes a sequence of bytes to this channel from a subsequence of the given buffers.
+   * <p>
+   * <p> As the underlying streams do not support gathering writes, the buffers are first
+   * coalesced into a reusable staging buffer, so a batch of small buffers results in as few
+   * writes to the underlying stream as possible.
+   *
+   * @param srcs The buffers from which bytes are to be retrieved
+   * @param offset The offset within the buffer array of the first buffer to be used
+   * @param length The maximum number of buffers to be accessed
+   * @return The number of bytes written, possibly zero
+   * @throws IOException If some other I/O Error occurs
+   */
+  @Throws(IOException::class)
+  override fun write(srcs: Array<out ByteBuffer>, offset: Int, length: Int): Long {
+    val stream = rawOut ?: throw SocketException("Socket Closed")
+
+    var total = 0L
+    for (i in offset until offset + length) {
+      total += srcs[i].remaining()
+    }
+
+    val staging = gatherBuffer(total)
+    var written = 0L
+    for (i in offset until offset + length) {
+      val src = srcs[i]
+      while (src.hasRemaining()) {
+        if (!staging.hasRemaining()) {
+          written += drain(stream, staging)
+        }
+        val limit = src.limit()
+        src.limit(src.position() + minOf(src.remaining(), staging.remaining()))
+        staging.put(src)
+        src.limit(limit)
+      }
+    }
+    written += drain(stream, staging)
+    return written
+  }
+
+  @Throws(IOException::class)
+  override fun write(srcs: Array<out ByteBuffer>): Long = write(srcs, 0, srcs.size)
+
+  private fun gatherBuffer(size: Long): ByteBuffer {
+    val capacity = minOf(maxOf(size, 1024L), MAX_GATHER_BUFFER_SIZE.toLong()).toInt()
+    val current = gatherBuffer
+    val buffer = if (current == null || current.capacity() < capacity) {
+      ByteBuffer.allocate(capacity)
+    } else {
+      current
+    }
+    gatherBuffer = buffer
+    buffer.clear()
+    return buffer
+  }
+
+  private fun drain(stream: WritableByteChannel, staging: ByteBuffer): Long {
+    staging.flip()
+    var written = 0L
+    while (staging.hasRemaining()) {
+      written += stream.write(staging)
+    }
+    staging.clear()
+    return written
+  }
+
   override fun isOpen(): Boolean {
     return rawIn != null || rawOut != null
   }
@@ -230,6 +298,6 @@ class WrappedChannel private constructor(
     flusher?.invoke()
   }
 
-  val sslSession
+  override val sslSession
     get() = (socket as? SSLSocket)?.session
 }
@@ -0,0 +1,86 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.rxjava
+
+import de.kuschku.libquassel.util.PersistentMap
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
+
+/**
+ * Mutable map which publishes every modification as [MapChange]. The state is kept as
+ * [PersistentMap], so [snapshot] is O(1) and the returned map stays valid forever.
+ */
+class LiveMap<K, V> {
+  @Volatile
+  private var map = PersistentMap.empty<K, V>()
+  private val changes = PublishSubject.create<MapChange<K, V>>()
+
+  val size: Int
+    get() = map.size
+
+  fun snapshot(): PersistentMap<K, V> = map
+
+  operator fun get(key: K): V? = map[key]
+
+  fun containsKey(key: K) = map.containsKey(key)
+
+  @Synchronized
+  operator fun set(key: K, value: V) {
+    val previous = map
+    map = previous.put(key, value)
+    when {
+      map === previous          -> Unit
+      previous.containsKey(key) ->
+        @Suppress("UNCHECKED_CAST")
+        changes.onNext(MapChange.Changed(key, previous[key] as V, value))
+      else                      -> changes.onNext(MapChange.Added(key, value))
+    }
+  }
+
+  @Synchronized
+  fun remove(key: K): V? {
+    val previous = map
+    map = previous.remove(key)
+    if (map === previous) return null
+    @Suppress("UNCHECKED_CAST")
+    val value = previous[key] as V
+    changes.onNext(MapChange.Removed(key, value))
+    return value
+  }
+
+  @Synchronized
+  fun clear() {
+    if (map.isEmpty()) return
+    map = PersistentMap.empty()
+    changes.onNext(MapChange.Reset(map))
+  }
+
+  /**
+   * Emits the current state as [MapChange.Reset], followed by every later modification
+   */
+  fun changes(): Observable<MapChange<K, V>> = Observable.create { emitter ->
+    synchronized(this) {
+      emitter.onNext(MapChange.Reset(map))
+      emitter.setDisposable(changes.subscribe(emitter::onNext))
+    }
+  }
+
+  override fun toString() = map.toString()
+}
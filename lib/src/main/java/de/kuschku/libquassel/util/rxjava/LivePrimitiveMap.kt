@@ -0,0 +1,88 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.rxjava
+
+import de.kuschku.libquassel.util.PersistentMap
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
+
+/**
+ * Map with int keys kept in a primitive [storage] structure, which may only be accessed through
+ * [read] and [update]. Keys and values are only boxed while they are observed: [snapshot] is built
+ * once when first requested and from then on updated with every modification, sharing all
+ * unchanged entries, and [MapChange] values are only built while [changes] has subscribers.
+ */
+class LivePrimitiveMap<S, K, V>(
+  @PublishedApi internal val storage: S,
+  @PublishedApi internal val boxKey: (Int) -> K,
+  @PublishedApi internal val boxValue: (S, Int) -> V?,
+  private val toMap: (S) -> PersistentMap<K, V>
+) {
+  private val changes = PublishSubject.create<MapChange<K, V>>()
+  private var snapshot: PersistentMap<K, V>? = null
+
+  inline fun <T> read(f: (S) -> T): T = synchronized(this) {
+    f(storage)
+  }
+
+  /**
+   * Applies a modification of the entry for [key], [f] returns whether it changed anything
+   */
+  inline fun update(key: Int, f: (S) -> Boolean) {
+    synchronized(this) {
+      val observed = isObserved()
+      val previous = if (observed) boxValue(storage, key) else null
+      if (f(storage) && observed) publish(boxKey(key), previous, boxValue(storage, key))
+    }
+  }
+
+  @PublishedApi
+  internal fun isObserved() = snapshot != null || changes.hasObservers()
+
+  @PublishedApi
+  internal fun publish(key: K, previous: V?, value: V?) {
+    snapshot = snapshot?.let {
+      if (value == null) it.remove(key) else it.put(key, value)
+    }
+    if (changes.hasObservers()) {
+      changes.onNext(when {
+        value == null    -> MapChange.Removed(key, previous ?: return)
+        previous == null -> MapChange.Added(key, value)
+        else             -> MapChange.Changed(key, previous, value)
+      })
+    }
+  }
+
+  @Synchronized
+  fun snapshot(): PersistentMap<K, V> = snapshot ?: toMap(storage).also { snapshot = it }
+
+  @Synchronized
+  override fun toString() = (snapshot ?: toMap(storage)).toString()
+
+  /**
+   * Emits the current state as [MapChange.Reset], followed by every later modification
+   */
+  fun changes(): Observable<MapChange<K, V>> = Observable.create { emitter ->
+    synchronized(this) {
+      emitter.onNext(MapChange.Reset(snapshot()))
+      emitter.setDisposable(changes.subscribe(emitter::onNext))
+    }
+  }
+}
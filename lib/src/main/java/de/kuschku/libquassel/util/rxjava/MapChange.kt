@@ -0,0 +1,36 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.rxjava
+
+import de.kuschku.libquassel.util.PersistentMap
+
+/**
+ * Single change of a [LiveMap]
+ */
+sealed class MapChange<K, V> {
+  /**
+   * Replaces all previous state, sent on subscription and after the map was cleared
+   */
+  data class Reset<K, V>(val map: PersistentMap<K, V>) : MapChange<K, V>()
+
+  data class Added<K, V>(val key: K, val value: V) : MapChange<K, V>()
+  data class Changed<K, V>(val key: K, val oldValue: V, val newValue: V) : MapChange<K, V>()
+  data class Removed<K, V>(val key: K, val value: V) : MapChange<K, V>()
+}
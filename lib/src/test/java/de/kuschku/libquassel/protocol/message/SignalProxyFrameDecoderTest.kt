@@ -0,0 +1,130 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.protocol.message
+
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.protocol.primitive.serializer.StringSerializer
+import de.kuschku.libquassel.protocol.primitive.serializer.VariantListSerializer
+import de.kuschku.libquassel.quassel.QuasselFeatures
+import de.kuschku.libquassel.quassel.syncables.interfaces.invokers.Invokers
+import de.kuschku.libquassel.util.helper.serializeString
+import de.kuschku.libquassel.util.nio.ChainedByteBuffer
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class SignalProxyFrameDecoderTest {
+  private val features = QuasselFeatures.all()
+
+  private fun frame(message: SignalProxyMessage) = frame(SignalProxyMessage.serialize(message))
+
+  private fun frame(data: QVariantList): ByteBuffer {
+    val chainedBuffer = ChainedByteBuffer(direct = false)
+    VariantListSerializer.serialize(chainedBuffer, data, features)
+    return chainedBuffer.toBuffer()
+  }
+
+  private fun bytes(value: String) = ARG(value.serializeString(StringSerializer.UTF8), Type.QByteArray)
+
+  @Test
+  fun testSyncMessage() {
+    val params = listOf(
+      ARG("nick", Type.QString),
+      ARG(42, Type.Int)
+    )
+    val decoded = SignalProxyFrameDecoder.decode(
+      frame(SignalProxyMessage.SyncMessage("IrcUser", "1/nick", "setNick", params)),
+      features
+    )
+
+    assertTrue(decoded is SignalProxyMessage.SyncMessage)
+    decoded as SignalProxyMessage.SyncMessage
+    assertEquals("IrcUser", decoded.className)
+    assertEquals("1/nick", decoded.objectName)
+    assertEquals("setNick", decoded.slotName)
+    assertEquals(Invokers.slotTable("IrcUser")?.indexOf("setNick"), decoded.slotId)
+    assertNotEquals(-1, decoded.slotId)
+
+    val lazyParams = decoded.params as LazyVariantList
+    assertEquals(2, lazyParams.size)
+    assertFalse(lazyParams.isDecoded)
+    assertEquals(params, decoded.params)
+    assertTrue(lazyParams.isDecoded)
+  }
+
+  @Test
+  fun testRpcCall() {
+    val params = listOf(ARG("value", Type.QString))
+    val decoded = SignalProxyFrameDecoder.decode(
+      frame(SignalProxyMessage.RpcCall("2displayStatusMsg(QString,QString)", params)),
+      features
+    )
+
+    decoded as SignalProxyMessage.RpcCall
+    assertEquals("2displayStatusMsg(QString,QString)", decoded.slotName)
+    assertEquals(Invokers.rpcSlots.indexOf(decoded.slotName), decoded.slotId)
+    assertEquals(params, decoded.params)
+  }
+
+  @Test
+  fun testInitData() {
+    val initData = mapOf(
+      "chanModes" to ARG("", Type.QString),
+      "topic" to ARG("Hello World", Type.QString)
+    )
+    // The core sends init data as a flat list of keys and values
+    val decoded = SignalProxyFrameDecoder.decode(
+      frame(listOf<QVariant_>(
+        ARG(RequestType.InitData.value, Type.Int),
+        bytes("IrcChannel"),
+        bytes("1/#quassel"),
+        *initData.flatMap { (key, value) -> listOf<QVariant_>(bytes(key), value) }.toTypedArray()
+      )),
+      features
+    )
+
+    decoded as SignalProxyMessage.InitData
+    assertEquals("IrcChannel", decoded.className)
+    assertEquals("1/#quassel", decoded.objectName)
+    assertEquals(initData, decoded.initData)
+  }
+
+  @Test
+  fun testDetachAndRelease() {
+    val params = listOf(ARG("value", Type.QString))
+
+    val detached = SignalProxyFrameDecoder.decode(
+      frame(SignalProxyMessage.RpcCall("slot", params)), features
+    )
+    detached.detach()
+    detached.release()
+    assertEquals(params, (detached as SignalProxyMessage.RpcCall).params)
+
+    val released = SignalProxyFrameDecoder.decode(
+      frame(SignalProxyMessage.RpcCall("slot", params)), features
+    )
+    released.release()
+    try {
+      (released as SignalProxyMessage.RpcCall).params[0]
+      fail("Parameters of released frames should not be accessible")
+    } catch (e: IllegalStateException) {
+    }
+  }
+}
@@ -24,6 +24,7 @@ import de.kuschku.libquassel.util.roundTrip
 import org.hamcrest.BaseMatcher
 import org.hamcrest.Description
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
 import org.junit.Assert.assertThat
 import org.junit.Test
 
@@ -78,6 +79,27 @@ class StringSerializerTest {
     assertEquals(it, roundTrip(StringSerializer.C, it))
   }
 
+  @Test
+  fun testUnpairedSurrogates() {
+    // Decoding stops at the unpaired surrogate, as it always did on the CharsetDecoder path
+    assertEquals("", deserialize(StringSerializer.UTF16, byteArrayOf(0, 0, 0, 2, -40, 0)))
+    assertEquals("a", deserialize(StringSerializer.UTF16, byteArrayOf(0, 0, 0, 4, 0, 97, -36, 0)))
+    assertEquals(
+      "a", deserialize(StringSerializer.UTF16, byteArrayOf(0, 0, 0, 6, 0, 97, -40, 0, 0, 98))
+    )
+    assertEquals(
+      "\uD83D\uDE00", deserialize(StringSerializer.UTF16, byteArrayOf(0, 0, 0, 4, -40, 61, -34, 0))
+    )
+  }
+
+  @Test
+  fun testInterning() {
+    val bytes = byteArrayOf(0, 0, 0, 8, 0, 106, 0, 97, 0, 110, 0, 101)
+    val first = deserialize(StringSerializer.UTF16, bytes)
+    assertEquals("jane", first)
+    assertSame(first, deserialize(StringSerializer.UTF16, bytes))
+  }
+
   private class BomMatcher(private val expected: String) : BaseMatcher<String>() {
     override fun describeTo(description: Description?) {
       description?.appendText(expected)
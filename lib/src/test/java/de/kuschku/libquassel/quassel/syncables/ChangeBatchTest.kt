@@ -0,0 +1,68 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import io.reactivex.subjects.BehaviorSubject
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ChangeBatchTest {
+  @Test
+  fun testCoalescing() {
+    val first = BehaviorSubject.create<Unit>()
+    val second = BehaviorSubject.create<Unit>()
+    val firstObserver = first.test()
+    val secondObserver = second.test()
+
+    ChangeBatch.batch {
+      repeat(10) { ChangeBatch.notify(first) }
+      ChangeBatch.batch {
+        ChangeBatch.notify(second)
+      }
+      // Nested batches don't publish before the outermost one closes
+      firstObserver.assertValueCount(0)
+      secondObserver.assertValueCount(0)
+    }
+    firstObserver.assertValueCount(1)
+    secondObserver.assertValueCount(1)
+
+    // Outside of a batch every notification is published immediately
+    ChangeBatch.notify(first)
+    ChangeBatch.notify(first)
+    firstObserver.assertValueCount(3)
+  }
+
+  @Test
+  fun testException() {
+    val subject = BehaviorSubject.create<Unit>()
+    val observer = subject.test()
+    try {
+      ChangeBatch.batch {
+        ChangeBatch.notify(subject)
+        throw IllegalStateException()
+      }
+    } catch (e: IllegalStateException) {
+    }
+    // Changes made before the failure are still published
+    observer.assertValueCount(1)
+    ChangeBatch.notify(subject)
+    assertEquals(2, observer.values().size)
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.quassel.BufferInfo
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.*
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.threeten.bp.Instant
+
+class IgnoreMatcherTest {
+  private val rules = listOf(
+    IgnoreListItem(IgnoreType.SenderIgnore, "spammer!*@*", false, StrictnessType.SoftStrictness,
+                   ScopeType.GlobalScope, "", true),
+    IgnoreListItem(IgnoreType.SenderIgnore, "*!*@bad.example", false,
+                   StrictnessType.HardStrictness, ScopeType.NetworkScope, "freenode", true),
+    IgnoreListItem(IgnoreType.MessageIgnore, "*buy now*", false, StrictnessType.SoftStrictness,
+                   ScopeType.ChannelScope, "#quassel*", true),
+    IgnoreListItem(IgnoreType.MessageIgnore, "^join (us|me)", true, StrictnessType.HardStrictness,
+                   ScopeType.GlobalScope, "", true),
+    IgnoreListItem(IgnoreType.MessageIgnore, "!*hello*", false, StrictnessType.SoftStrictness,
+                   ScopeType.ChannelScope, "#inverted", true),
+    IgnoreListItem(IgnoreType.SenderIgnore, "inactive!*@*", false, StrictnessType.HardStrictness,
+                   ScopeType.GlobalScope, "", false),
+    IgnoreListItem(IgnoreType.CtcpIgnore, "*", false, StrictnessType.HardStrictness,
+                   ScopeType.GlobalScope, "", true)
+  )
+
+  private fun message(sender: String, content: String, bufferName: String,
+                      networkId: Int = 1, type: Message_Type = Message_Type.Plain) = Message(
+    messageId = MsgId(1),
+    time = Instant.EPOCH,
+    type = Message_Type.of(type),
+    flag = Message_Flag.of(),
+    bufferInfo = BufferInfo(BufferId(1), NetworkId(networkId), Buffer_Type.of(), -1, bufferName),
+    sender = sender,
+    senderPrefixes = "",
+    realName = "",
+    avatarUrl = "",
+    content = content
+  )
+
+  private val networkNames = mapOf(NetworkId(1) to "freenode", NetworkId(2) to "oftc")
+
+  private val messages = listOf(
+    message("spammer!user@host", "hi", "#quassel"),
+    message("user!ident@bad.example", "hi", "#quassel"),
+    message("user!ident@bad.example", "hi", "#quassel", networkId = 2),
+    message("user!ident@host", "please buy now", "#quassel-test"),
+    message("user!ident@host", "please buy now", "#kde"),
+    message("user!ident@host", "JOIN us today", "#kde", networkId = 2),
+    message("user!ident@host", "goodbye", "#inverted"),
+    message("user!ident@host", "hello there", "#inverted"),
+    message("inactive!ident@host", "hi", "#quassel"),
+    message("spammer!user@host", "join me", "#quassel"),
+    message("spammer!user@host", "hi", "#quassel", type = Message_Type.Join)
+  )
+
+  private val expected = listOf(
+    StrictnessType.SoftStrictness,
+    StrictnessType.HardStrictness,
+    StrictnessType.UnmatchedStrictness,
+    StrictnessType.SoftStrictness,
+    StrictnessType.UnmatchedStrictness,
+    StrictnessType.HardStrictness,
+    StrictnessType.SoftStrictness,
+    StrictnessType.UnmatchedStrictness,
+    StrictnessType.UnmatchedStrictness,
+    StrictnessType.HardStrictness,
+    StrictnessType.UnmatchedStrictness
+  )
+
+  @Test
+  fun testMatch() {
+    val matcher = IgnoreMatcher(rules)
+    for ((message, result) in messages.zip(expected)) {
+      // Run twice to also cover cached sender results
+      repeat(2) {
+        assertEquals(message.toString(), result, matcher.match(
+          message.content, message.sender, message.type,
+          networkNames.getValue(message.bufferInfo.networkId), message.bufferInfo.bufferName ?: ""
+        ))
+      }
+    }
+  }
+
+  @Test
+  fun testBatchMatch() {
+    val matcher = IgnoreMatcher(rules)
+    assertEquals(expected, matcher.match(messages, networkNames::getValue))
+    assertEquals(expected, matcher.match(messages.sortedBy { it.bufferInfo.bufferName },
+                                         networkNames::getValue).let { sorted ->
+      val order = messages.indices.sortedBy { messages[it].bufferInfo.bufferName }
+      List(sorted.size) { sorted[order.indexOf(it)] }
+    })
+  }
+
+  @Test
+  fun testEmpty() {
+    val matcher = IgnoreMatcher(emptyList())
+    assertEquals(List(messages.size) { StrictnessType.UnmatchedStrictness },
+                 matcher.match(messages, networkNames::getValue))
+  }
+}
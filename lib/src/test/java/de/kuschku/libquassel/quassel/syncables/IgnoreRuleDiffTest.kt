@@ -0,0 +1,85 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager.*
+import org.junit.Assert.*
+import org.junit.Test
+
+class IgnoreRuleDiffTest {
+  private val networkRule = IgnoreListItem(
+    IgnoreType.SenderIgnore, "*!*@spam.example", false, StrictnessType.SoftStrictness,
+    ScopeType.NetworkScope, "freenode", true
+  )
+  private val channelRule = IgnoreListItem(
+    IgnoreType.MessageIgnore, "buy now", false, StrictnessType.HardStrictness,
+    ScopeType.ChannelScope, "#quassel*", true
+  )
+  private val globalRule = IgnoreListItem(
+    IgnoreType.SenderIgnore, "troll!*@*", false, StrictnessType.HardStrictness,
+    ScopeType.GlobalScope, "", true
+  )
+
+  @Test
+  fun testUnknownPrevious() {
+    val diff = IgnoreRuleDiff.of(null, listOf(networkRule))
+    assertTrue(diff.isGlobal)
+    assertFalse(diff.isEmpty())
+  }
+
+  @Test
+  fun testUnchanged() {
+    val diff = IgnoreRuleDiff.of(listOf(networkRule, channelRule), listOf(networkRule, channelRule))
+    assertTrue(diff.isEmpty())
+  }
+
+  @Test
+  fun testScopes() {
+    val diff = IgnoreRuleDiff.of(listOf(networkRule), listOf(networkRule, channelRule))
+    assertFalse(diff.isGlobal)
+    assertEquals(setOf(channelRule), diff.changed)
+    assertTrue(diff.affectsBuffer("#quassel-test"))
+    assertFalse(diff.affectsBuffer("#kde"))
+    assertFalse(diff.affectsNetwork("freenode"))
+
+    val toggled = IgnoreRuleDiff.of(listOf(networkRule), listOf(networkRule.copy(isActive = false)))
+    assertTrue(toggled.affectsNetwork("freenode"))
+    assertFalse(toggled.affectsNetwork("oftc"))
+
+    assertTrue(IgnoreRuleDiff.of(emptyList(), listOf(globalRule)).isGlobal)
+  }
+
+  @Test
+  fun testInactiveAndCtcpRules() {
+    val inactive = channelRule.copy(isActive = false)
+    val ctcp = channelRule.copy(type = IgnoreType.CtcpIgnore)
+    assertTrue(IgnoreRuleDiff.of(listOf(inactive), listOf(ctcp)).isEmpty())
+  }
+
+  @Test
+  fun testMerge() {
+    val first = IgnoreRuleDiff.of(emptyList(), listOf(networkRule))
+    val second = IgnoreRuleDiff.of(emptyList(), listOf(channelRule))
+    val merged = first + second
+    assertTrue(merged.affectsNetwork("freenode"))
+    assertTrue(merged.affectsBuffer("#quassel"))
+    assertTrue((merged + IgnoreRuleDiff.of(null, emptyList())).isGlobal)
+  }
+}
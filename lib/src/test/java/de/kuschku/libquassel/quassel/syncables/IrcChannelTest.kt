@@ -0,0 +1,80 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables
+
+import de.kuschku.libquassel.protocol.NetworkId
+import de.kuschku.libquassel.session.SignalProxy
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class IrcChannelTest {
+  @Test
+  fun testMemberOrder() {
+    val network = Network(NetworkId(1), SignalProxy.NULL)
+    network.addSupport("PREFIX", "(ov)@+")
+    val alice = network.newIrcUser("alice!alice@example.com")
+    val bob = network.newIrcUser("bob!bob@example.com")
+    val carol = network.newIrcUser("carol!carol@example.com")
+    val dave = network.newIrcUser("_dave!dave@example.com")
+    val channel = network.newIrcChannel("#quassel")
+    channel.joinIrcUsers(listOf("carol", "alice", "bob", "_dave"), listOf("", "v", "o", ""))
+
+    // Ordered by highest mode, then by nick ignoring leading special characters
+    assertEquals(listOf(bob, alice, carol, dave), channel.members())
+
+    channel.addUserMode(carol, "v")
+    channel.addUserMode(carol, "o")
+    assertEquals("ov", channel.userModes(carol))
+    assertEquals("@+", network.prefixesOf(channel.userModeBits(carol)))
+    assertEquals(listOf(bob, carol, alice, dave), channel.members())
+
+    channel.removeUserMode(carol, "o")
+    assertEquals("v", channel.userModes(carol))
+    assertEquals(listOf(bob, alice, carol, dave), channel.members())
+
+    alice.setNick("zed")
+    assertEquals(listOf(bob, carol, alice, dave), channel.members())
+
+    // Stored modes follow a changed prefix order
+    network.addSupport("PREFIX", "(vo)+@")
+    assertEquals("o", channel.userModes(bob))
+    assertEquals(listOf(carol, alice, bob, dave), channel.members())
+
+    channel.part(bob)
+    assertEquals(listOf(carol, alice, dave), channel.members())
+  }
+
+  @Test
+  fun testMemberOrderTies() {
+    val network = Network(NetworkId(1), SignalProxy.NULL)
+    val dave = network.newIrcUser("dave!dave@example.com")
+    val underscoreDave = network.newIrcUser("_dave!dave@example.com")
+    val channel = network.newIrcChannel("#quassel")
+    channel.joinIrcUsers(listOf("dave", "_dave"), listOf("", ""))
+
+    // Nicks equal apart from ignored characters are ordered by their raw nick
+    assertEquals(listOf(underscoreDave, dave), channel.members())
+
+    // Distinct users sharing a nick are all kept, in the order they were created
+    val twin = IrcUser("dave!twin@example.com", network, SignalProxy.NULL)
+    channel.joinIrcUser(twin)
+    assertEquals(listOf(underscoreDave, dave, twin), channel.members())
+  }
+}
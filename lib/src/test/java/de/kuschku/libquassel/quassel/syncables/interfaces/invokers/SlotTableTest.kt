@@ -0,0 +1,56 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.quassel.syncables.interfaces.invokers
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class SlotTableTest {
+  @Test
+  fun testLookup() {
+    val slots = (0 until 100).map { "slot$it" } + listOf("setNick", "setNick", "")
+    val table = SlotTable(slots)
+
+    for ((slotId, slot) in slots.withIndex().distinctBy { it.value }) {
+      assertEquals(slotId, table.indexOf(slot))
+    }
+    assertEquals(-1, table.indexOf("unknown"))
+    assertEquals(-1, table.indexOf("slot100"))
+  }
+
+  @Test
+  fun testBufferLookup() {
+    val table = SlotTable(listOf("setAway", "setNick", "quit"))
+    val buffer = ByteBuffer.wrap("__setNick__".toByteArray())
+
+    assertEquals(1, table[buffer, 2, 7])
+    assertEquals(-1, table[buffer, 2, 6])
+    assertEquals(0, buffer.position())
+  }
+
+  @Test
+  fun testRegisteredInvokers() {
+    val ircUser = Invokers.slotTable("IrcUser")!!
+    for ((slotId, slot) in Invokers.get("IrcUser")!!.slots.withIndex()) {
+      assertEquals(slotId, ircUser.indexOf(slot))
+    }
+  }
+}
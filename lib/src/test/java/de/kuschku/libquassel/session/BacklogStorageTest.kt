@@ -0,0 +1,43 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.session
+
+import de.kuschku.libquassel.protocol.MsgId
+import org.junit.Assert.*
+import org.junit.Test
+
+class BacklogStorageTest {
+  private fun ids(vararg ids: Long) = ids.map(::MsgId)
+
+  @Test
+  fun testCompleteRange() {
+    // A full page only covers the received messages up to the requested bound
+    assertEquals(5L..19L, BacklogStorage.completeRange(MsgId(-1), MsgId(20), 3, ids(5, 9, 14)))
+    // A partial page reaches down to the start of the history
+    assertEquals(0L..19L, BacklogStorage.completeRange(MsgId(-1), MsgId(20), 5, ids(5, 9, 14)))
+    // or to the requested lower bound
+    assertEquals(3L..19L, BacklogStorage.completeRange(MsgId(3), MsgId(20), 5, ids(5, 9, 14)))
+    // An empty response still covers the requested range
+    assertEquals(3L..19L, BacklogStorage.completeRange(MsgId(3), MsgId(20), 5, ids()))
+    // Without an upper bound, only up to the newest received message
+    assertEquals(5L..14L, BacklogStorage.completeRange(MsgId(-1), MsgId(-1), 3, ids(5, 9, 14)))
+    assertNull(BacklogStorage.completeRange(MsgId(-1), MsgId(-1), 3, ids()))
+  }
+}
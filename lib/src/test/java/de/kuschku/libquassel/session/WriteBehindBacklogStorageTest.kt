@@ -0,0 +1,138 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.session
+
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.quassel.BufferInfo
+import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.threeten.bp.Instant
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class WriteBehindBacklogStorageTest {
+  private class RecordingStorage(private val openBuffer: BufferId) : BacklogStorage {
+    val stored: MutableList<MsgId> = Collections.synchronizedList(mutableListOf())
+    val writers: MutableList<Thread> = Collections.synchronizedList(mutableListOf())
+
+    override fun updateIgnoreRules(session: ISession,
+                                   previous: List<IgnoreListManager.IgnoreListItem>?) = Unit
+
+    override fun storeMessages(session: ISession, vararg messages: Message) {
+      writers.add(Thread.currentThread())
+      messages.mapTo(stored, Message::messageId)
+    }
+
+    override fun storeMessages(session: ISession, messages: Iterable<Message>) {
+      writers.add(Thread.currentThread())
+      messages.mapTo(stored, Message::messageId)
+    }
+
+    override fun storeBacklog(session: ISession, bufferId: BufferId, first: MsgId, last: MsgId,
+                              limit: Int, messages: List<Message>) =
+      storeMessages(session, messages)
+
+    override fun clearMessages(bufferId: BufferId, idRange: LongRange) = Unit
+    override fun clearMessages(bufferId: BufferId) = Unit
+    override fun clearMessages() = Unit
+
+    override fun isBufferOpen(bufferId: BufferId) = bufferId == openBuffer
+  }
+
+  private fun message(id: Long, bufferId: BufferId) = Message(
+    MsgId(id),
+    Instant.EPOCH,
+    Message_Type.of(Message_Type.Plain),
+    Message_Flag.of(),
+    BufferInfo(
+      bufferId,
+      NetworkId(1),
+      Buffer_Type.of(Buffer_Type.ChannelBuffer),
+      -1,
+      "#quassel"
+    ),
+    "justJanne",
+    "",
+    "",
+    "",
+    ""
+  )
+
+  @Test
+  fun testOpenBufferIsWrittenImmediately() {
+    val delegate = RecordingStorage(openBuffer = BufferId(2))
+    val batches = LinkedBlockingQueue<List<MsgId>>()
+    val storage = WriteBehindBacklogStorage(delegate, maxDelayMillis = 10_000) { _, batch ->
+      batches.add(batch.map(Message::messageId))
+    }
+
+    // Messages for other buffers wait for the batch
+    storage.storeMessages(ISession.NULL, message(1, BufferId(1)))
+    assertTrue(delegate.stored.isEmpty())
+    assertEquals(1, storage.stats().queueDepth)
+
+    // Messages for the open buffer are written without waiting, together with everything queued
+    val caller = Thread.currentThread()
+    storage.storeMessages(ISession.NULL, message(2, BufferId(2)))
+    assertEquals(listOf(MsgId(1), MsgId(2)), batches.poll(10, TimeUnit.SECONDS))
+    assertEquals(0, storage.stats().queueDepth)
+    assertTrue(delegate.writers.none { it == caller })
+
+    storage.close()
+  }
+
+  @Test
+  fun testLiveBatchesDoNotWaitForBulkWrites() {
+    val delegate = RecordingStorage(openBuffer = BufferId(2))
+    val batches = LinkedBlockingQueue<List<MsgId>>()
+    val storage = WriteBehindBacklogStorage(delegate, maxDelayMillis = 10_000) { _, batch ->
+      batches.add(batch.map(Message::messageId))
+    }
+
+    val release = CountDownLatch(1)
+    storage.afterStored { release.await() }
+    storage.storeMessages(ISession.NULL, message(1, BufferId(2)))
+    assertEquals(listOf(MsgId(1)), batches.poll(10, TimeUnit.SECONDS))
+    release.countDown()
+
+    storage.close()
+  }
+
+  @Test
+  fun testAfterStored() {
+    val delegate = RecordingStorage(openBuffer = BufferId(2))
+    val storage = WriteBehindBacklogStorage(delegate, maxDelayMillis = 10_000)
+
+    storage.storeMessages(ISession.NULL, message(1, BufferId(1)))
+    storage.storeBacklog(ISession.NULL, BufferId(1), MsgId(-1), MsgId(-1), -1,
+                         listOf(message(0, BufferId(1))))
+    val observed = LinkedBlockingQueue<List<MsgId>>()
+    storage.afterStored { observed.add(delegate.stored.toList()) }
+
+    // Runs after both the queued live message and the backlog were written
+    assertEquals(listOf(MsgId(1), MsgId(0)), observed.poll(10, TimeUnit.SECONDS))
+
+    storage.close()
+  }
+}
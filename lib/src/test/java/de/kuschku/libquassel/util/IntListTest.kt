@@ -0,0 +1,54 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class IntListTest {
+  @Test
+  fun testInsertAndRemove() {
+    val list = IntList(1)
+    for (i in 0 until 20) list.add(i)
+    list.add(0, -1)
+    list.add(5, 100)
+    assertEquals(22, list.size)
+    assertEquals(-1, list[0])
+    assertEquals(100, list[5])
+    assertEquals(5, list.indexOf(100))
+    assertEquals(100, list.removeAt(5))
+    assertTrue(list.remove(-1))
+    assertFalse(list.remove(-1))
+    assertEquals((0 until 20).toList(), list.map { it })
+  }
+
+  @Test
+  fun testBinarySearch() {
+    val list = IntList.of(listOf(1, 3, 5, 7))
+    assertEquals(2, list.binarySearch(5))
+    assertEquals(-3, list.binarySearch(4))
+    assertEquals(-5, list.binarySearch(9))
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun testOutOfBounds() {
+    IntList.of(listOf(1, 2))[2]
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class IntLongMapTest {
+  @Test
+  fun testRandomOperations() {
+    val random = Random(1)
+    val expected = HashMap<Int, Long>()
+    val map = IntLongMap()
+    repeat(50000) {
+      // Negative and colliding keys, removals exercise the backward shift
+      val key = random.nextInt(2000) - 1000
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key) != null, map.remove(key))
+      } else {
+        val value = random.nextLong()
+        expected[key] = value
+        map.put(key, value)
+      }
+      assertEquals(expected.size, map.size)
+      assertEquals(expected[key] ?: -1L, map.get(key, -1L))
+    }
+    val actual = HashMap<Int, Long>()
+    map.forEach { key, value -> actual[key] = value }
+    assertEquals(expected, actual)
+  }
+
+  @Test
+  fun testClear() {
+    val map = IntLongMap()
+    for (i in 0 until 100) map.put(i, i.toLong())
+    map.clear()
+    assertTrue(map.isEmpty())
+    assertFalse(map.containsKey(5))
+    map.put(5, 7L)
+    assertEquals(7L, map.get(5, 0L))
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LongRangeSetTest {
+  @Test
+  fun testPlus() {
+    // Disjoint ranges stay separate and sorted
+    assertEquals(listOf(1L..3L, 10L..12L), LongRangeSet.of(10L..12L, 1L..3L).ranges)
+    // Adjacent ranges are merged
+    assertEquals(listOf(1L..12L), LongRangeSet.of(1L..3L, 4L..12L).ranges)
+    // Overlapping ranges are merged
+    assertEquals(listOf(1L..12L), LongRangeSet.of(1L..5L, 4L..12L).ranges)
+    // A range bridging several ranges merges all of them
+    assertEquals(listOf(0L..30L),
+                 LongRangeSet.of(0L..2L, 5L..7L, 20L..30L).plus(3L..19L).ranges)
+    // Empty ranges are ignored
+    assertEquals(LongRangeSet.EMPTY, LongRangeSet.of(LongRange.EMPTY))
+  }
+
+  @Test
+  fun testMinus() {
+    val set = LongRangeSet.of(1L..10L, 20L..30L)
+    // Removing from the middle splits a range
+    assertEquals(listOf(1L..3L, 7L..10L, 20L..30L), set.minus(4L..6L).ranges)
+    // Removing across ranges cuts both
+    assertEquals(listOf(1L..4L, 26L..30L), set.minus(5L..25L).ranges)
+    // Removing a superset drops a range
+    assertEquals(listOf(20L..30L), set.minus(0L..15L).ranges)
+    // Removing a gap changes nothing
+    assertEquals(set, set.minus(11L..19L))
+  }
+
+  @Test
+  fun testLookup() {
+    val set = LongRangeSet.of(1L..10L, 20L..30L)
+    assertEquals(1L..10L, set.rangeContaining(1))
+    assertEquals(20L..30L, set.rangeContaining(25))
+    assertNull(set.rangeContaining(15))
+    assertNull(set.rangeContaining(0))
+    assertNull(set.rangeContaining(31))
+    assertTrue(10L in set)
+    assertFalse(11L in set)
+
+    assertNull(set.rangeBelow(1))
+    assertEquals(1L..10L, set.rangeBelow(11))
+    assertEquals(1L..10L, set.rangeBelow(20))
+    assertEquals(1L..10L, set.rangeBelow(25))
+    assertEquals(20L..30L, set.rangeBelow(31))
+  }
+}
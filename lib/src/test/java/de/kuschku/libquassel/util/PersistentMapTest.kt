@@ -0,0 +1,82 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class PersistentMapTest {
+  /**
+   * Key with a configurable hash, to force collisions
+   */
+  private data class Key(val name: String, val hash: Int) {
+    override fun hashCode() = hash
+  }
+
+  @Test
+  fun testRandomOperations() {
+    val random = Random(1)
+    val expected = HashMap<Key, Int>()
+    var map = PersistentMap.empty<Key, Int>()
+    repeat(20000) {
+      // Few distinct hashes, so collisions and deep branches both occur
+      val key = Key("key${random.nextInt(500)}", random.nextInt(300) * 0x01010101)
+      if (random.nextInt(3) == 0) {
+        expected.remove(key)
+        map = map.remove(key)
+      } else {
+        val value = random.nextInt(10)
+        expected[key] = value
+        map = map.put(key, value)
+      }
+      assertEquals(expected.size, map.size)
+      assertEquals(expected[key], map[key])
+    }
+    assertEquals(expected, map)
+    assertEquals(expected.hashCode(), map.hashCode())
+    assertEquals(expected.keys, map.keys)
+  }
+
+  @Test
+  fun testSnapshots() {
+    val original = PersistentMap.of("a" to 1, "b" to 2)
+    val modified = original.put("c", 3).remove("a")
+    // Older versions are never modified
+    assertEquals(mapOf("a" to 1, "b" to 2), original)
+    assertEquals(mapOf("b" to 2, "c" to 3), modified)
+    // No-op changes return the same instance
+    assertSame(original, original.put("a", 1))
+    assertSame(original, original.remove("d"))
+  }
+
+  @Test
+  fun testCollisions() {
+    val a = Key("a", 42)
+    val b = Key("b", 42)
+    val c = Key("c", 42)
+    val map = PersistentMap.of(a to 1, b to 2, c to 3)
+    assertEquals(3, map.size)
+    assertEquals(2, map[b])
+    assertEquals(mapOf(a to 1, c to 3), map.remove(b))
+    assertEquals(mapOf(c to 3), map.remove(b).remove(a))
+    assertTrue(map.remove(a).remove(b).remove(c).isEmpty())
+  }
+}
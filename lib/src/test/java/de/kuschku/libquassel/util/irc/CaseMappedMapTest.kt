@@ -0,0 +1,92 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.irc
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class CaseMappedMapTest {
+  @Test
+  fun testCaseMapping() {
+    val irc = CaseMappedMap<Int>(IrcCaseMappers.irc)
+    irc["Nick[away]^"] = 1
+    assertEquals(1, irc["nick{AWAY}~"])
+    assertEquals(1, irc["NICK[away]^"])
+    assertNull(irc["nick[away]-"])
+
+    val unicode = CaseMappedMap<Int>(IrcCaseMappers.unicode)
+    unicode["Nick[away]"] = 1
+    assertEquals(1, unicode["NICK[AWAY]"])
+    assertNull(unicode["nick{away}"])
+  }
+
+  @Test
+  fun testPutRemove() {
+    val map = CaseMappedMap<Int>(IrcCaseMappers.irc)
+    for (i in 0 until 1000) {
+      assertNull(map.put("User$i", i))
+    }
+    assertEquals(1000, map.size)
+    assertEquals(42, map.put("USER42", -42))
+    assertEquals(1000, map.size)
+    // The key keeps the case it was inserted with
+    assertTrue(map.keys().contains("User42"))
+
+    for (i in 0 until 1000 step 2) {
+      assertEquals(if (i == 42) -42 else i, map.remove("user$i"))
+    }
+    assertEquals(500, map.size)
+    for (i in 0 until 1000) {
+      assertEquals(if (i % 2 == 0) null else i, map["user$i"])
+    }
+    assertEquals((1 until 1000 step 2).toSet(), map.values().toSet())
+
+    map.clear()
+    assertTrue(map.isEmpty())
+    assertNull(map["user1"])
+  }
+
+  @Test
+  fun testWithCaseMapper() {
+    val map = CaseMappedMap<Int>(IrcCaseMappers.unicode)
+    map["#a[b]"] = 1
+    map["#A{B}"] = 2
+    assertEquals(2, map.size)
+
+    val irc = map.withCaseMapper(IrcCaseMappers.irc)
+    assertEquals(1, irc.size)
+    assertNotNull(irc["#a{b}"])
+    assertSame(irc, irc.withCaseMapper(IrcCaseMappers.irc))
+  }
+
+  @Test
+  fun testComparator() {
+    val irc = IrcCaseMappers.irc
+    assertEquals(0, irc.compare("Nick[a]", "nick{A}"))
+    assertTrue(irc.compare("alice", "Bob") < 0)
+    assertTrue(irc.compare("bob", "Bobby") < 0)
+    assertTrue(irc.equalsIgnoreCase("Nick[a]^", "NICK{A}~"))
+    assertFalse(irc.equalsIgnoreCase("nick", "nick_"))
+    assertEquals(irc.hashCodeIgnoreCase("Nick[a]"), irc.hashCodeIgnoreCase("nick{A}"))
+
+    assertEquals(listOf("alice", "Bob", "carol"),
+                 listOf("carol", "Bob", "alice").sortedWith(IrcCaseMappers.unicode))
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class ByteStringTableTest {
+  @Test
+  fun testLookup() {
+    val names = listOf("IrcUser", "IrcChannel", "Network", "BufferSyncer", "setNick", "")
+    val table = ByteStringTable(names)
+    assertEquals(names.size, table.size)
+
+    for (name in names) {
+      val interned = table[name.toByteArray()]
+      assertEquals(name, interned)
+      assertSame(names.first { it == name }, interned)
+    }
+
+    assertNull(table["IrcUsers".toByteArray()])
+    assertNull(table["IrcUse".toByteArray()])
+    assertNull(ByteStringTable(emptyList())["IrcUser".toByteArray()])
+  }
+
+  @Test
+  fun testLookupInBuffer() {
+    val table = ByteStringTable(listOf("setNick", "quit"))
+
+    val buffer = ByteBuffer.allocateDirect(32)
+    buffer.putInt(1234)
+    buffer.put("setNick".toByteArray())
+    buffer.position(2)
+
+    assertEquals("setNick", table[buffer, 4, 7])
+    assertNull(table[buffer, 4, 6])
+    assertEquals(2, buffer.position())
+  }
+
+  @Test
+  fun testManyEntries() {
+    val names = (0 until 1000).map { "slot$it" }
+    val table = ByteStringTable(names)
+    for (name in names) {
+      assertEquals(name, table[name.toByteArray()])
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class ChainedByteBufferTest {
+  @Test
+  fun testBulkPutAcrossSegments() {
+    val buffer = ChainedByteBuffer(bufferSize = 16)
+    val data = ByteArray(100) { it.toByte() }
+
+    buffer.putInt(0x01020304)
+    buffer.put(data)
+    buffer.put(ByteBuffer.wrap(data, 10, 50))
+    assertEquals(154, buffer.size)
+
+    val result = buffer.toBuffer()
+    assertEquals(154, result.remaining())
+    assertEquals(0x01020304, result.int)
+    for (i in 0 until 100)
+      assertEquals(i.toByte(), result.get())
+    for (i in 10 until 60)
+      assertEquals(i.toByte(), result.get())
+  }
+
+  @Test
+  fun testSegments() {
+    val buffer = ChainedByteBuffer(bufferSize = 16)
+    buffer.put(ByteArray(40) { 1 })
+
+    val segments = buffer.segments()
+    assertEquals(3, segments.size)
+    assertEquals(40, segments.sumBy(ByteBuffer::remaining))
+
+    // Views must not disturb further writes
+    buffer.put(2)
+    assertEquals(41, buffer.toBuffer().remaining())
+  }
+
+  @Test
+  fun testSegmentReuse() {
+    val buffer = ChainedByteBuffer(bufferSize = 16, retainedSize = 32)
+    buffer.put(ByteArray(64))
+    val first = buffer.segments()[0]
+    assertEquals(64, buffer.highWaterMark)
+
+    buffer.clear()
+    assertEquals(0, buffer.size)
+    assertTrue(buffer.segments()[0].array() === first.array())
+    assertEquals(0, buffer.segments()[0].remaining())
+
+    buffer.putLong(1L)
+    assertEquals(8, buffer.size)
+    assertEquals(64, buffer.highWaterMark)
+    assertEquals(1L, buffer.toBuffer().long)
+  }
+}
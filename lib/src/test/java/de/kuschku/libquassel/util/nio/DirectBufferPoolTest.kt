@@ -0,0 +1,85 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class DirectBufferPoolTest {
+  @Test
+  fun testSizeClasses() {
+    val pool = DirectBufferPool(minSize = 512, maxSize = 4096)
+
+    val small = pool.acquire(1)
+    assertEquals(512, small.capacity())
+    assertEquals(1, small.limit())
+    assertTrue(small.isDirect)
+
+    val exact = pool.acquire(1024)
+    assertEquals(1024, exact.capacity())
+
+    val rounded = pool.acquire(1025)
+    assertEquals(2048, rounded.capacity())
+
+    val oversized = pool.acquire(5000)
+    assertEquals(5000, oversized.capacity())
+
+    assertEquals(512L + 1024 + 2048 + 5000, pool.stats().bytesInFlight)
+
+    pool.release(small)
+    pool.release(exact)
+    pool.release(rounded)
+    pool.release(oversized)
+
+    val stats = pool.stats()
+    assertEquals(0L, stats.bytesInFlight)
+    assertEquals(512L + 1024 + 2048, stats.bytesPooled)
+    assertEquals(0L, stats.hits)
+    assertEquals(4L, stats.misses)
+  }
+
+  @Test
+  fun testReuse() {
+    val pool = DirectBufferPool(minSize = 512, maxSize = 4096)
+
+    val first = pool.acquire(700)
+    first.putInt(42)
+    pool.release(first)
+
+    val second = pool.acquire(600)
+    assertSame(first, second)
+    assertEquals(0, second.position())
+    assertEquals(600, second.limit())
+    assertEquals(1L, pool.stats().hits)
+    assertEquals(1L, pool.stats().misses)
+  }
+
+  @Test
+  fun testRetentionLimit() {
+    val pool = DirectBufferPool(minSize = 512, maxSize = 4096, buffersPerClass = 2)
+
+    val buffers = (0 until 4).map { pool.acquire(512) }
+    buffers.forEach(pool::release)
+
+    assertEquals(1024L, pool.stats().bytesPooled)
+    pool.clear()
+    assertEquals(0L, pool.stats().bytesPooled)
+  }
+}
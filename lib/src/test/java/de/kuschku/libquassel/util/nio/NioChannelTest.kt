@@ -0,0 +1,401 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import de.kuschku.libquassel.connection.HostnameVerifier
+import de.kuschku.libquassel.connection.SocketAddress
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.security.KeyStore
+import java.security.cert.CertificateException
+import java.security.cert.X509Certificate
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import javax.net.ssl.*
+
+class NioChannelTest {
+  private lateinit var acceptor: ServerSocketChannel
+  private lateinit var client: SocketChannel
+  private lateinit var server: SocketChannel
+
+  @Before
+  fun setUp() {
+    acceptor = ServerSocketChannel.open()
+    acceptor.bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+    client = SocketChannel.open(acceptor.localAddress)
+    client.configureBlocking(false)
+    server = acceptor.accept()
+    server.configureBlocking(false)
+  }
+
+  @After
+  fun tearDown() {
+    client.close()
+    server.close()
+    acceptor.close()
+  }
+
+  @Test
+  fun testPartialReads() {
+    val channel = NioChannel(client)
+    val dst = ByteBuffer.allocate(8)
+    assertEquals(0, channel.read(dst))
+
+    writeRaw(ByteBuffer.wrap(byteArrayOf(1, 2, 3)))
+    await { channel.read(dst); dst.position() == 3 }
+
+    // Only part of this fits into dst, the rest has to be kept for the next read
+    writeRaw(ByteBuffer.wrap(byteArrayOf(4, 5, 6, 7, 8, 9, 10)))
+    readFully(channel, dst)
+    assertArrayEquals(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8), dst.array())
+
+    val rest = ByteBuffer.allocate(2)
+    readFully(channel, rest)
+    assertArrayEquals(byteArrayOf(9, 10), rest.array())
+
+    server.close()
+    await { channel.read(ByteBuffer.allocate(1)) == -1 }
+  }
+
+  @Test
+  fun testDeflateRoundTrip() {
+    val channel = NioChannel(client).withCompression()
+    val payload = payload(200_000)
+
+    channel.write(ByteBuffer.wrap(payload))
+    channel.flush()
+    val inflater = Inflater()
+    val received = ByteArrayOutputStream()
+    val raw = ByteBuffer.allocate(8192)
+    val inflated = ByteArray(8192)
+    await {
+      raw.clear()
+      server.read(raw)
+      inflater.setInput(raw.array(), 0, raw.position())
+      while (true) {
+        val length = inflater.inflate(inflated)
+        if (length == 0) break
+        received.write(inflated, 0, length)
+      }
+      received.size() == payload.size
+    }
+    assertArrayEquals(payload, received.toByteArray())
+
+    val deflater = Deflater()
+    deflater.setInput(payload)
+    val compressed = ByteArrayOutputStream()
+    val deflated = ByteArray(8192)
+    while (true) {
+      val length = deflater.deflate(deflated, 0, deflated.size, Deflater.SYNC_FLUSH)
+      compressed.write(deflated, 0, length)
+      if (length < deflated.size) break
+    }
+    writeRaw(ByteBuffer.wrap(compressed.toByteArray()))
+    val dst = ByteBuffer.allocate(payload.size)
+    readFully(channel, dst)
+    assertArrayEquals(payload, dst.array())
+  }
+
+  @Test
+  fun testWriteLimit() {
+    val channel = NioChannel(client, maxBufferedSize = 256 * 1024)
+    val chunk = ByteArray(64 * 1024)
+    try {
+      // The peer never reads, so the socket buffers fill up eventually
+      repeat(1024) {
+        channel.write(ByteBuffer.wrap(chunk))
+      }
+      fail("Writes were accepted although the peer is not reading")
+    } catch (e: ClosedChannelException) {
+      fail("Connection was closed before the limit was reached")
+    } catch (e: IOException) {
+      // expected
+    }
+    assertFalse(channel.isOpen)
+    try {
+      channel.write(ByteBuffer.wrap(chunk))
+      fail("Writes were accepted after the connection failed")
+    } catch (e: ClosedChannelException) {
+      // expected
+    }
+  }
+
+  @Test
+  fun testHandshake() {
+    val tls = TlsServer()
+    val sessions = mutableListOf<SSLSession>()
+    val channel = NioChannel(client)
+    channel.handshakeListener = { sessions.add(it) }
+    channel.withSSL(TrustAll, AcceptAll, address())
+
+    // Written before the handshake, held back until the peer has been verified
+    channel.write(ByteBuffer.wrap("ping".toByteArray()))
+    channel.flush()
+    assertNull(channel.sslSession)
+
+    handshake(channel, tls)
+    assertEquals(1, sessions.size)
+    assertNotNull(channel.sslSession)
+
+    await { tls.pump(); tls.appIn.position() == 4 }
+    assertEquals("ping", String(tls.appIn.array(), 0, 4))
+  }
+
+  @Test
+  fun testBufferUnderflow() {
+    val tls = TlsServer()
+    val channel = NioChannel(client).withSSL(TrustAll, AcceptAll, address())
+    handshake(channel, tls)
+
+    // A record arriving byte by byte can only be unwrapped once it is complete
+    val record = tls.encrypt("hello".toByteArray())
+    val dst = ByteBuffer.allocate(5)
+    while (record.remaining() > 1) {
+      writeRaw(ByteBuffer.wrap(byteArrayOf(record.get())))
+      assertEquals(0, channel.read(dst))
+    }
+    writeRaw(record)
+    readFully(channel, dst)
+    assertEquals("hello", String(dst.array()))
+  }
+
+  @Test
+  fun testBufferOverflow() {
+    val tls = TlsServer()
+    val channel = NioChannel(client).withSSL(TrustAll, AcceptAll, address())
+    handshake(channel, tls)
+
+    // Several full records at once don't fit into the plaintext buffer together
+    val inbound = payload(100_000)
+    writeRaw(tls.encrypt(inbound))
+    val dst = ByteBuffer.allocate(inbound.size)
+    readFully(channel, dst)
+    assertArrayEquals(inbound, dst.array())
+
+    // Neither does the wrapped form of a large write fit into the network buffer
+    val outbound = payload(200_000)
+    channel.write(ByteBuffer.wrap(outbound))
+    channel.flush()
+    await { channel.onWritable(); tls.pump(); tls.appIn.position() == outbound.size }
+    assertArrayEquals(outbound, Arrays.copyOf(tls.appIn.array(), outbound.size))
+  }
+
+  @Test
+  fun testHostnameMismatch() {
+    val tls = TlsServer()
+    val sessions = mutableListOf<SSLSession>()
+    val channel = NioChannel(client)
+    channel.handshakeListener = { sessions.add(it) }
+    channel.withSSL(TrustAll, RejectAll, address())
+    channel.write(ByteBuffer.wrap("secret".toByteArray()))
+    channel.flush()
+
+    val dst = ByteBuffer.allocate(16)
+    var sent = false
+    try {
+      await {
+        channel.read(dst)
+        tls.pump()
+        // Application data sent right after the handshake must not be delivered either
+        if (tls.handshakeFinished && !sent) {
+          writeRaw(tls.encrypt("welcome".toByteArray()))
+          sent = true
+        }
+        false
+      }
+    } catch (e: SSLException) {
+      // expected
+    }
+
+    assertFalse(channel.isOpen)
+    assertTrue(sessions.isEmpty())
+    assertNull(channel.sslSession)
+    assertEquals(0, dst.position())
+    tls.pump()
+    assertEquals(0, tls.appIn.position())
+  }
+
+  @Test
+  fun testUntrustedCertificate() {
+    val tls = TlsServer()
+    val channel = NioChannel(client).withSSL(TrustNone, AcceptAll, address())
+    channel.write(ByteBuffer.wrap("secret".toByteArray()))
+    channel.flush()
+
+    val dst = ByteBuffer.allocate(16)
+    try {
+      await { channel.read(dst); tls.pump(); false }
+    } catch (e: SSLException) {
+      // expected
+    }
+    assertNull(channel.sslSession)
+    assertEquals(0, dst.position())
+    assertEquals(0, tls.appIn.position())
+  }
+
+  /**
+   * Server side of a TLS connection, driven from the test thread
+   */
+  private inner class TlsServer {
+    val engine: SSLEngine = serverContext().createSSLEngine().apply {
+      useClientMode = false
+    }
+    val appIn: ByteBuffer = ByteBuffer.allocate(1 shl 20)
+    var handshakeFinished = false
+    private val netIn = ByteBuffer.allocate(1 shl 18).apply { flip() }
+
+    fun pump() {
+      netIn.compact()
+      server.read(netIn)
+      netIn.flip()
+      while (true) {
+        when (engine.handshakeStatus) {
+          SSLEngineResult.HandshakeStatus.NEED_TASK -> while (true) {
+            (engine.delegatedTask ?: break).run()
+          }
+          SSLEngineResult.HandshakeStatus.NEED_WRAP -> {
+            val out = ByteBuffer.allocate(engine.session.packetBufferSize)
+            record(engine.wrap(ByteBuffer.allocate(0), out))
+            out.flip()
+            writeRaw(out)
+          }
+          else                                      -> {
+            if (!netIn.hasRemaining())
+              return
+            val result = record(engine.unwrap(netIn, appIn))
+            if (result.status != SSLEngineResult.Status.OK || result.bytesConsumed() == 0)
+              return
+          }
+        }
+      }
+    }
+
+    /**
+     * Wraps [data] into as many records as necessary
+     */
+    fun encrypt(data: ByteArray): ByteBuffer {
+      val src = ByteBuffer.wrap(data)
+      val out = ByteBuffer.allocate(data.size + 16 * engine.session.packetBufferSize)
+      do {
+        engine.wrap(src, out)
+      } while (src.hasRemaining())
+      out.flip()
+      return out
+    }
+
+    private fun record(result: SSLEngineResult): SSLEngineResult {
+      if (result.handshakeStatus == SSLEngineResult.HandshakeStatus.FINISHED)
+        handshakeFinished = true
+      return result
+    }
+  }
+
+  private fun handshake(channel: NioChannel, tls: TlsServer) {
+    val probe = ByteBuffer.allocate(1)
+    await {
+      channel.read(probe)
+      tls.pump()
+      tls.handshakeFinished && channel.sslSession != null
+    }
+    assertEquals(0, probe.position())
+  }
+
+  private fun address() =
+    SocketAddress("localhost", (acceptor.localAddress as InetSocketAddress).port)
+
+  private fun writeRaw(data: ByteBuffer) {
+    while (data.hasRemaining()) {
+      server.write(data)
+    }
+  }
+
+  private fun readFully(channel: NioChannel, dst: ByteBuffer) = await {
+    channel.read(dst)
+    !dst.hasRemaining()
+  }
+
+  private fun await(condition: () -> Boolean) {
+    val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+    while (!condition()) {
+      if (System.nanoTime() > deadline)
+        fail("Timed out")
+      Thread.sleep(1)
+    }
+  }
+
+  private object AcceptAll : HostnameVerifier {
+    override fun checkValid(address: SocketAddress, chain: Array<out X509Certificate>) = Unit
+  }
+
+  private object RejectAll : HostnameVerifier {
+    override fun checkValid(address: SocketAddress, chain: Array<out X509Certificate>) =
+      throw SSLException("Hostname mismatch")
+  }
+
+  private object TrustAll : X509TrustManager {
+    override fun checkClientTrusted(chain: Array<out X509Certificate>, authType: String) = Unit
+    override fun checkServerTrusted(chain: Array<out X509Certificate>, authType: String) = Unit
+    override fun getAcceptedIssuers() = emptyArray<X509Certificate>()
+  }
+
+  private object TrustNone : X509TrustManager {
+    override fun checkClientTrusted(chain: Array<out X509Certificate>, authType: String) = Unit
+    override fun checkServerTrusted(chain: Array<out X509Certificate>, authType: String) =
+      throw CertificateException("Untrusted")
+
+    override fun getAcceptedIssuers() = emptyArray<X509Certificate>()
+  }
+
+  companion object {
+    private val PASSWORD = "password".toCharArray()
+
+    private fun serverContext(): SSLContext {
+      val keyStore = KeyStore.getInstance("PKCS12")
+      NioChannelTest::class.java.getResourceAsStream("/nio/test-keystore.p12").use {
+        keyStore.load(it, PASSWORD)
+      }
+      val keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm())
+      keyManagers.init(keyStore, PASSWORD)
+      val context = SSLContext.getInstance("TLS")
+      context.init(keyManagers.keyManagers, null, null)
+      return context
+    }
+
+    /**
+     * Compressible, but not trivially so
+     */
+    private fun payload(size: Int): ByteArray {
+      val random = Random(1)
+      return ByteArray(size) { (random.nextInt(16) + it / 1000).toByte() }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.nio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class StringInternTableTest {
+  @Test
+  fun testLatin1() {
+    val table = StringInternTable()
+    val buffer = ByteBuffer.wrap("xxchanModesxx".toByteArray(Charsets.ISO_8859_1))
+
+    val first = table.latin1(buffer, 2, 9)
+    val second = table.latin1(buffer, 2, 9)
+    assertEquals("chanModes", first)
+    assertSame(first, second)
+    assertEquals(0, buffer.position())
+  }
+
+  @Test
+  fun testUtf16() {
+    val table = StringInternTable()
+    val buffer = ByteBuffer.allocateDirect(64)
+    buffer.put("ignoreType".toByteArray(Charsets.UTF_16BE))
+
+    val first = table.utf16(buffer, 0, 10)
+    val second = table.utf16(buffer, 0, 10)
+    assertEquals("ignoreType", first)
+    assertSame(first, second)
+    assertNotSame(first, table.utf16(buffer, 0, 6))
+    assertEquals("ignore", table.utf16(buffer, 0, 6))
+  }
+
+  @Test
+  fun testMaxLength() {
+    val table = StringInternTable(maxLength = 4)
+    val buffer = ByteBuffer.wrap("longer".toByteArray(Charsets.ISO_8859_1))
+
+    assertEquals("longer", table.latin1(buffer, 0, 6))
+    assertNotSame(table.latin1(buffer, 0, 6), table.latin1(buffer, 0, 6))
+  }
+
+  @Test
+  fun testIsWellFormedUtf16() {
+    // Encoded by hand, as the encoder would replace unpaired surrogates
+    fun check(value: String): Boolean {
+      val buffer = ByteBuffer.allocate(value.length * 2)
+      value.forEach { buffer.putChar(it) }
+      return StringInternTable.isWellFormedUtf16(buffer, 0, value.length)
+    }
+
+    assertTrue(check("justJanne"))
+    assertTrue(check("\uD83D\uDE00"))
+    assertFalse(check("\uD83D"))
+    assertFalse(check("\uDE00a"))
+    assertFalse(check("a\uD83Da"))
+  }
+
+  @Test
+  fun testIsAscii() {
+    val ascii = ByteBuffer.wrap("#quassel".toByteArray())
+    val utf8 = ByteBuffer.wrap("#quässel".toByteArray())
+    assertTrue(StringInternTable.isAscii(ascii, 0, ascii.remaining()))
+    assertFalse(StringInternTable.isAscii(utf8, 0, utf8.remaining()))
+    assertTrue(StringInternTable.isAscii(utf8, 0, 3))
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.libquassel.util.rxjava
+
+import de.kuschku.libquassel.util.PersistentMap
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LiveMapTest {
+  @Test
+  fun testChanges() {
+    val map = LiveMap<String, Int>()
+    map["a"] = 1
+    val changes = map.changes().test()
+    map["b"] = 2
+    map["a"] = 3
+    map["a"] = 3
+    map.remove("b")
+    map.remove("c")
+    map.clear()
+    changes.assertValues(
+      MapChange.Reset(PersistentMap.of("a" to 1)),
+      MapChange.Added("b", 2),
+      MapChange.Changed("a", 1, 3),
+      MapChange.Removed("b", 2),
+      MapChange.Reset(PersistentMap.empty())
+    )
+  }
+
+  @Test
+  fun testSnapshot() {
+    val map = LiveMap<String, Int>()
+    map["a"] = 1
+    val snapshot = map.snapshot()
+    map["a"] = 2
+    assertEquals(mapOf("a" to 1), snapshot)
+    assertEquals(mapOf("a" to 2), map.snapshot())
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+@file:Suppress("NOTHING_TO_INLINE")
+
+package de.kuschku.quasseldroid.persistence.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.BufferId_Type
+import de.kuschku.libquassel.protocol.MsgId_Type
+import de.kuschku.libquassel.util.LongRangeSet
+import de.kuschku.quasseldroid.persistence.models.BacklogRange
+
+@Dao
+interface BacklogRangeDao {
+  @Query("SELECT * FROM backlog_range WHERE bufferId = :bufferId ORDER BY firstId ASC")
+  fun _find(bufferId: BufferId_Type): List<BacklogRange>
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun replace(vararg entities: BacklogRange)
+
+  @Query("DELETE FROM backlog_range WHERE bufferId = :bufferId AND lastId < :below")
+  fun _dropBelow(bufferId: BufferId_Type, below: MsgId_Type)
+
+  @Query("UPDATE backlog_range SET firstId = :below WHERE bufferId = :bufferId AND firstId < :below")
+  fun _trimBelow(bufferId: BufferId_Type, below: MsgId_Type)
+
+  @Query("DELETE FROM backlog_range")
+  fun clear()
+
+  @Query("DELETE FROM backlog_range WHERE bufferId = :bufferId")
+  fun _clear(bufferId: BufferId_Type)
+}
+
+inline fun BacklogRangeDao.find(bufferId: BufferId) =
+  LongRangeSet.of(_find(bufferId.id).map { it.firstId..it.lastId })
+
+inline fun BacklogRangeDao.replace(bufferId: BufferId, ranges: LongRangeSet) {
+  _clear(bufferId.id)
+  replace(*ranges.ranges.map { BacklogRange(bufferId.id, it.first, it.last) }.toTypedArray())
+}
+
+/**
+ * Cuts the ranges of a buffer off below [below], after older messages were evicted
+ */
+inline fun BacklogRangeDao.trimBelow(bufferId: BufferId, below: MsgId_Type) {
+  _dropBelow(bufferId.id, below)
+  _trimBelow(bufferId.id, below)
+}
+
+inline fun BacklogRangeDao.clear(bufferId: BufferId) =
+  _clear(bufferId.id)
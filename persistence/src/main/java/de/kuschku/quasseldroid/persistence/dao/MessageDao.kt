@@ -23,72 +23,116 @@ package de.kuschku.quasseldroid.persistence.dao
 import androidx.lifecycle.LiveData
 import androidx.paging.DataSource
 import androidx.room.Dao
-import androidx.room.Insert
-import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import de.kuschku.libquassel.protocol.*
+import de.kuschku.quasseldroid.persistence.models.BufferUsage
+import de.kuschku.quasseldroid.persistence.models.IgnoreCandidate
 import de.kuschku.quasseldroid.persistence.models.MessageData
 import io.reactivex.Flowable
 
 @Dao
 interface MessageDao {
-  @Query("SELECT * FROM message")
+  @Query("SELECT * FROM message_view")
   fun all(): List<MessageData>
 
   @Query("SELECT DISTINCT bufferId FROM message")
   fun _buffers(): List<BufferId_Type>
 
-  @Query("SELECT * FROM message WHERE messageId = :messageId")
+  @Query("SELECT * FROM message_view WHERE messageId = :messageId")
   fun find(messageId: MsgId_Type): MessageData?
 
-  @Query("SELECT * FROM message WHERE bufferId = :bufferId ORDER BY messageId ASC")
+  @Query("SELECT * FROM message_view WHERE bufferId = :bufferId ORDER BY messageId ASC")
   fun _findByBufferId(bufferId: BufferId_Type): List<MessageData>
 
-  @Query("SELECT * FROM message WHERE (bufferId = :bufferId AND type & ~ :type > 0 AND ignored = 0) OR (networkId = :networkId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 4 AND :showUserNotices != 0) OR (bufferId = :serverBufferId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 1 AND :showServerNotices != 0) OR (bufferId = :serverBufferId AND type & 4096 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND :showErrors != 0) ORDER BY messageId DESC")
+  @Query("SELECT message_view.* FROM message_display d CROSS JOIN message_view ON message_view.messageId = d.messageId WHERE d.displayBufferId = :bufferId AND d.ignored = 0 AND ((d.routes & 1 != 0 AND d.type & ~ :type > 0) OR (d.routes & 2 != 0 AND d.networkId = :networkId AND :showUserNotices != 0) OR (d.routes & 4 != 0 AND d.bufferId = :serverBufferId AND :showServerNotices != 0) OR (d.routes & 8 != 0 AND d.bufferId = :serverBufferId AND :showErrors != 0)) ORDER BY d.messageId DESC")
   fun _findByBufferIdPaged(networkId: NetworkId_Type, serverBufferId: BufferId_Type,
                            bufferId: BufferId_Type, type: Int,
                            showUserNotices: Boolean, showServerNotices: Boolean,
                            showErrors: Boolean): DataSource.Factory<Int, MessageData>
 
-  @Query("SELECT * FROM message WHERE bufferId = :bufferId ORDER BY messageId DESC LIMIT 1")
+  @Query("SELECT * FROM message_view WHERE bufferId = :bufferId ORDER BY messageId DESC LIMIT 1")
   fun _findLastByBufferId(bufferId: BufferId_Type): MessageData?
 
-  @Query("SELECT * FROM message WHERE bufferId = :bufferId ORDER BY messageId DESC LIMIT 1")
+  @Query("SELECT * FROM message_view WHERE bufferId = :bufferId ORDER BY messageId DESC LIMIT 1")
   fun _lastMsgId(bufferId: BufferId_Type): LiveData<MessageData>
 
   @Query("SELECT messageId FROM message WHERE bufferId = :bufferId ORDER BY messageId ASC LIMIT 1")
   fun _firstMsgId(bufferId: BufferId_Type): Flowable<MsgId_Type>
 
-  @Query("SELECT messageId FROM message WHERE (bufferId = :bufferId AND type & ~ :type > 0 AND ignored = 0) OR (networkId = :networkId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 4 AND :showUserNotices != 0) OR (bufferId = :serverBufferId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 1 AND :showServerNotices != 0) OR (bufferId = :serverBufferId AND type & 4096 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND :showErrors != 0) ORDER BY messageId ASC LIMIT 1")
+  @Query("SELECT d.messageId FROM message_display d WHERE d.displayBufferId = :bufferId AND d.ignored = 0 AND ((d.routes & 1 != 0 AND d.type & ~ :type > 0) OR (d.routes & 2 != 0 AND d.networkId = :networkId AND :showUserNotices != 0) OR (d.routes & 4 != 0 AND d.bufferId = :serverBufferId AND :showServerNotices != 0) OR (d.routes & 8 != 0 AND d.bufferId = :serverBufferId AND :showErrors != 0)) ORDER BY d.messageId ASC LIMIT 1")
   fun _firstVisibleMsgId(networkId: NetworkId_Type, serverBufferId: BufferId_Type,
                          bufferId: BufferId_Type, type: Int,
                          showUserNotices: Boolean, showServerNotices: Boolean,
                          showErrors: Boolean): MsgId_Type?
 
-  @Query("SELECT * FROM message WHERE bufferId = :bufferId ORDER BY messageId ASC LIMIT 1")
+  @Query("SELECT * FROM message_view WHERE bufferId = :bufferId ORDER BY messageId ASC LIMIT 1")
   fun _findFirstByBufferId(bufferId: BufferId_Type): MessageData?
 
-  @Query("SELECT EXISTS(SELECT 1 FROM message WHERE (bufferId = :bufferId AND type & ~ :type > 0 AND ignored = 0) OR (networkId = :networkId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 4 AND :showUserNotices != 0) OR (bufferId = :serverBufferId AND type & 2 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND currentBufferType = 1 AND :showServerNotices != 0) OR (bufferId = :serverBufferId AND type & 4096 > 0 AND ignored = 0 AND currentBufferId = :bufferId AND :showErrors != 0))")
+  @Query("SELECT EXISTS(SELECT 1 FROM message_display d WHERE d.displayBufferId = :bufferId AND d.ignored = 0 AND ((d.routes & 1 != 0 AND d.type & ~ :type > 0) OR (d.routes & 2 != 0 AND d.networkId = :networkId AND :showUserNotices != 0) OR (d.routes & 4 != 0 AND d.bufferId = :serverBufferId AND :showServerNotices != 0) OR (d.routes & 8 != 0 AND d.bufferId = :serverBufferId AND :showErrors != 0)))")
   fun _hasVisibleMessages(networkId: NetworkId_Type, serverBufferId: BufferId_Type,
                           bufferId: BufferId_Type, type: Int,
                           showUserNotices: Boolean, showServerNotices: Boolean,
                           showErrors: Boolean): Boolean
 
-  @Insert(onConflict = OnConflictStrategy.REPLACE)
-  fun save(vararg entities: MessageData)
+  @Query("SELECT count(*) FROM message WHERE type & 7 > 0")
+  fun _countIgnoreCandidates(): Int
+
+  @Query("SELECT count(*) FROM message WHERE type & 7 > 0 AND (networkId IN (:networkIds) OR bufferId IN (:bufferIds))")
+  fun _countIgnoreCandidates(networkIds: List<NetworkId_Type>,
+                             bufferIds: List<BufferId_Type>): Int
+
+  @Query("SELECT messageId, type, bufferId, networkId, sender, content, ignored FROM message_view WHERE messageId > :after AND type & 7 > 0 ORDER BY messageId ASC LIMIT :limit")
+  fun _ignoreCandidates(after: MsgId_Type, limit: Int): List<IgnoreCandidate>
+
+  @Query("SELECT messageId, type, bufferId, networkId, sender, content, ignored FROM message_view WHERE messageId > :after AND type & 7 > 0 AND (networkId IN (:networkIds) OR bufferId IN (:bufferIds)) ORDER BY messageId ASC LIMIT :limit")
+  fun _ignoreCandidates(networkIds: List<NetworkId_Type>, bufferIds: List<BufferId_Type>,
+                        after: MsgId_Type, limit: Int): List<IgnoreCandidate>
+
+  @Query("UPDATE message SET ignored = :ignored WHERE messageId IN (:messageIds)")
+  fun _setIgnored(messageIds: List<MsgId_Type>, ignored: Boolean)
+
+  @Query("UPDATE message_display SET ignored = :ignored WHERE messageId IN (:messageIds)")
+  fun _setDisplayIgnored(messageIds: List<MsgId_Type>, ignored: Boolean)
 
   @Query("UPDATE message SET bufferId = :bufferId1 WHERE bufferId = :bufferId2")
   fun _merge(bufferId1: BufferId_Type, bufferId2: BufferId_Type)
 
+  @Query("UPDATE OR REPLACE message_display SET displayBufferId = :bufferId1 WHERE displayBufferId = :bufferId2")
+  fun _mergeDisplay(bufferId1: BufferId_Type, bufferId2: BufferId_Type)
+
+  @Query("UPDATE message_display SET bufferId = :bufferId1 WHERE bufferId = :bufferId2")
+  fun _mergeDisplayBuffer(bufferId1: BufferId_Type, bufferId2: BufferId_Type)
+
   @Query("SELECT count(*) FROM message WHERE bufferId = :bufferId")
   fun _bufferSize(bufferId: BufferId_Type): Int
 
+  @Query("SELECT count(*) FROM message WHERE bufferId = :bufferId AND messageId BETWEEN :first AND :last AND ignored = 0 AND type & ~ :type != 0")
+  fun _countVisible(bufferId: BufferId_Type, first: MsgId_Type, last: MsgId_Type, type: Int): Int
+
+  @Query("SELECT * FROM message_view WHERE messageId IN (:messageIds)")
+  fun _findAll(messageIds: List<MsgId_Type>): List<MessageData>
+
+  @Query("SELECT bufferId, count(*) AS count, max(messageId) AS lastMessageId FROM message GROUP BY bufferId")
+  fun bufferUsage(): List<BufferUsage>
+
+  @Query("SELECT bufferId, count(*) AS count, max(messageId) AS lastMessageId FROM message WHERE time < :time GROUP BY bufferId")
+  fun _expiredUsage(time: Long): List<BufferUsage>
+
+  @Query("DELETE FROM message WHERE messageId IN (SELECT messageId FROM message WHERE bufferId = :bufferId AND time < :time ORDER BY time ASC LIMIT :limit)")
+  fun _evictExpired(bufferId: BufferId_Type, time: Long, limit: Int): Int
+
+  @Query("DELETE FROM message WHERE messageId IN (SELECT messageId FROM message WHERE bufferId = :bufferId ORDER BY messageId ASC LIMIT :limit)")
+  fun _evictOldest(bufferId: BufferId_Type, limit: Int): Int
+
   @Query("DELETE FROM message")
   fun clearMessages()
 
   @Query("DELETE FROM message WHERE bufferId = :bufferId")
   fun clearMessages(bufferId: BufferId_Type)
 
+  @Query("DELETE FROM message_display WHERE displayBufferId = :bufferId")
+  fun clearDisplay(bufferId: BufferId_Type)
+
   @Query(
     "DELETE FROM message WHERE bufferId = :bufferId AND messageId >= :first AND messageId <= :last"
   )
@@ -146,8 +190,25 @@ inline fun MessageDao.hasVisibleMessages(networkId: NetworkId, serverBufferId: B
                       showServerNotices,
                       showErrors)
 
-inline fun MessageDao.merge(bufferId1: BufferId, bufferId2: BufferId) =
+inline fun MessageDao.merge(bufferId1: BufferId, bufferId2: BufferId) {
   _merge(bufferId1.id, bufferId2.id)
+  _mergeDisplay(bufferId1.id, bufferId2.id)
+  _mergeDisplayBuffer(bufferId1.id, bufferId2.id)
+}
+
+/**
+ * Updates the ignored flag of messages and of their display routes
+ */
+inline fun MessageDao.setIgnored(messageIds: List<MsgId_Type>, ignored: Boolean) {
+  _setIgnored(messageIds, ignored)
+  _setDisplayIgnored(messageIds, ignored)
+}
 
 inline fun MessageDao.bufferSize(bufferId: BufferId) =
   _bufferSize(bufferId.id)
+
+inline fun MessageDao.countVisible(bufferId: BufferId, first: MsgId, last: MsgId, type: Int) =
+  _countVisible(bufferId.id, first.id, last.id, type)
+
+inline fun MessageDao.findAll(messageIds: List<MsgId>) =
+  _findAll(messageIds.map { it.id })
@@ -0,0 +1,49 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.dao
+
+import androidx.room.Dao
+import androidx.room.RawQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.NetworkId
+import de.kuschku.quasseldroid.persistence.models.SearchHit
+import de.kuschku.quasseldroid.persistence.util.MessageSearch
+
+/**
+ * Room can't validate queries on the full-text index, see
+ * [de.kuschku.quasseldroid.persistence.models.MessageFts], so they are built by [MessageSearch]
+ */
+@Dao
+interface SearchDao {
+  @RawQuery
+  fun _search(query: SupportSQLiteQuery): List<SearchHit>
+}
+
+/**
+ * Finds cached messages matching [query], optionally in a single buffer or network. Returns up to
+ * [limit] hits following [after], the last hit of the previous page.
+ */
+fun SearchDao.search(query: String, bufferId: BufferId? = null, networkId: NetworkId? = null,
+                     after: SearchHit? = null, limit: Int = 50): List<SearchHit> {
+  val terms = MessageSearch.terms(query)
+  if (terms.isEmpty()) return emptyList()
+  return _search(MessageSearch.query(terms, bufferId, networkId, after, limit))
+}
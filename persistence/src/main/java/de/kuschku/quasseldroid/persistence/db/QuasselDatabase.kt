@@ -28,9 +28,11 @@ import androidx.sqlite.db.SupportSQLiteDatabase
 import de.kuschku.quasseldroid.persistence.dao.*
 import de.kuschku.quasseldroid.persistence.models.*
 import de.kuschku.quasseldroid.persistence.util.MessageTypeConverter
+import de.kuschku.quasseldroid.persistence.util.SenderDictionary
 
-@Database(entities = [MessageData::class, Filtered::class, SslValidityWhitelistEntry::class, SslHostnameWhitelistEntry::class, NotificationData::class],
-          version = 21)
+@Database(entities = [MessageRecord::class, SenderData::class, MessageDisplay::class, Filtered::class, SslValidityWhitelistEntry::class, SslHostnameWhitelistEntry::class, NotificationData::class, BacklogRange::class],
+          views = [MessageData::class],
+          version = 27)
 @TypeConverters(MessageTypeConverter::class)
 abstract class QuasselDatabase : RoomDatabase() {
   abstract fun message(): MessageDao
@@ -38,6 +40,25 @@ abstract class QuasselDatabase : RoomDatabase() {
   abstract fun validityWhitelist(): SslValidityWhitelistDao
   abstract fun hostnameWhitelist(): SslHostnameWhitelistDao
   abstract fun notifications(): NotificationDao
+  abstract fun backlogRanges(): BacklogRangeDao
+  abstract fun search(): SearchDao
+
+  /**
+   * Sender dictionary shared by everything writing to or evicting from this database
+   */
+  val senders by lazy { SenderDictionary(this) }
+
+  /**
+   * Removes all cached messages together with everything derived from them
+   */
+  fun clearMessages() {
+    runInTransaction(Runnable {
+      message().clearMessages()
+      backlogRanges().clear()
+      MessageFts.rebuild(openHelper.writableDatabase)
+    })
+    senders.prune()
+  }
 
   object Creator {
     private var database: QuasselDatabase? = null
@@ -170,6 +191,83 @@ abstract class QuasselDatabase : RoomDatabase() {
                   database.execSQL("ALTER TABLE message ADD currentBufferType INT DEFAULT 0 NOT NULL;")
                   database.execSQL("CREATE INDEX index_message_currentBufferType ON message(currentBufferType);")
                 }
+              },
+              object : Migration(21, 22) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("CREATE TABLE IF NOT EXISTS `message_display` (`displayBufferId` INTEGER NOT NULL, `messageId` INTEGER NOT NULL, `routes` INTEGER NOT NULL, PRIMARY KEY(`displayBufferId`, `messageId`), FOREIGN KEY(`messageId`) REFERENCES `message`(`messageId`) ON UPDATE NO ACTION ON DELETE CASCADE );")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_display_messageId` ON `message_display` (`messageId`);")
+                  database.execSQL("INSERT OR REPLACE INTO message_display (displayBufferId, messageId, routes) SELECT bufferId, messageId, 1 FROM message;")
+                  database.execSQL("INSERT OR REPLACE INTO message_display (displayBufferId, messageId, routes) SELECT currentBufferId, messageId, routes | (CASE WHEN currentBufferId = bufferId THEN 1 ELSE 0 END) FROM (SELECT messageId, bufferId, currentBufferId, (CASE WHEN type & 2 != 0 AND currentBufferType = 4 THEN 2 ELSE 0 END) | (CASE WHEN type & 2 != 0 AND currentBufferType = 1 THEN 4 ELSE 0 END) | (CASE WHEN type & 4096 != 0 THEN 8 ELSE 0 END) AS routes FROM message) WHERE routes != 0;")
+                }
+              },
+              object : Migration(22, 23) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `message_fts` USING FTS4(`sender` TEXT NOT NULL, `content` TEXT NOT NULL, content=`message`);")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_BEFORE_UPDATE BEFORE UPDATE ON `message` BEGIN DELETE FROM `message_fts` WHERE `docid`=OLD.`rowid`; END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_BEFORE_DELETE BEFORE DELETE ON `message` BEGIN DELETE FROM `message_fts` WHERE `docid`=OLD.`rowid`; END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_AFTER_UPDATE AFTER UPDATE ON `message` BEGIN INSERT INTO `message_fts`(`docid`, `sender`, `content`) VALUES (NEW.`rowid`, NEW.`sender`, NEW.`content`); END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_AFTER_INSERT AFTER INSERT ON `message` BEGIN INSERT INTO `message_fts`(`docid`, `sender`, `content`) VALUES (NEW.`rowid`, NEW.`sender`, NEW.`content`); END")
+                  database.execSQL("INSERT INTO message_fts(message_fts) VALUES('rebuild');")
+                }
+              },
+              object : Migration(23, 24) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("CREATE TABLE IF NOT EXISTS `sender` (`senderId` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `sender` TEXT NOT NULL, `senderPrefixes` TEXT NOT NULL, `realName` TEXT NOT NULL, `avatarUrl` TEXT NOT NULL);")
+                  database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_sender_sender_senderPrefixes_realName_avatarUrl` ON `sender` (`sender`, `senderPrefixes`, `realName`, `avatarUrl`);")
+                  database.execSQL("INSERT OR IGNORE INTO sender (sender, senderPrefixes, realName, avatarUrl) SELECT DISTINCT sender, senderPrefixes, realName, avatarUrl FROM message;")
+                  database.execSQL("CREATE TABLE IF NOT EXISTS `message_new` (`messageId` INTEGER NOT NULL, `time` INTEGER NOT NULL, `type` INTEGER NOT NULL, `flag` INTEGER NOT NULL, `bufferId` INTEGER NOT NULL, `currentBufferId` INTEGER NOT NULL, `currentBufferType` INTEGER NOT NULL, `networkId` INTEGER NOT NULL, `senderId` INTEGER NOT NULL, `content` TEXT NOT NULL, `ignored` INTEGER NOT NULL, PRIMARY KEY(`messageId`));")
+                  database.execSQL("INSERT INTO message_new (messageId, time, type, flag, bufferId, currentBufferId, currentBufferType, networkId, senderId, content, ignored) SELECT m.messageId, m.time, m.type, m.flag, m.bufferId, m.currentBufferId, m.currentBufferType, m.networkId, s.senderId, m.content, m.ignored FROM message m INNER JOIN sender s ON s.sender = m.sender AND s.senderPrefixes = m.senderPrefixes AND s.realName = m.realName AND s.avatarUrl = m.avatarUrl;")
+                  database.execSQL("DROP TABLE message_fts;")
+                  database.execSQL("DROP TABLE message;")
+                  database.execSQL("ALTER TABLE message_new RENAME TO message;")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_bufferId` ON `message` (`bufferId`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_ignored` ON `message` (`ignored`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_currentBufferId` ON `message` (`currentBufferId`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_currentBufferType` ON `message` (`currentBufferType`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_networkId` ON `message` (`networkId`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_senderId` ON `message` (`senderId`);")
+                  database.execSQL("CREATE VIEW `message_view` AS ${MessageData.VIEW_QUERY}")
+                  // Dropping the message table may have cascaded into the display routes
+                  database.execSQL("DELETE FROM message_display;")
+                  database.execSQL("INSERT OR REPLACE INTO message_display (displayBufferId, messageId, routes) SELECT bufferId, messageId, 1 FROM message;")
+                  database.execSQL("INSERT OR REPLACE INTO message_display (displayBufferId, messageId, routes) SELECT currentBufferId, messageId, routes | (CASE WHEN currentBufferId = bufferId THEN 1 ELSE 0 END) FROM (SELECT messageId, bufferId, currentBufferId, (CASE WHEN type & 2 != 0 AND currentBufferType = 4 THEN 2 ELSE 0 END) | (CASE WHEN type & 2 != 0 AND currentBufferType = 1 THEN 4 ELSE 0 END) | (CASE WHEN type & 4096 != 0 THEN 8 ELSE 0 END) AS routes FROM message) WHERE routes != 0;")
+                  database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `message_fts` USING FTS4(`content` TEXT NOT NULL, content=`message`);")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_BEFORE_UPDATE BEFORE UPDATE ON `message` BEGIN DELETE FROM `message_fts` WHERE `docid`=OLD.`rowid`; END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_BEFORE_DELETE BEFORE DELETE ON `message` BEGIN DELETE FROM `message_fts` WHERE `docid`=OLD.`rowid`; END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_AFTER_UPDATE AFTER UPDATE ON `message` BEGIN INSERT INTO `message_fts`(`docid`, `content`) VALUES (NEW.`rowid`, NEW.`content`); END")
+                  database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_message_fts_AFTER_INSERT AFTER INSERT ON `message` BEGIN INSERT INTO `message_fts`(`docid`, `content`) VALUES (NEW.`rowid`, NEW.`content`); END")
+                  database.execSQL("INSERT INTO message_fts(message_fts) VALUES('rebuild');")
+                }
+              },
+              object : Migration(24, 25) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("CREATE TABLE IF NOT EXISTS `backlog_range` (`bufferId` INTEGER NOT NULL, `firstId` INTEGER NOT NULL, `lastId` INTEGER NOT NULL, PRIMARY KEY(`bufferId`, `firstId`));")
+                }
+              },
+              object : Migration(25, 26) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_message_fts_BEFORE_UPDATE")
+                  database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_message_fts_BEFORE_DELETE")
+                  database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_message_fts_AFTER_UPDATE")
+                  database.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_message_fts_AFTER_INSERT")
+                  MessageFts.rebuild(database)
+                }
+              },
+              object : Migration(26, 27) {
+                override fun migrate(database: SupportSQLiteDatabase) {
+                  database.execSQL("CREATE TABLE IF NOT EXISTS `message_display_new` (`displayBufferId` INTEGER NOT NULL, `messageId` INTEGER NOT NULL, `routes` INTEGER NOT NULL, `type` INTEGER NOT NULL, `bufferId` INTEGER NOT NULL, `networkId` INTEGER NOT NULL, `ignored` INTEGER NOT NULL, PRIMARY KEY(`displayBufferId`, `messageId`), FOREIGN KEY(`messageId`) REFERENCES `message`(`messageId`) ON UPDATE NO ACTION ON DELETE CASCADE );")
+                  database.execSQL("INSERT INTO message_display_new (displayBufferId, messageId, routes, type, bufferId, networkId, ignored) SELECT d.displayBufferId, d.messageId, d.routes, m.type, m.bufferId, m.networkId, m.ignored FROM message_display d INNER JOIN message m ON m.messageId = d.messageId;")
+                  database.execSQL("DROP TABLE message_display;")
+                  database.execSQL("ALTER TABLE message_display_new RENAME TO message_display;")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_display_messageId` ON `message_display` (`messageId`);")
+                  database.execSQL("CREATE INDEX IF NOT EXISTS `index_message_display_displayBufferId_ignored_messageId` ON `message_display` (`displayBufferId`, `ignored`, `messageId`);")
+                }
+              }
+            ).addCallback(
+              object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                  db.execSQL(MessageFts.CREATE_QUERY)
+                }
               }
             ).build()
           }
@@ -0,0 +1,42 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+@file:Suppress("NOTHING_TO_INLINE")
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.BufferId_Type
+import de.kuschku.libquassel.protocol.MsgId_Type
+
+/**
+ * Range of message ids of a buffer of which all messages are stored, a range starting at 0
+ * reaches back to the start of the buffer's history
+ */
+@Entity(tableName = "backlog_range", primaryKeys = ["bufferId", "firstId"])
+data class BacklogRange(
+  @ColumnInfo(name = "bufferId")
+  var rawBufferId: BufferId_Type,
+  var firstId: MsgId_Type,
+  var lastId: MsgId_Type
+) {
+  inline val bufferId
+    get() = BufferId(rawBufferId)
+}
@@ -0,0 +1,44 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.ColumnInfo
+import de.kuschku.libquassel.protocol.*
+
+/**
+ * Subset of a stored message required to evaluate ignore rules
+ */
+data class IgnoreCandidate(
+  @ColumnInfo(name = "messageId")
+  var rawMessageId: MsgId_Type,
+  var type: Message_Types,
+  @ColumnInfo(name = "bufferId")
+  var rawBufferId: BufferId_Type,
+  @ColumnInfo(name = "networkId")
+  var rawNetworkId: NetworkId_Type,
+  var sender: String,
+  var content: String,
+  var ignored: Boolean
+) {
+  inline val bufferId
+    get() = BufferId(rawBufferId)
+  inline val networkId
+    get() = NetworkId(rawNetworkId)
+}
@@ -21,23 +21,16 @@
 package de.kuschku.quasseldroid.persistence.models
 
 import androidx.room.ColumnInfo
-import androidx.room.Entity
-import androidx.room.Index
-import androidx.room.PrimaryKey
+import androidx.room.DatabaseView
 import de.kuschku.libquassel.protocol.*
 import org.threeten.bp.Instant
 import java.io.Serializable
 
-@Entity(tableName = "message",
-        indices = [
-          Index("bufferId"),
-          Index("ignored"),
-          Index("currentBufferId"),
-          Index("currentBufferType"),
-          Index("networkId")
-        ])
+/**
+ * Message joined with its sender, see [MessageRecord] and [SenderData]
+ */
+@DatabaseView(value = MessageData.VIEW_QUERY, viewName = "message_view")
 data class MessageData(
-  @PrimaryKey
   @ColumnInfo(name = "messageId")
   var rawMessageId: MsgId_Type,
   var time: Instant,
@@ -67,6 +60,8 @@ data class MessageData(
     get() = NetworkId(rawNetworkId)
 
   companion object {
+    const val VIEW_QUERY = "SELECT message.messageId, message.time, message.type, message.flag, message.bufferId, message.currentBufferId, message.currentBufferType, message.networkId, sender.sender, sender.senderPrefixes, sender.realName, sender.avatarUrl, message.content, message.ignored FROM message INNER JOIN sender ON sender.senderId = message.senderId"
+
     inline fun of(
       messageId: MsgId,
       time: Instant,
@@ -0,0 +1,94 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.*
+import de.kuschku.libquassel.protocol.*
+import de.kuschku.libquassel.util.flag.hasFlag
+
+/**
+ * Routes a stored message into the buffer view it is displayed in. Every message is displayed
+ * in its own buffer, notices and errors can additionally be displayed in the buffer that was
+ * active when they were received.
+ *
+ * The columns of the message that decide whether it is visible are copied here, so a buffer view
+ * is filtered on the index of this table alone.
+ */
+@Entity(tableName = "message_display",
+        primaryKeys = ["displayBufferId", "messageId"],
+        foreignKeys = [
+          ForeignKey(entity = MessageRecord::class,
+                     parentColumns = ["messageId"],
+                     childColumns = ["messageId"],
+                     onDelete = ForeignKey.CASCADE)
+        ],
+        indices = [
+          Index("messageId"),
+          Index("displayBufferId", "ignored", "messageId")
+        ])
+data class MessageDisplay(
+  @ColumnInfo(name = "displayBufferId")
+  var rawDisplayBufferId: BufferId_Type,
+  @ColumnInfo(name = "messageId")
+  var rawMessageId: MsgId_Type,
+  var routes: Int,
+  var type: Message_Types,
+  @ColumnInfo(name = "bufferId")
+  var rawBufferId: BufferId_Type,
+  @ColumnInfo(name = "networkId")
+  var rawNetworkId: NetworkId_Type,
+  var ignored: Boolean
+) {
+  inline val displayBufferId
+    get() = BufferId(rawDisplayBufferId)
+  inline val messageId
+    get() = MsgId(rawMessageId)
+  inline val bufferId
+    get() = BufferId(rawBufferId)
+  inline val networkId
+    get() = NetworkId(rawNetworkId)
+
+  companion object {
+    /** Displayed in its own buffer */
+    const val ROUTE_BUFFER = 0x01
+    /** Notice displayed in the query that was active when it was received */
+    const val ROUTE_USER_NOTICE = 0x02
+    /** Notice displayed in the status buffer that was active when it was received */
+    const val ROUTE_SERVER_NOTICE = 0x04
+    /** Error displayed in the buffer that was active when it was received */
+    const val ROUTE_ERROR = 0x08
+
+    /**
+     * Routes of a message into the buffer that was active when it was received
+     */
+    fun currentBufferRoutes(type: Message_Types, currentBufferType: Buffer_Types): Int {
+      var routes = 0
+      if (type.hasFlag(Message_Type.Notice)) {
+        if (currentBufferType.toInt() == Buffer_Type.QueryBuffer.toInt())
+          routes = routes or ROUTE_USER_NOTICE
+        if (currentBufferType.toInt() == Buffer_Type.StatusBuffer.toInt())
+          routes = routes or ROUTE_SERVER_NOTICE
+      }
+      if (type.hasFlag(Message_Type.Error))
+        routes = routes or ROUTE_ERROR
+      return routes
+    }
+  }
+}
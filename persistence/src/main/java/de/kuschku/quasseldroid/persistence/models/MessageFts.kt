@@ -0,0 +1,62 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Full-text index over the sender and content of cached messages. The index is contentless, it
+ * only holds the tokens of each message under its id and is filled whenever a message is
+ * inserted, see [de.kuschku.quasseldroid.persistence.util.QuasselBacklogStorage].
+ *
+ * Contentless tables don't support deleting rows, so entries of deleted messages stay in the
+ * index until it is rebuilt and queries have to join the message table. Room can't describe such
+ * a table, so it is created when the database is opened instead of being an entity.
+ */
+object MessageFts {
+  const val COLUMN_SENDER = 0
+  const val COLUMN_TEXT = 1
+  const val COLUMNS = 2
+
+  const val CREATE_QUERY =
+    "CREATE VIRTUAL TABLE IF NOT EXISTS `message_fts` USING FTS4(`sender`, `text`, content=\"\")"
+
+  const val INSERT_QUERY = "INSERT INTO message_fts (docid, sender, text) VALUES (?, ?, ?)"
+
+  /**
+   * Recreates the index from the messages currently stored
+   */
+  fun rebuild(db: SupportSQLiteDatabase) {
+    db.execSQL("DROP TABLE IF EXISTS message_fts")
+    db.execSQL(CREATE_QUERY)
+    db.execSQL(
+      "INSERT INTO message_fts (docid, sender, text) SELECT messageId, sender, content FROM message_view"
+    )
+  }
+
+  /**
+   * Whether the index holds more entries of deleted messages than of stored ones
+   */
+  fun isMostlyStale(db: SupportSQLiteDatabase) = db.query(
+    "SELECT (SELECT count(*) FROM message_fts_docsize) > 2 * (SELECT count(*) FROM message)"
+  ).use {
+    it.moveToFirst() && it.getInt(0) != 0
+  }
+}
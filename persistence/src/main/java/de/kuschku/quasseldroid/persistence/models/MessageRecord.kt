@@ -0,0 +1,69 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+@file:Suppress("NOTHING_TO_INLINE")
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import de.kuschku.libquassel.protocol.*
+import org.threeten.bp.Instant
+
+/**
+ * Row of the message table, the sender is stored once in [SenderData] and referenced by id.
+ * Messages are read through [MessageData], which joins both again.
+ */
+@Entity(tableName = "message",
+        indices = [
+          Index("bufferId"),
+          Index("ignored"),
+          Index("currentBufferId"),
+          Index("currentBufferType"),
+          Index("networkId"),
+          Index("senderId")
+        ])
+data class MessageRecord(
+  @PrimaryKey
+  @ColumnInfo(name = "messageId")
+  var rawMessageId: MsgId_Type,
+  var time: Instant,
+  var type: Message_Types,
+  var flag: Message_Flags,
+  @ColumnInfo(name = "bufferId")
+  var rawBufferId: BufferId_Type,
+  @ColumnInfo(name = "currentBufferId")
+  var rawCurrentBufferId: BufferId_Type,
+  var currentBufferType: Buffer_Types,
+  @ColumnInfo(name = "networkId")
+  var rawNetworkId: NetworkId_Type,
+  var senderId: Long,
+  var content: String,
+  var ignored: Boolean
+) {
+  inline val messageId
+    get() = MsgId(rawMessageId)
+  inline val bufferId
+    get() = BufferId(rawBufferId)
+  inline val currentBufferId
+    get() = BufferId(rawCurrentBufferId)
+  inline val networkId
+    get() = NetworkId(rawNetworkId)
+}
@@ -0,0 +1,36 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.ColumnInfo
+import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.protocol.MsgId_Type
+
+/**
+ * Message matching a full-text search, messages with a higher rank match better
+ */
+class SearchHit(
+  @ColumnInfo(name = "messageId")
+  var rawMessageId: MsgId_Type,
+  var rank: Int
+) {
+  inline val messageId
+    get() = MsgId(rawMessageId)
+}
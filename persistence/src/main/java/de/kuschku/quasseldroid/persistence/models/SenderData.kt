@@ -0,0 +1,40 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.models
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * Dictionary of sender identities, most messages share their sender with many others
+ */
+@Entity(tableName = "sender",
+        indices = [
+          Index(value = ["sender", "senderPrefixes", "realName", "avatarUrl"], unique = true)
+        ])
+data class SenderData(
+  @PrimaryKey(autoGenerate = true)
+  var senderId: Long,
+  var sender: String,
+  var senderPrefixes: String,
+  var realName: String,
+  var avatarUrl: String
+)
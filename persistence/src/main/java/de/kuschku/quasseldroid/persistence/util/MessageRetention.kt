@@ -0,0 +1,240 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.util
+
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.BufferId_Type
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.DEBUG
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
+import de.kuschku.quasseldroid.persistence.dao.findFirstByBufferId
+import de.kuschku.quasseldroid.persistence.dao.trimBelow
+import de.kuschku.quasseldroid.persistence.db.QuasselDatabase
+import de.kuschku.quasseldroid.persistence.models.BufferUsage
+import de.kuschku.quasseldroid.persistence.models.MessageFts
+import java.io.Closeable
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps the message cache bounded. Periodically evicts messages older than the maximum age,
+ * trims buffers to their maximum size and, while the database is larger than its budget, evicts
+ * the oldest messages of the least recently accessed buffers. Every step runs in its own small
+ * transaction and a pass is interrupted as soon as [isIdle] returns false.
+ *
+ * Freed pages are returned to the file system through incremental vacuuming. Databases created
+ * without it have to be rewritten once by a full `VACUUM`, which blocks all other access to the
+ * database, so that only happens during an idle pass while [isCharging] returns true.
+ *
+ * Buffers are ranked by their last access in this process, then by their newest message. As the
+ * message cache is cleared on every connection, access times are not persisted.
+ */
+class MessageRetention(
+  private val db: QuasselDatabase,
+  private val policy: Policy = Policy(),
+  private val isIdle: () -> Boolean = { true },
+  private val isCharging: () -> Boolean = { false }
+) : Closeable {
+  data class Policy(
+    val maxMessagesPerBuffer: Int = 5_000,
+    val minMessagesPerBuffer: Int = 100,
+    val maxAgeMillis: Long = TimeUnit.DAYS.toMillis(30),
+    val maxDatabaseBytes: Long = 64L * 1024 * 1024,
+    val batchSize: Int = 256,
+    val intervalMillis: Long = TimeUnit.MINUTES.toMillis(5),
+    val vacuumPages: Int = 512
+  )
+
+  private val executor = Executors.newSingleThreadScheduledExecutor {
+    Thread(it, "MessageRetention").apply { isDaemon = true }
+  }
+  private var scheduled: ScheduledFuture<*>? = null
+
+  private val accessed = mutableMapOf<BufferId_Type, Long>()
+  private var accessCounter = 0L
+  private var incrementalVacuum = false
+
+  private val rowsEvicted = AtomicLong()
+  private val lastRunMillis = AtomicLong()
+  private val lastRunDuration = AtomicLong()
+
+  @Synchronized
+  fun start() {
+    if (scheduled == null) {
+      scheduled = executor.scheduleWithFixedDelay(::runPass, policy.intervalMillis,
+                                                  policy.intervalMillis, TimeUnit.MILLISECONDS)
+    }
+  }
+
+  /**
+   * Marks a buffer as most recently used, it will be evicted last
+   */
+  fun bufferAccessed(bufferId: BufferId) = synchronized(accessed) {
+    accessed[bufferId.id] = ++accessCounter
+  }
+
+  /**
+   * Schedules a pass to run as soon as possible
+   */
+  fun trimNow() {
+    executor.execute(::runPass)
+  }
+
+  private fun runPass() {
+    try {
+      val start = System.nanoTime()
+      val evicted = trim()
+      lastRunMillis.set(System.currentTimeMillis())
+      lastRunDuration.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+      if (evicted > 0) {
+        log(DEBUG, "MessageRetention",
+            "Evicted $evicted messages in ${lastRunDuration.get()}ms, ${stats()}")
+      }
+    } catch (e: Throwable) {
+      log(WARN, "MessageRetention", "Error encountered while trimming messages", e)
+    }
+  }
+
+  private fun trim(): Int {
+    var evicted = 0
+    val dao = db.message()
+
+    // Messages older than the maximum age, by their timestamp as message ids don't have to
+    // follow it, complete ranges end above the newest expired message of each buffer
+    val cutoff = System.currentTimeMillis() - policy.maxAgeMillis
+    for (expired in dao._expiredUsage(cutoff)) {
+      var count = 0
+      while (isIdle()) {
+        val batch = dao._evictExpired(expired.rawBufferId, cutoff, policy.batchSize)
+        count += batch
+        if (batch < policy.batchSize) break
+      }
+      evicted += count
+      if (count > 0) db.backlogRanges().trimBelow(expired.bufferId, expired.rawLastMessageId + 1)
+    }
+
+    // Buffers above their maximum size
+    for (usage in dao.bufferUsage()) {
+      var excess = usage.count - policy.maxMessagesPerBuffer
+      while (excess > 0 && isIdle()) {
+        val count = dao._evictOldest(usage.rawBufferId, minOf(excess, policy.batchSize))
+        if (count == 0) break
+        evicted += count
+        excess -= count
+        trimRanges(usage.bufferId)
+      }
+    }
+
+    // Least recently used buffers while above the byte budget
+    if (usedBytes() > policy.maxDatabaseBytes) {
+      val candidates = dao.bufferUsage().sortedWith(lruOrder()).toMutableList()
+      while (candidates.isNotEmpty() && isIdle() && usedBytes() > policy.maxDatabaseBytes) {
+        val usage = candidates.first()
+        val limit = minOf(usage.count - policy.minMessagesPerBuffer, policy.batchSize)
+        if (limit <= 0) {
+          candidates.removeAt(0)
+          continue
+        }
+        val count = dao._evictOldest(usage.rawBufferId, limit)
+        evicted += count
+        if (count > 0) trimRanges(usage.bufferId)
+        if (count < limit) candidates.removeAt(0)
+        else candidates[0] = usage.copy(count = usage.count - count)
+      }
+    }
+
+    rowsEvicted.addAndGet(evicted.toLong())
+    if (evicted > 0) db.senders.prune()
+    if (isIdle() && MessageFts.isMostlyStale(db.openHelper.readableDatabase)) {
+      db.runInTransaction(Runnable {
+        MessageFts.rebuild(db.openHelper.writableDatabase)
+      })
+    }
+    if (evicted > 0 && isIdle()) vacuum()
+    return evicted
+  }
+
+  /**
+   * Cuts the complete ranges of a buffer off below its oldest remaining message
+   */
+  private fun trimRanges(bufferId: BufferId) {
+    val oldest = db.message().findFirstByBufferId(bufferId)?.rawMessageId ?: Long.MAX_VALUE
+    db.backlogRanges().trimBelow(bufferId, oldest)
+  }
+
+  private fun lruOrder(): Comparator<BufferUsage> {
+    val accessed = synchronized(accessed) { accessed.toMap() }
+    return compareBy<BufferUsage>({ accessed[it.rawBufferId] ?: 0L }, { it.rawLastMessageId })
+  }
+
+  private fun vacuum() {
+    if (!incrementalVacuum) {
+      incrementalVacuum = pragma("auto_vacuum") == INCREMENTAL_VACUUM
+      if (!incrementalVacuum) {
+        // Switching the vacuum mode requires rewriting the database once, until then SQLite
+        // reuses the freed pages without shrinking the file
+        if (!isCharging()) return
+        db.openHelper.writableDatabase.execSQL("PRAGMA auto_vacuum = $INCREMENTAL_VACUUM")
+        db.openHelper.writableDatabase.execSQL("VACUUM")
+        incrementalVacuum = pragma("auto_vacuum") == INCREMENTAL_VACUUM
+        return
+      }
+    }
+    db.query("PRAGMA incremental_vacuum(${policy.vacuumPages})", null).use {
+      while (it.moveToNext()) Unit
+    }
+  }
+
+  private fun pragma(name: String) = db.query("PRAGMA $name", null).use {
+    if (it.moveToFirst()) it.getLong(0) else 0L
+  }
+
+  private fun usedBytes() =
+    (pragma("page_count") - pragma("freelist_count")) * pragma("page_size")
+
+  fun stats(): Stats {
+    val pageSize = pragma("page_size")
+    return Stats(
+      databaseBytes = pragma("page_count") * pageSize,
+      freeBytes = pragma("freelist_count") * pageSize,
+      rowsEvicted = rowsEvicted.get(),
+      lastRunMillis = lastRunMillis.get(),
+      lastRunDurationMillis = lastRunDuration.get()
+    )
+  }
+
+  override fun close() {
+    executor.shutdownNow()
+  }
+
+  data class Stats(
+    val databaseBytes: Long,
+    val freeBytes: Long,
+    val rowsEvicted: Long,
+    val lastRunMillis: Long,
+    val lastRunDurationMillis: Long
+  )
+
+  companion object {
+    private const val INCREMENTAL_VACUUM = 2L
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.util
+
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+import de.kuschku.libquassel.protocol.BufferId
+import de.kuschku.libquassel.protocol.NetworkId
+import de.kuschku.quasseldroid.persistence.models.MessageFts
+import de.kuschku.quasseldroid.persistence.models.SearchHit
+
+/**
+ * Builds queries on the full-text index of cached messages, see [MessageFts]. Every word of the
+ * input has to occur in the content or the sender of a message, the last one as prefix. Each
+ * word found in the content adds 2 to the rank of a hit, each word found in the sender adds 1.
+ *
+ * Hits are ordered by rank, then newest first, and paged by continuing after the last hit of the
+ * previous page, so every page is a single query no matter how many hits there are.
+ */
+object MessageSearch {
+  private const val TEXT_WEIGHT = 2
+  private const val SENDER_WEIGHT = 1
+
+  fun terms(input: String) = input.split(' ', '\t', '\n')
+    .map { it.replace("\"", "") }
+    .filter { it.isNotBlank() }
+
+  /**
+   * Converts search terms into an FTS query matching all of them, the last one as prefix
+   */
+  fun toFtsQuery(terms: List<String>) = terms.mapIndexed { index, term ->
+    if (index == terms.lastIndex) "\"$term*\"" else "\"$term\""
+  }.joinToString(" ")
+
+  fun query(terms: List<String>, bufferId: BufferId?, networkId: NetworkId?, after: SearchHit?,
+            limit: Int): SupportSQLiteQuery {
+    val rank = terms.indices.joinToString(" + ") {
+      "$TEXT_WEIGHT * ${found(it, MessageFts.COLUMN_TEXT)} + " +
+      "$SENDER_WEIGHT * ${found(it, MessageFts.COLUMN_SENDER)}"
+    }
+    val sql = StringBuilder()
+      .append("SELECT hit.messageId, hit.rank FROM (")
+      .append("SELECT messageId, $rank AS rank FROM (")
+      .append("SELECT docid AS messageId, hex(matchinfo(message_fts, 'x')) AS info ")
+      .append("FROM message_fts WHERE message_fts MATCH ?")
+      .append(")) hit CROSS JOIN message ON message.messageId = hit.messageId ")
+      .append("WHERE message.ignored = 0")
+    val args = mutableListOf<Any>(toFtsQuery(terms))
+    if (bufferId != null) {
+      sql.append(" AND message.bufferId = ?")
+      args.add(bufferId.id)
+    }
+    if (networkId != null) {
+      sql.append(" AND message.networkId = ?")
+      args.add(networkId.id)
+    }
+    if (after != null) {
+      sql.append(" AND (hit.rank < ? OR (hit.rank = ? AND hit.messageId < ?))")
+      args.add(after.rank)
+      args.add(after.rank)
+      args.add(after.rawMessageId)
+    }
+    sql.append(" ORDER BY hit.rank DESC, hit.messageId DESC LIMIT ?")
+    args.add(limit)
+    return SimpleSQLiteQuery(sql.toString(), args.toTypedArray())
+  }
+
+  /**
+   * Whether phrase [phrase] occurs in [column]: matchinfo 'x' holds three 32-bit integers per
+   * phrase and column, the first one counts the hits in this row, compared in hex as SQLite
+   * can't read integers from blobs
+   */
+  private fun found(phrase: Int, column: Int): String {
+    val start = 3 * (phrase * MessageFts.COLUMNS + column) * 8 + 1
+    return "(substr(info, $start, 8) != '00000000')"
+  }
+}
@@ -21,69 +21,308 @@ package de.kuschku.quasseldroid.persistence.util
 
 import de.kuschku.libquassel.protocol.BufferId
 import de.kuschku.libquassel.protocol.Message
+import de.kuschku.libquassel.protocol.MsgId
+import de.kuschku.libquassel.protocol.MsgId_Type
 import de.kuschku.libquassel.protocol.NetworkId
 import de.kuschku.libquassel.quassel.syncables.IgnoreListManager
+import de.kuschku.libquassel.quassel.syncables.IgnoreRuleDiff
 import de.kuschku.libquassel.session.BacklogStorage
 import de.kuschku.libquassel.session.ISession
+import de.kuschku.libquassel.util.LongRangeSet
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.Companion.log
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.DEBUG
+import de.kuschku.libquassel.util.compatibility.LoggingHandler.LogLevel.WARN
 import de.kuschku.libquassel.util.helper.safeValue
+import de.kuschku.quasseldroid.persistence.dao.clear
+import de.kuschku.quasseldroid.persistence.dao.find
+import de.kuschku.quasseldroid.persistence.dao.replace
+import de.kuschku.quasseldroid.persistence.dao.setIgnored
 import de.kuschku.quasseldroid.persistence.db.QuasselDatabase
+import de.kuschku.quasseldroid.persistence.models.BacklogRange
 import de.kuschku.quasseldroid.persistence.models.MessageData
+import de.kuschku.quasseldroid.persistence.models.MessageDisplay
+import de.kuschku.quasseldroid.persistence.models.MessageFts
 import io.reactivex.subjects.BehaviorSubject
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
-class QuasselBacklogStorage(private val db: QuasselDatabase) : BacklogStorage {
+/**
+ * Stores messages in bounded chunks, each chunk is written in its own transaction through
+ * precompiled insert statements instead of materializing an entity for every message. Each
+ * message is routed into the buffer views it is displayed in, see [MessageDisplay], and refers to
+ * its sender through the [SenderDictionary].
+ *
+ * For every buffer the ranges of message ids known to be stored completely are kept in
+ * [BacklogRange]s, so only the gaps between them have to be requested from the core.
+ */
+class QuasselBacklogStorage(
+  private val db: QuasselDatabase,
+  private val chunkSize: Int = 512
+) : BacklogStorage {
   val currentBuffer = BehaviorSubject.createDefault(BufferId(0))
 
-  override fun updateIgnoreRules(session: ISession) {
-    db.message().save(
-      *db.message().all().map {
-        it.copy(ignored = isIgnored(
-          session,
-          it))
-      }.toTypedArray()
+  override fun isBufferOpen(bufferId: BufferId) = currentBuffer.safeValue == bufferId
+
+  /**
+   * Time in milliseconds at which messages were last stored
+   */
+  @Volatile
+  var lastStored = 0L
+    private set
+
+  private val senders = db.senders
+
+  // Replaced rows are deleted explicitly, which tells whether the message is in the full-text
+  // index already
+  private val deleteStatement by lazy {
+    db.compileStatement("DELETE FROM message WHERE messageId = ?")
+  }
+
+  private val insertStatement by lazy {
+    db.compileStatement(
+      "INSERT INTO message (messageId, time, type, flag, bufferId, currentBufferId, currentBufferType, networkId, senderId, content, ignored) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+    )
+  }
+
+  private val insertFtsStatement by lazy {
+    db.compileStatement(MessageFts.INSERT_QUERY)
+  }
+
+  private val insertDisplayStatement by lazy {
+    db.compileStatement(
+      "INSERT OR REPLACE INTO message_display (displayBufferId, messageId, routes, type, bufferId, networkId, ignored) VALUES (?, ?, ?, ?, ?, ?, ?)"
     )
   }
 
+  private val ignoreExecutor = Executors.newSingleThreadExecutor {
+    Thread(it, "IgnoreRuleUpdater").apply { isDaemon = true }
+  }
+  private val ignoreGeneration = AtomicInteger()
+  private var pendingIgnoreDiff = IgnoreRuleDiff.EMPTY
+
+  /**
+   * Progress of the running ignore rule update, as processed to total candidate messages
+   */
+  val ignoreUpdateProgress = BehaviorSubject.createDefault(0 to 0)
+
+  override fun updateIgnoreRules(session: ISession,
+                                 previous: List<IgnoreListManager.IgnoreListItem>?) {
+    val diff = IgnoreRuleDiff.of(previous, session.ignoreListManager.ignoreList())
+    if (diff.isEmpty()) return
+
+    val (generation, scope) = synchronized(ignoreGeneration) {
+      pendingIgnoreDiff += diff
+      Pair(ignoreGeneration.incrementAndGet(), pendingIgnoreDiff)
+    }
+    ignoreExecutor.execute {
+      try {
+        if (recomputeIgnored(session, scope, generation)) synchronized(ignoreGeneration) {
+          if (ignoreGeneration.get() == generation) pendingIgnoreDiff = IgnoreRuleDiff.EMPTY
+        }
+      } catch (e: Throwable) {
+        log(WARN, "QuasselBacklogStorage", "Error encountered while updating ignore rules", e)
+      }
+    }
+  }
+
+  /**
+   * Stops the running ignore rule update, the affected messages are updated on the next change
+   * of the ignore list
+   */
+  fun cancelIgnoreRuleUpdate() {
+    ignoreGeneration.incrementAndGet()
+    ignoreUpdateProgress.onNext(0 to 0)
+  }
+
+  /**
+   * Walks all messages in scope of [diff] in pages and updates the ignored flag of those whose
+   * state changed. Returns false if it was superseded by a newer update or cancelled.
+   */
+  private fun recomputeIgnored(session: ISession, diff: IgnoreRuleDiff, generation: Int): Boolean {
+    val networkNames = session.networkNames
+    val networkIds = networkNames.filter {
+      diff.affectsNetwork(it.value)
+    }.map { it.key.id }
+    val bufferIds = session.bufferSyncer.bufferInfos().filter {
+      diff.affectsBuffer(it.bufferName ?: "")
+    }.map { it.bufferId.id }
+    if (!diff.isGlobal && networkIds.isEmpty() && bufferIds.isEmpty()) return true
+
+    val dao = db.message()
+    val total =
+      if (diff.isGlobal) dao._countIgnoreCandidates()
+      else dao._countIgnoreCandidates(networkIds, bufferIds)
+    var processed = 0
+    var after = Long.MIN_VALUE
+    ignoreUpdateProgress.onNext(0 to total)
+
+    while (ignoreGeneration.get() == generation) {
+      val page =
+        if (diff.isGlobal) dao._ignoreCandidates(after, chunkSize)
+        else dao._ignoreCandidates(networkIds, bufferIds, after, chunkSize)
+      if (page.isEmpty()) {
+        ignoreUpdateProgress.onNext(total to total)
+        return true
+      }
+
+      val ignored = mutableListOf<MsgId_Type>()
+      val unignored = mutableListOf<MsgId_Type>()
+      for (message in page) {
+        val bufferInfo = session.bufferSyncer.bufferInfo(message.bufferId)
+        val networkName = networkNames[message.networkId] ?: ""
+        val isIgnored = session.ignoreListManager.match(
+          message.content, message.sender, message.type, networkName, bufferInfo?.bufferName ?: ""
+        ) != IgnoreListManager.StrictnessType.UnmatchedStrictness
+        if (isIgnored != message.ignored) {
+          if (isIgnored) ignored.add(message.rawMessageId)
+          else unignored.add(message.rawMessageId)
+        }
+      }
+      if (ignored.isNotEmpty() || unignored.isNotEmpty()) db.runInTransaction(Runnable {
+        if (ignored.isNotEmpty()) dao.setIgnored(ignored, true)
+        if (unignored.isNotEmpty()) dao.setIgnored(unignored, false)
+      })
+
+      after = page.last().rawMessageId
+      processed += page.size
+      ignoreUpdateProgress.onNext(processed to total)
+    }
+    return false
+  }
+
   override fun storeMessages(session: ISession, vararg messages: Message) =
     storeMessages(session, messages.asIterable())
 
   override fun storeMessages(session: ISession, messages: Iterable<Message>) {
-    db.message().save(*messages.map {
-      MessageData.of(
-        messageId = it.messageId,
-        time = it.time,
-        type = it.type,
-        flag = it.flag,
-        bufferId = it.bufferInfo.bufferId,
-        currentBufferId = currentBuffer.safeValue,
-        currentBufferType = it.bufferInfo.type,
-        networkId = it.bufferInfo.networkId,
-        sender = it.sender,
-        senderPrefixes = it.senderPrefixes,
-        realName = it.realName,
-        avatarUrl = it.avatarUrl,
-        content = it.content,
-        ignored = isIgnored(session, it)
-      )
-    }.toTypedArray())
+    val start = System.nanoTime()
+    val currentBufferId = currentBuffer.safeValue.id
+    val iterator = messages.iterator()
+    val chunk = ArrayList<Message>(chunkSize)
+    var count = 0
+
+    synchronized(insertStatement) {
+      while (iterator.hasNext()) {
+        chunk.clear()
+        while (chunk.size < chunkSize && iterator.hasNext()) {
+          chunk.add(iterator.next())
+        }
+        val ignored = session.ignoreListManager.match(chunk)
+        try {
+          db.runInTransaction(Runnable {
+            for (i in chunk.indices) {
+              insert(chunk[i], currentBufferId,
+                     ignored[i] != IgnoreListManager.StrictnessType.UnmatchedStrictness)
+            }
+          })
+        } catch (e: RuntimeException) {
+          // Senders added in the rolled back transaction are gone again
+          senders.invalidate()
+          throw e
+        }
+        count += chunk.size
+      }
+    }
+
+    lastStored = System.currentTimeMillis()
+    if (count > chunkSize) {
+      val millis = (System.nanoTime() - start) / 1_000_000
+      log(DEBUG, "QuasselBacklogStorage",
+          "Stored $count messages in ${millis}ms (${count * 1000L / maxOf(millis, 1L)} rows/s)")
+    }
+  }
+
+  override fun storeBacklog(session: ISession, bufferId: BufferId, first: MsgId, last: MsgId,
+                            limit: Int, messages: List<Message>) {
+    storeMessages(session, messages)
+    val range = BacklogStorage.completeRange(first, last, limit, messages.map { it.messageId })
+    if (range != null) db.runInTransaction(Runnable {
+      updateRanges(bufferId) { it + range }
+    })
+  }
+
+  private fun updateRanges(bufferId: BufferId, update: (LongRangeSet) -> LongRangeSet) {
+    val dao = db.backlogRanges()
+    dao.replace(bufferId, update(dao.find(bufferId)))
+  }
+
+  private fun insert(message: Message, currentBufferId: Int, ignored: Boolean) {
+    val bufferInfo = message.bufferInfo
+    val senderId = senders.id(message)
+    val replaced = deleteStatement.run {
+      bindLong(1, message.messageId.id)
+      executeUpdateDelete()
+    }
+    insertStatement.apply {
+      bindLong(1, message.messageId.id)
+      bindLong(2, message.time.toEpochMilli())
+      bindLong(3, message.type.toInt().toLong())
+      bindLong(4, message.flag.toInt().toLong())
+      bindLong(5, bufferInfo.bufferId.id.toLong())
+      bindLong(6, currentBufferId.toLong())
+      bindLong(7, bufferInfo.type.toShort().toLong())
+      bindLong(8, bufferInfo.networkId.id.toLong())
+      bindLong(9, senderId)
+      bindString(10, message.content)
+      bindLong(11, if (ignored) 1L else 0L)
+      executeInsert()
+    }
+    // The full-text index keeps the entry of a replaced message, it can't remove entries
+    if (replaced == 0) insertFtsStatement.apply {
+      bindLong(1, message.messageId.id)
+      bindString(2, message.sender)
+      bindString(3, message.content)
+      executeInsert()
+    }
+
+    // Route the message into the buffers it is displayed in
+    val bufferId = bufferInfo.bufferId.id
+    val routes = MessageDisplay.currentBufferRoutes(message.type, bufferInfo.type)
+    if (currentBufferId == bufferId) {
+      insertDisplay(bufferId, message, MessageDisplay.ROUTE_BUFFER or routes, ignored)
+    } else {
+      insertDisplay(bufferId, message, MessageDisplay.ROUTE_BUFFER, ignored)
+      if (routes != 0) insertDisplay(currentBufferId, message, routes, ignored)
+    }
+  }
+
+  private fun insertDisplay(displayBufferId: Int, message: Message, routes: Int,
+                            ignored: Boolean) {
+    insertDisplayStatement.apply {
+      bindLong(1, displayBufferId.toLong())
+      bindLong(2, message.messageId.id)
+      bindLong(3, routes.toLong())
+      bindLong(4, message.type.toInt().toLong())
+      bindLong(5, message.bufferInfo.bufferId.id.toLong())
+      bindLong(6, message.bufferInfo.networkId.id.toLong())
+      bindLong(7, if (ignored) 1L else 0L)
+      executeInsert()
+    }
   }
 
   override fun clearMessages(bufferId: BufferId, idRange: LongRange) {
-    db.message().clearMessages(bufferId.id, idRange.first, idRange.last)
+    db.runInTransaction(Runnable {
+      db.message().clearMessages(bufferId.id, idRange.first, idRange.last)
+      updateRanges(bufferId) { it - idRange }
+    })
+    senders.prune()
   }
 
   override fun clearMessages(bufferId: BufferId) {
-    db.message().clearMessages(bufferId.id)
+    db.runInTransaction(Runnable {
+      db.message().clearMessages(bufferId.id)
+      db.message().clearDisplay(bufferId.id)
+      db.backlogRanges().clear(bufferId)
+    })
+    senders.prune()
   }
 
-  override fun clearMessages() {
-    db.message().clearMessages()
-  }
+  override fun clearMessages() = db.clearMessages()
 
   companion object {
     fun isIgnored(session: ISession, message: Message): Boolean {
       val bufferName = message.bufferInfo.bufferName ?: ""
       val networkId = message.bufferInfo.networkId
-      val networkName = session.network(networkId)?.networkName() ?: ""
+      val networkName = session.networkNames[networkId] ?: ""
 
       return session.ignoreListManager.match(
         message.content, message.sender, message.type, networkName, bufferName
@@ -94,7 +333,7 @@ class QuasselBacklogStorage(private val db: QuasselDatabase) : BacklogStorage {
       val bufferInfo = session.bufferSyncer.bufferInfo(message.bufferId)
       val bufferName = bufferInfo?.bufferName ?: ""
       val networkId = bufferInfo?.networkId ?: NetworkId(-1)
-      val networkName = session.network(networkId)?.networkName() ?: ""
+      val networkName = session.networkNames[networkId] ?: ""
 
       return session.ignoreListManager.match(
         message.content, message.sender, message.type, networkName, bufferName
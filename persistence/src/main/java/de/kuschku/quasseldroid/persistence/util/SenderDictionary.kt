@@ -0,0 +1,106 @@
+/*
+ * Quasseldroid - Quassel client for Android
+ *
+ * Copyright (c) 2019 Janne Mareike Koschinski
+ * Copyright (c) 2019 The Quassel Project
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3 as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.kuschku.quasseldroid.persistence.util
+
+import de.kuschku.libquassel.protocol.Message
+import de.kuschku.quasseldroid.persistence.db.QuasselDatabase
+import de.kuschku.quasseldroid.persistence.models.SenderData
+
+/**
+ * Resolves sender identities to their id in the [SenderData] dictionary, adding unknown ones.
+ * Recently used ids are kept in memory, so storing a message rarely needs a lookup.
+ *
+ * Ids are only valid once the transaction that added them is committed, so [invalidate] has to
+ * be called if it was rolled back. Whoever deletes messages has to call [prune] afterwards, so
+ * senders no message refers to anymore are dropped, use the instance of [QuasselDatabase.senders].
+ */
+class SenderDictionary(
+  private val db: QuasselDatabase,
+  private val cacheSize: Int = 1024
+) {
+  private data class Key(
+    val sender: String,
+    val senderPrefixes: String,
+    val realName: String,
+    val avatarUrl: String
+  )
+
+  private val cache = object : LinkedHashMap<Key, Long>(cacheSize, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Long>?) =
+      size > cacheSize
+  }
+
+  private val insertStatement by lazy {
+    db.compileStatement(
+      "INSERT OR IGNORE INTO sender (sender, senderPrefixes, realName, avatarUrl) VALUES (?, ?, ?, ?)"
+    )
+  }
+
+  private val selectStatement by lazy {
+    db.compileStatement(
+      "SELECT senderId FROM sender WHERE sender = ? AND senderPrefixes = ? AND realName = ? AND avatarUrl = ?"
+    )
+  }
+
+  @Synchronized
+  fun id(message: Message): Long {
+    val key = Key(message.sender, message.senderPrefixes, message.realName, message.avatarUrl)
+    return cache[key] ?: resolve(key).also { cache[key] = it }
+  }
+
+  private fun resolve(key: Key): Long {
+    val rowId = insertStatement.run {
+      bindString(1, key.sender)
+      bindString(2, key.senderPrefixes)
+      bindString(3, key.realName)
+      bindString(4, key.avatarUrl)
+      executeInsert()
+    }
+    if (rowId != -1L) return rowId
+
+    return selectStatement.run {
+      bindString(1, key.sender)
+      bindString(2, key.senderPrefixes)
+      bindString(3, key.realName)
+      bindString(4, key.avatarUrl)
+      simpleQueryForLong()
+    }
+  }
+
+  @Synchronized
+  fun invalidate() {
+    cache.clear()
+  }
+
+  /**
+   * Removes senders no message refers to anymore, cached ids may be among them
+   */
+  fun prune() {
+    // Take the write lock before the monitor, as storing messages does
+    db.runInTransaction(Runnable {
+      synchronized(this) {
+        db.openHelper.writableDatabase.execSQL(
+          "DELETE FROM sender WHERE NOT EXISTS (SELECT 1 FROM message WHERE message.senderId = sender.senderId)"
+        )
+        invalidate()
+      }
+    })
+  }
+}
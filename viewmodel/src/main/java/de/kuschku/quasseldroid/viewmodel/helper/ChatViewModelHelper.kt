@@ -135,22 +135,18 @@ open class ChatViewModelHelper @Inject constructor(
         session.liveNetworks().safeSwitchMap { networks ->
           val network = networks[bufferInfo.networkId]
           network?.liveIrcChannel(bufferInfo.bufferName)?.switchMapNullable(IrcChannel.NULL) { ircChannel ->
-            ircChannel?.liveIrcUsers()?.safeSwitchMap { users ->
+            // Members are already in display order
+            ircChannel?.liveMembers()?.safeSwitchMap { users ->
               combineLatest<IrcUserItem>(
                 users.mapNotNull<IrcUser, Observable<IrcUserItem>> {
                   it.updates().map { user ->
-                    val userModes = ircChannel.userModes(user)
-                    val prefixModes = network.prefixModes()
-
-                    val lowestMode = userModes.asSequence().mapNotNull {
-                      prefixModes.indexOf(it)
-                    }.min() ?: prefixModes.size
+                    val modeBits = ircChannel.userModeBits(user)
 
                     IrcUserItem(
                       bufferInfo.networkId,
                       user.nick(),
-                      network.modesToPrefixes(userModes),
-                      lowestMode,
+                      network.prefixesOf(modeBits),
+                      network.prefixModeRank(modeBits),
                       user.realName(),
                       user.hostMask(),
                       user.isAway(),
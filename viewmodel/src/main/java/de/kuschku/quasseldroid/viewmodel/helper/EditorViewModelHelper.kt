@@ -145,17 +145,13 @@ open class EditorViewModelHelper @Inject constructor(
                   filterStart(it.nick())
                 }.map<IrcUser, Observable<AutoCompleteItem.UserItem>> {
                   it.updates().map { user ->
-                    val userModes = ircChannel.userModes(user)
-                    val prefixModes = network.prefixModes()
-
-                    val lowestMode = userModes.mapNotNull(prefixModes::indexOf).min()
-                                     ?: prefixModes.size
+                    val modeBits = ircChannel.userModeBits(user)
 
                     AutoCompleteItem.UserItem(
                       user.nick(),
                       user.hostMask(),
-                      network.modesToPrefixes(userModes),
-                      lowestMode,
+                      network.prefixesOf(modeBits),
+                      network.prefixModeRank(modeBits),
                       user.realName(),
                       user.isAway(),
                       user.network().isMyNick(user.nick()),
@@ -191,9 +187,6 @@ open class EditorViewModelHelper @Inject constructor(
     }
 
   companion object {
-    val IGNORED_CHARS = charArrayOf(
-      '!', '"', '$', '%', '&', '\'', '(', ')', '*', '+', ',', '-', '.', '/', ':', ';', '<', '=',
-      '>', '?', '@', '[', '\\', ']', '^', '_', '`', '{', '|', '}', '~'
-    )
+    val IGNORED_CHARS = IrcChannel.IGNORED_NICK_CHARS
   }
 }